@@ -13,6 +13,8 @@ VALUES_MAIN_CLASS="com.distributed.c50.DistributedC50ValuesMain"
 VALUES_TEST_CLASS="com.distributed.c50.DistributedC50ValuesTest"
 COORDINATOR_CLASS="com.distributed.c50.node.CoordinatorNode"
 DATAPARTY_CLASS="com.distributed.c50.node.DataPartyNode"
+BENCHMARK_CLASS="com.distributed.c50.SecureAggregationBenchmark"
+SIMULATOR_CLASS="com.distributed.c50.ProtocolSimulator"
 
 # Build step: ./run_distributed_c50_combined.sh build
 if [ "$1" == "build" ]; then
@@ -59,6 +61,22 @@ case "$COMMAND" in
     ARFF_FILE=$6
     java $JVM_OPTS -cp "target/classes:$WEKA_JAR" $DATAPARTY_CLASS "$PARTY_NAME" "$PARTY_PORT" "$COORDINATOR_HOST" "$COORDINATOR_PORT" "$ARFF_FILE"
     ;;
+  bench)
+    CELLS=${2:-10000}
+    PARTIES=${3:-3}
+    KEY_BITS=${4:-2048}
+    java $JVM_OPTS -cp "target/classes:$WEKA_JAR" $BENCHMARK_CLASS "$CELLS" "$PARTIES" "$KEY_BITS"
+    ;;
+  simulate)
+    ARFF_FILE=$2
+    PARTIES=${3:-10}
+    LATENCY_MS=${4:-5}
+    BANDWIDTH_MBPS=${5:-100}
+    JITTER_MS=${6:-1}
+    GROWTH=${7:-depth}
+    TOPOLOGY=${8:-auto}
+    java $JVM_OPTS -cp "target/classes:$WEKA_JAR" $SIMULATOR_CLASS "$ARFF_FILE" "$PARTIES" "$LATENCY_MS" "$BANDWIDTH_MBPS" "$JITTER_MS" "$GROWTH" "$TOPOLOGY"
+    ;;
   *)
     echo "Usage:"
     echo "  $0 build                                      # Build the project"
@@ -66,6 +84,8 @@ case "$COMMAND" in
     echo "  $0 test <train.arff>                          # Test"
     echo "  $0 coordinator <port>                          # Start coordinator node"
     echo "  $0 dataparty <name> <port> <coord_host> <coord_port> <data.arff> # Start data party node"
+    echo "  $0 bench [cells] [parties] [key_bits]          # Benchmark masking vs Paillier aggregation"
+    echo "  $0 simulate <data.arff> [parties] [latency_ms] [bandwidth_mbps] [jitter_ms] [depth|level] [topology] # Simulate N parties in-process"
     ;;
 esac
 
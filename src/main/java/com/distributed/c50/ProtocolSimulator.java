@@ -0,0 +1,514 @@
+package com.distributed.c50;
+
+import com.distributed.c50.arff.ARFFHandler;
+import com.distributed.c50.common.Constants;
+import com.distributed.c50.common.CostLedger;
+import com.distributed.c50.communication.SimulatedNetwork;
+import com.distributed.c50.core.DistributedC50Core;
+import com.distributed.c50.model.AttributeMetadata;
+import com.distributed.c50.model.ColumnarDataset;
+import com.distributed.c50.model.TreeNode;
+import com.distributed.c50.privacy.AggregationTopology;
+import com.distributed.c50.privacy.CountAggregator;
+import com.distributed.c50.privacy.PairwiseMaskingProtocol;
+import com.distributed.c50.sketch.QuantileSketch;
+
+import weka.core.Instances;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+
+/**
+ * In-process simulator of horizontally partitioned training with N virtual
+ * parties. Each party holds a contiguous slice of the shuffled rows of an
+ * ARFF file and runs its own {@link DistributedC50Core} on its own thread.
+ * Every count aggregation is masked with {@link PairwiseMaskingProtocol} and
+ * summed along an {@link AggregationTopology}, with the messages delivered by
+ * a {@link SimulatedNetwork} in virtual time: a party's clock advances by the
+ * CPU time it spends between aggregations and by the modelled latency,
+ * bandwidth and jitter of its links, so nothing ever sleeps.
+ * <p>
+ * Reports the real and simulated training wall time, the aggregation rounds,
+ * messages and bytes, and checks that every party built the same tree as a
+ * centralized build over all rows.
+ */
+public class ProtocolSimulator {
+
+    /**
+     * Main method to run the simulation.
+     *
+     * @param args command-line arguments: &lt;data.arff&gt; [parties] [latencyMillis] [bandwidthMbps]
+     *             [jitterMillis] [depth|level] [auto|chain|butterfly|tree:K]
+     * @throws Exception if the data cannot be loaded
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.out.println("Usage: ProtocolSimulator <data.arff> [parties] [latencyMillis] [bandwidthMbps] " +
+                               "[jitterMillis] [depth|level] [auto|chain|butterfly|tree:K]");
+            return;
+        }
+        int numParties = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        double latencyMillis = args.length > 2 ? Double.parseDouble(args[2]) : 5.0;
+        double bandwidthMbps = args.length > 3 ? Double.parseDouble(args[3]) : 100.0;
+        double jitterMillis = args.length > 4 ? Double.parseDouble(args[4]) : 1.0;
+        boolean levelWise = args.length > 5 && args[5].equals("level");
+        String topologyName = args.length > 6 ? args[6] : "auto";
+        long seed = 42;
+
+        // Step 1: Shuffle the rows and give each party a contiguous slice
+        Instances data = ARFFHandler.loadArffFile(new File(args[0]));
+        data.setClassIndex(data.numAttributes() - 1);
+        if (numParties < 2 || numParties > data.numInstances()) {
+            throw new IllegalArgumentException("Cannot split " + data.numInstances() + " rows among " +
+                                               numParties + " parties");
+        }
+        data.randomize(new Random(seed));
+        Instances[] slices = new Instances[numParties];
+        for (int party = 0; party < numParties; party++) {
+            int from = (int) ((long) data.numInstances() * party / numParties);
+            int to = (int) ((long) data.numInstances() * (party + 1) / numParties);
+            slices[party] = new Instances(data, from, to - from);
+        }
+
+        // Step 2: Merge the parties' sketches so that every party uses the same bins
+        QuantileSketch[] sketches = ARFFHandler.buildQuantileSketches(slices[0]);
+        for (int party = 1; party < numParties; party++) {
+            QuantileSketch[] partySketches = ARFFHandler.buildQuantileSketches(slices[party]);
+            for (int j = 0; j < sketches.length; j++) {
+                if (sketches[j] != null) {
+                    sketches[j].merge(partySketches[j]);
+                }
+            }
+        }
+        AttributeMetadata[] metadata = ARFFHandler.extractAttributeMetadata(data);
+        int classIndex = data.classIndex();
+        int maxBins = Constants.DEFAULT_HISTOGRAM_BINS;
+        ColumnarDataset[] datasets = new ColumnarDataset[numParties];
+        for (int party = 0; party < numParties; party++) {
+            datasets[party] = ARFFHandler.instancesToBinnedColumnar(slices[party], sketches, maxBins);
+        }
+
+        // Step 3: Exchange the pairwise masking keys and pick the aggregation schedule
+        PairwiseMaskingProtocol[] masking = new PairwiseMaskingProtocol[numParties];
+        for (int party = 0; party < numParties; party++) {
+            masking[party] = new PairwiseMaskingProtocol(party, numParties);
+        }
+        for (int party = 0; party < numParties; party++) {
+            for (int peer = 0; peer < numParties; peer++) {
+                if (peer != party) {
+                    masking[party].establishSeed(peer, masking[peer].getPublicKey());
+                }
+            }
+        }
+        int tensorCells = countTensorCells(datasets[0], metadata, classIndex);
+        for (int party = 0; party < numParties; party++) {
+            masking[party].precomputePads(tensorCells, Constants.DEFAULT_RANDOMNESS_POOL_BATCHES);
+        }
+        SimulatedNetwork network = new SimulatedNetwork(numParties, latencyMillis, bandwidthMbps,
+                                                        jitterMillis, seed);
+        long vectorBytes = (long) tensorCells * Long.BYTES;
+        AggregationTopology topology = createTopology(topologyName, numParties, latencyMillis + jitterMillis / 2,
+                                                      vectorBytes / (bandwidthMbps * 125.0));
+        VirtualAggregation aggregation = new VirtualAggregation(network, topology);
+
+        System.out.println("Parties: " + numParties + ", rows: " + data.numInstances() +
+                           ", growth: " + (levelWise ? "level-wise" : "depth-first") + ", topology: " + topology);
+        System.out.printf("Network: %.1f ms latency, %.1f Mbit/s, %.1f ms jitter%n",
+                          latencyMillis, bandwidthMbps, jitterMillis);
+
+        // Step 4: Train all parties in lockstep, one thread each
+        DistributedC50Core[] cores = new DistributedC50Core[numParties];
+        VirtualParty[] parties = new VirtualParty[numParties];
+        TreeNode[] trees = new TreeNode[numParties];
+        Throwable[] errors = new Throwable[numParties];
+        Thread[] threads = new Thread[numParties];
+        for (int party = 0; party < numParties; party++) {
+            cores[party] = new DistributedC50Core("party-" + party, numParties);
+            cores[party].setLevelWiseGrowth(levelWise);
+            cores[party].setCostReport(false);
+            parties[party] = new VirtualParty(party, masking[party], aggregation, cores[party].getCostLedger());
+            cores[party].getGainProtocol().setCountAggregator(parties[party]);
+
+            int index = party;
+            threads[party] = new Thread(() -> {
+                try {
+                    parties[index].start();
+                    trees[index] = cores[index].buildDecisionTree(datasets[index], metadata, classIndex);
+                    parties[index].finish();
+                } catch (Throwable e) {
+                    errors[index] = e;
+                    aggregation.abort();
+                }
+            }, "party-" + party);
+        }
+
+        long start = System.nanoTime();
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        double realMillis = (System.nanoTime() - start) / 1e6;
+        for (PairwiseMaskingProtocol protocol : masking) {
+            protocol.close();
+        }
+
+        Throwable failure = firstFailure(errors);
+        if (failure != null) {
+            System.err.println("Simulation failed: " + failure);
+            return;
+        }
+        for (int party = 0; party < numParties; party++) {
+            network.compute(party, parties[party].getFinalComputeMillis());
+        }
+
+        // Step 5: Compare with a centralized build over the same rows and bins
+        DistributedC50Core centralized = new DistributedC50Core("centralized", 1);
+        centralized.setLevelWiseGrowth(levelWise);
+        centralized.setCostReport(false);
+        TreeNode expected = centralized.buildDecisionTree(
+            ARFFHandler.instancesToBinnedColumnar(data, sketches, maxBins), metadata, classIndex);
+        boolean partiesAgree = true;
+        for (int party = 1; party < numParties; party++) {
+            partiesAgree &= sameTree(trees[0], trees[party]);
+        }
+
+        double waitMillis = 0.0;
+        for (int party = 0; party < numParties; party++) {
+            waitMillis += network.getWaitMillis(party);
+        }
+        System.out.printf("Training wall time (real):      %10.1f ms%n", realMillis);
+        System.out.printf("Training wall time (simulated): %10.1f ms%n", network.getElapsedMillis());
+        System.out.printf("Mean wait per party:            %10.1f ms%n", waitMillis / numParties);
+        // Chains and trees hand the total back to the parties in one more round
+        int networkRounds = topology.getDepth() + (topology.isTotalAtAllParties() ? 0 : 1);
+        System.out.println("Aggregation rounds: " + cores[0].getGainProtocol().getAggregationRounds() +
+                           " (" + networkRounds + " network rounds each)");
+        System.out.println("Messages: " + network.getTotalMessages() + ", bytes: " + network.getTotalBytes());
+        System.out.println("Tree nodes: " + countNodes(trees[0]) + ", parties agree: " + partiesAgree +
+                           ", matches centralized build: " + sameTree(trees[0], expected));
+        System.out.print("Protocol costs of party 0:\n" + cores[0].getCostLedger().formatReport());
+    }
+
+    /**
+     * Creates the aggregation schedule named on the command line.
+     *
+     * @param name "auto", "chain", "butterfly" or "tree:K"
+     * @param numParties the number of parties
+     * @param latencyMillis the expected one-way latency
+     * @param transferMillis the time to receive one full count vector
+     * @return the topology
+     */
+    private static AggregationTopology createTopology(String name, int numParties, double latencyMillis,
+                                                      double transferMillis) {
+        if (name.equals("chain")) {
+            return AggregationTopology.chain(numParties);
+        }
+        if (name.equals("butterfly")) {
+            return AggregationTopology.butterfly(numParties);
+        }
+        if (name.startsWith("tree:")) {
+            return AggregationTopology.tree(numParties, Integer.parseInt(name.substring(5)));
+        }
+        double[] latencies = new double[numParties];
+        Arrays.fill(latencies, latencyMillis);
+        return AggregationTopology.choose(numParties, latencies, transferMillis);
+    }
+
+    /**
+     * Counts the cells of a node's count tensor the way the tree builder lays it
+     * out: one row per nominal value or histogram bin, one column per class.
+     *
+     * @param data a party's dataset
+     * @param metadata the attribute metadata
+     * @param classIndex the index of the class attribute
+     * @return the number of cells
+     */
+    private static int countTensorCells(ColumnarDataset data, AttributeMetadata[] metadata, int classIndex) {
+        int rows = 0;
+        for (int j = 0; j < metadata.length; j++) {
+            if (j == classIndex) {
+                continue;
+            }
+            if (metadata[j].getType() == AttributeMetadata.TYPE_NOMINAL) {
+                rows += metadata[j].getNumValues();
+            } else if (data.hasBinBoundaries(j) && !data.hasNumericColumn(j)) {
+                rows += data.getCardinality(j);
+            }
+        }
+        return rows * metadata[classIndex].getNumValues();
+    }
+
+    /**
+     * Picks the error that caused a simulation to fail, rather than one of the
+     * broken barriers it left behind.
+     *
+     * @param errors the error of each party, or null
+     * @return the root failure, or null if every party succeeded
+     */
+    private static Throwable firstFailure(Throwable[] errors) {
+        Throwable failure = null;
+        for (Throwable error : errors) {
+            if (error != null && (failure == null || (failure.getCause() instanceof BrokenBarrierException &&
+                                                      !(error.getCause() instanceof BrokenBarrierException)))) {
+                failure = error;
+            }
+        }
+        return failure;
+    }
+
+    /**
+     * Checks whether two trees have the same splits and leaf distributions.
+     *
+     * @param a the first tree
+     * @param b the second tree
+     * @return true if the trees are equal
+     */
+    private static boolean sameTree(TreeNode a, TreeNode b) {
+        if (a == null || b == null) {
+            return a == b;
+        }
+        if (a.isLeaf() != b.isLeaf()) {
+            return false;
+        }
+        if (a.isLeaf()) {
+            return Arrays.equals(a.getClassDistribution(), b.getClassDistribution());
+        }
+        if (a.getAttributeIndex() != b.getAttributeIndex() || a.isNumericSplit() != b.isNumericSplit()) {
+            return false;
+        }
+        if (a.isNumericSplit()) {
+            return a.getSplitThreshold() == b.getSplitThreshold() &&
+                   sameTree(a.getLeftChild(), b.getLeftChild()) && sameTree(a.getRightChild(), b.getRightChild());
+        }
+        if (a.getChildren().length != b.getChildren().length) {
+            return false;
+        }
+        for (int i = 0; i < a.getChildren().length; i++) {
+            if (!sameTree(a.getChildren()[i], b.getChildren()[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Counts the nodes of a tree.
+     *
+     * @param node the root of the tree
+     * @return the number of nodes
+     */
+    private static int countNodes(TreeNode node) {
+        if (node == null) {
+            return 0;
+        }
+        if (node.isLeaf()) {
+            return 1;
+        }
+        if (node.isNumericSplit()) {
+            return 1 + countNodes(node.getLeftChild()) + countNodes(node.getRightChild());
+        }
+        int nodes = 1;
+        for (TreeNode child : node.getChildren()) {
+            nodes += countNodes(child);
+        }
+        return nodes;
+    }
+
+    /**
+     * Aggregation rounds shared by all virtual parties. Each party deposits its
+     * masked vector and waits on a barrier; the last party to arrive runs the
+     * schedule over the deposited vectors and delivers its messages on the
+     * simulated network.
+     */
+    private static class VirtualAggregation {
+        private final SimulatedNetwork network;
+        private final AggregationTopology topology;
+        private final int[][] broadcast;
+        private final CyclicBarrier barrier;
+        private final long[][] masked;
+        private final int[] lengths;
+        private final double[] computeMillis;
+        private final long[] sentBefore;
+        private final long[] receivedBefore;
+        private final double[] waitBefore;
+        private long[] total;
+
+        /**
+         * Creates a new shared aggregation.
+         *
+         * @param network the simulated network
+         * @param topology the schedule of every aggregation
+         */
+        VirtualAggregation(SimulatedNetwork network, AggregationTopology topology) {
+            int numParties = network.getNumParties();
+            this.network = network;
+            this.topology = topology;
+            this.broadcast = new int[numParties - 1][];
+            for (int party = 1; party < numParties; party++) {
+                broadcast[party - 1] = new int[] { 0, party };
+            }
+            this.barrier = new CyclicBarrier(numParties, this::exchange);
+            this.masked = new long[numParties][0];
+            this.lengths = new int[numParties];
+            this.computeMillis = new double[numParties];
+            this.sentBefore = new long[numParties];
+            this.receivedBefore = new long[numParties];
+            this.waitBefore = new double[numParties];
+            this.total = new long[0];
+        }
+
+        /**
+         * Runs one aggregation once every party has deposited its vector.
+         *
+         * @throws IllegalStateException if the parties asked for different aggregations
+         */
+        private void exchange() {
+            int length = lengths[0];
+            for (int party = 0; party < lengths.length; party++) {
+                if (lengths[party] != length) {
+                    throw new IllegalStateException("Parties diverged: party 0 aggregates " + length +
+                                                    " cells, party " + party + " aggregates " + lengths[party]);
+                }
+            }
+
+            // Step 1: Charge every party's local work, then remember its counters
+            for (int party = 0; party < lengths.length; party++) {
+                network.compute(party, computeMillis[party]);
+                sentBefore[party] = network.getMessagesSent(party);
+                receivedBefore[party] = network.getMessagesReceived(party);
+                waitBefore[party] = network.getWaitMillis(party);
+            }
+
+            // Step 2: Deliver the schedule's messages, and the total if only party 0 holds it
+            long bytes = (long) length * Long.BYTES;
+            for (int round = 0; round < topology.getDepth(); round++) {
+                network.round(topology.getRound(round), bytes);
+            }
+            if (!topology.isTotalAtAllParties()) {
+                network.round(broadcast, bytes);
+            }
+
+            // Step 3: Sum the masked vectors; the pads cancel in the total
+            if (total.length < length) {
+                total = new long[length];
+            }
+            System.arraycopy(topology.aggregate(masked, length), 0, total, 0, length);
+        }
+
+        /**
+         * Releases every waiting party after a failure.
+         */
+        void abort() {
+            barrier.reset();
+        }
+    }
+
+    /**
+     * The count aggregator of one virtual party: masks its counts, joins the
+     * shared aggregation and accounts the messages and waiting time to the
+     * party's cost ledger.
+     */
+    private static class VirtualParty implements CountAggregator {
+        private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+        private final int party;
+        private final PairwiseMaskingProtocol masking;
+        private final VirtualAggregation aggregation;
+        private final CostLedger costLedger;
+        private long cpuMark;
+        private double finalComputeMillis;
+
+        /**
+         * Creates a new virtual party.
+         *
+         * @param party the index of the party
+         * @param masking the party's pairwise masking protocol, with all seeds established
+         * @param aggregation the shared aggregation
+         * @param costLedger the ledger of the party's tree builder
+         */
+        VirtualParty(int party, PairwiseMaskingProtocol masking, VirtualAggregation aggregation,
+                     CostLedger costLedger) {
+            this.party = party;
+            this.masking = masking;
+            this.aggregation = aggregation;
+            this.costLedger = costLedger;
+        }
+
+        /**
+         * Starts measuring the party's local work; called on the party's thread.
+         */
+        void start() {
+            cpuMark = cpuNanos();
+        }
+
+        /**
+         * Stops measuring the party's local work once its tree is built.
+         */
+        void finish() {
+            finalComputeMillis = (cpuNanos() - cpuMark) / 1e6;
+        }
+
+        /**
+         * Gets the local work done after the last aggregation.
+         *
+         * @return the computation time in milliseconds
+         */
+        double getFinalComputeMillis() {
+            return finalComputeMillis;
+        }
+
+        @Override
+        public void aggregate(int[] counts, int length) {
+            // Step 1: Mask the local counts into this party's slot
+            long cryptoStart = System.nanoTime();
+            if (aggregation.masked[party].length < length) {
+                aggregation.masked[party] = new long[length];
+            }
+            masking.maskCounts(counts, aggregation.masked[party], length);
+            costLedger.recordCrypto(System.nanoTime() - cryptoStart);
+            costLedger.recordMasks((long) length * (aggregation.network.getNumParties() - 1));
+            aggregation.lengths[party] = length;
+            aggregation.computeMillis[party] = (cpuNanos() - cpuMark) / 1e6;
+
+            // Step 2: Wait for every party; the last one to arrive runs the exchange
+            try {
+                aggregation.barrier.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted during simulated aggregation", e);
+            } catch (BrokenBarrierException e) {
+                throw new IllegalStateException("Simulated aggregation was aborted", e);
+            }
+
+            // Step 3: Take the total and account this party's share of the messages
+            PairwiseMaskingProtocol.toCounts(aggregation.total, counts, length);
+            long bytes = (long) length * Long.BYTES;
+            SimulatedNetwork network = aggregation.network;
+            for (long m = aggregation.sentBefore[party]; m < network.getMessagesSent(party); m++) {
+                costLedger.recordSent(bytes);
+            }
+            for (long m = aggregation.receivedBefore[party]; m < network.getMessagesReceived(party); m++) {
+                costLedger.recordReceived(bytes);
+            }
+            costLedger.recordWait((long) ((network.getWaitMillis(party) - aggregation.waitBefore[party]) * 1e6));
+            cpuMark = cpuNanos();
+        }
+
+        /**
+         * Gets the CPU time of the calling thread, or the wall time if the JVM
+         * cannot measure it.
+         *
+         * @return the time in nanoseconds
+         */
+        private static long cpuNanos() {
+            return THREADS.isCurrentThreadCpuTimeSupported() ? THREADS.getCurrentThreadCpuTime() : System.nanoTime();
+        }
+    }
+}
@@ -0,0 +1,298 @@
+package com.distributed.c50;
+
+import com.distributed.c50.common.Constants;
+import com.distributed.c50.communication.CountTensorMessage;
+import com.distributed.c50.communication.MessageCodec;
+import com.distributed.c50.privacy.CountTensor;
+import com.distributed.c50.privacy.KeystreamMaskGenerator;
+import com.distributed.c50.privacy.PaillierPrivateKey;
+import com.distributed.c50.privacy.PaillierPublicKey;
+import com.distributed.c50.privacy.PaillierRandomnessPool;
+import com.distributed.c50.privacy.SecureInformationGainProtocol;
+import com.distributed.c50.privacy.SecureSumProtocol;
+import com.distributed.c50.privacy.SecureXLogXProtocol;
+import com.distributed.c50.privacy.SlotPacker;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Benchmark comparing the masking-based secure sum with the Paillier
+ * homomorphic mode on the same count vectors. Reports cells per second for
+ * masking and ciphertexts per second for encryption, aggregation and CRT
+ * decryption, the same for slot-packed ciphertexts, and checks that every
+ * mode produces the same global counts. Also compares the wire bytes of one
+ * split's count exchange under Java serialization and the binary codec, and
+ * checks the error of the secure x ln x protocol against its bound for a
+ * range of table sizes and Taylor terms.
+ */
+public class SecureAggregationBenchmark {
+
+    /**
+     * Main method to run the benchmark.
+     *
+     * @param args command-line arguments: [cells] [parties] [keyBits]
+     */
+    public static void main(String[] args) {
+        int numCells = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        int numParties = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        int keyBits = args.length > 2 ? Integer.parseInt(args[2]) : Constants.DEFAULT_PAILLIER_KEY_BITS;
+        int numThreads = Runtime.getRuntime().availableProcessors();
+
+        System.out.println("Cells: " + numCells + ", parties: " + numParties +
+                           ", key bits: " + keyBits + ", cores: " + numThreads);
+
+        // Random local counts for every party, plus their plain sums for checking
+        Random random = new Random(42);
+        int[][] localCounts = new int[numParties][numCells];
+        int[] expected = new int[numCells];
+        for (int party = 0; party < numParties; party++) {
+            for (int i = 0; i < numCells; i++) {
+                localCounts[party][i] = random.nextInt(1000);
+                expected[i] += localCounts[party][i];
+            }
+        }
+
+        // Step 1: Masking-based ring
+        SecureSumProtocol secureSum = new SecureSumProtocol("benchmark", numParties);
+        long[] masks = new long[numCells];
+        long[] partialSums = new long[numCells];
+        int[] maskedResult = new int[numCells];
+        int repetitions = 20;
+        long start = System.nanoTime();
+        for (int r = 0; r < repetitions; r++) {
+            secureSum.initiateSecureSum(localCounts[0], masks, partialSums, numCells);
+            for (int party = 1; party < numParties; party++) {
+                secureSum.participateInSecureSum(partialSums, localCounts[party], numCells);
+            }
+            secureSum.finalizeSecureSum(partialSums, masks, maskedResult, numCells);
+        }
+        double maskingSeconds = (System.nanoTime() - start) / 1e9 / repetitions;
+        report("Masking (all parties)", numCells, maskingSeconds);
+
+        // Step 2: Paillier homomorphic mode
+        long keyStart = System.nanoTime();
+        PaillierPrivateKey privateKey = PaillierPrivateKey.generate(keyBits, new SecureRandom());
+        PaillierPublicKey publicKey = privateKey.getPublicKey();
+        System.out.printf("Key generation: %.1f ms%n", (System.nanoTime() - keyStart) / 1e6);
+
+        SecureInformationGainProtocol protocol = new SecureInformationGainProtocol("benchmark", numParties);
+        try (PaillierRandomnessPool pool = new PaillierRandomnessPool(publicKey, numCells, numThreads)) {
+            // Cold: the randomness factors are computed during encryption
+            start = System.nanoTime();
+            BigInteger[][] ciphertexts = new BigInteger[numParties][];
+            ciphertexts[0] = protocol.encryptCounts(publicKey, pool, localCounts[0], numCells);
+            report("Paillier encryption (cold pool)", numCells, (System.nanoTime() - start) / 1e9);
+
+            // Warm: wait for the pool to refill, as it would between tree levels
+            while (pool.getReadyFactors() < numCells) {
+                Thread.sleep(10);
+            }
+            start = System.nanoTime();
+            ciphertexts[1 % numParties] = protocol.encryptCounts(publicKey, pool, localCounts[1 % numParties], numCells);
+            report("Paillier encryption (warm pool)", numCells, (System.nanoTime() - start) / 1e9);
+            for (int party = 2; party < numParties; party++) {
+                ciphertexts[party] = protocol.encryptCounts(publicKey, pool, localCounts[party], numCells);
+            }
+
+            start = System.nanoTime();
+            BigInteger[] sums = new BigInteger[numCells];
+            for (int party = 0; party < numParties; party++) {
+                protocol.addEncryptedCounts(publicKey, sums, ciphertexts[party], numCells);
+            }
+            report("Paillier aggregation (all parties)", numCells, (System.nanoTime() - start) / 1e9);
+
+            start = System.nanoTime();
+            int[] paillierResult = new int[numCells];
+            protocol.decryptCounts(privateKey, sums, paillierResult, numCells);
+            report("Paillier CRT decryption", numCells, (System.nanoTime() - start) / 1e9);
+
+            // Step 3: Paillier with many counts packed into each plaintext; local counts stay below 1000
+            SlotPacker packer = SlotPacker.forKey(publicKey, numParties, 1000);
+            System.out.println("Packing: " + packer.getSlotsPerPlaintext() + " slots of " +
+                               packer.getSlotBits() + " bits per ciphertext");
+            start = System.nanoTime();
+            BigInteger[] packedSums = new BigInteger[packer.getNumPlaintexts(numCells)];
+            for (int party = 0; party < numParties; party++) {
+                BigInteger[] packed = protocol.encryptPackedCounts(publicKey, pool, packer,
+                                                                   localCounts[party], numCells);
+                protocol.addEncryptedCounts(publicKey, packedSums, packed, packed.length);
+            }
+            int[] packedResult = new int[numCells];
+            protocol.decryptPackedCounts(privateKey, packer, packedSums, packedResult, numCells);
+            report("Paillier packed (all steps)", numCells, (System.nanoTime() - start) / 1e9);
+
+            System.out.println("Masking result correct: " + Arrays.equals(expected, maskedResult));
+            System.out.println("Paillier result correct: " + Arrays.equals(expected, paillierResult));
+            System.out.println("Packed Paillier result correct: " + Arrays.equals(expected, packedResult));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.err.println("Benchmark interrupted");
+        }
+
+        // Step 4: Wire format of the masked tensors each split sends
+        try {
+            reportWireFormat(numCells, numParties, random);
+        } catch (IOException | ClassNotFoundException e) {
+            System.err.println("Wire format comparison failed: " + e.getMessage());
+        }
+
+        // Step 5: Accuracy of the secure x ln x protocol for each setting of its knobs
+        reportXLogXAccuracy(10000, random);
+    }
+
+    /**
+     * Runs the secure x ln x protocol between two in-process parties and a
+     * dealer on every count from 0 to maxCount, and compares the largest
+     * error with {@link SecureXLogXProtocol#getErrorBound()} for several
+     * table sizes and numbers of Taylor terms.
+     *
+     * @param maxCount the largest count
+     * @param random the source of the shares and keys
+     */
+    private static void reportXLogXAccuracy(int maxCount, Random random) {
+        int batchCells = 1024;
+        byte[] firstKey = new byte[KeystreamMaskGenerator.KEY_BYTES];
+        byte[] secondKey = new byte[KeystreamMaskGenerator.KEY_BYTES];
+        random.nextBytes(firstKey);
+        random.nextBytes(secondKey);
+        boolean withinBounds = true;
+
+        for (int tableBits : new int[] { 6, 8, Constants.DEFAULT_XLOGX_TABLE_BITS }) {
+            for (int taylorTerms : new int[] { 1, 2, Constants.DEFAULT_XLOGX_TAYLOR_TERMS, 8 }) {
+                SecureXLogXProtocol first = null;
+                double maxError = 0.0;
+                int worstCount = 0;
+                for (int from = 0; from <= maxCount; from += batchCells) {
+                    int numCells = Math.min(batchCells, maxCount + 1 - from);
+                    first = new SecureXLogXProtocol(numCells, maxCount, tableBits, taylorTerms);
+                    SecureXLogXProtocol second = new SecureXLogXProtocol(numCells, maxCount, tableBits, taylorTerms);
+
+                    // Random shares of the counts, and the dealer's corrections
+                    long[] firstShares = new long[numCells];
+                    long[] secondShares = new long[numCells];
+                    for (int cell = 0; cell < numCells; cell++) {
+                        firstShares[cell] = random.nextLong();
+                        secondShares[cell] = from + cell - firstShares[cell];
+                    }
+                    long stream = from;
+                    long[] corrections = first.dealCorrections(new KeystreamMaskGenerator(firstKey, 0),
+                                                               new KeystreamMaskGenerator(secondKey, 0), stream);
+                    first.start(true, firstShares, new KeystreamMaskGenerator(firstKey, 0), stream, null);
+                    second.start(false, secondShares, new KeystreamMaskGenerator(secondKey, 0), stream, corrections);
+                    while (!first.isComplete()) {
+                        long[] firstMessage = first.nextMessage();
+                        long[] secondMessage = second.nextMessage();
+                        first.receive(secondMessage);
+                        second.receive(firstMessage);
+                    }
+
+                    long[] firstResults = first.getResults();
+                    long[] secondResults = second.getResults();
+                    for (int cell = 0; cell < numCells; cell++) {
+                        int count = from + cell;
+                        double exact = count == 0 ? 0.0 : count * Math.log(count);
+                        double result = SecureXLogXProtocol.decode(firstResults[cell] + secondResults[cell]);
+                        double error = Math.abs(result - exact);
+                        if (error > maxError) {
+                            maxError = error;
+                            worstCount = count;
+                        }
+                    }
+                }
+
+                boolean within = maxError <= first.getErrorBound();
+                withinBounds &= within;
+                System.out.printf("x ln x, %2d table bits, %d Taylor terms: %d rounds, %5d entries/cell, " +
+                                  "max error %9.4f at %5d, bound %9.4f%s%n", tableBits, taylorTerms,
+                                  first.getNumRounds(), first.getTableSize() + first.getExactTableSize(),
+                                  maxError, worstCount, first.getErrorBound(), within ? "" : "  EXCEEDED");
+            }
+        }
+        System.out.println("x ln x errors within bounds: " + withinBounds);
+    }
+
+    /**
+     * Compares the bytes one split puts on the wire, a masked count tensor
+     * forwarded once per party, under Java serialization and the binary codec,
+     * and the time of an encode/decode round trip in each format.
+     *
+     * @param numCells the number of cells of the tensor
+     * @param numParties the number of parties
+     * @param random the source of the masked partial sums
+     * @throws IOException if serialization fails
+     * @throws ClassNotFoundException if deserialization fails
+     */
+    private static void reportWireFormat(int numCells, int numParties, Random random)
+            throws IOException, ClassNotFoundException {
+        CountTensor[] tensors = new CountTensor[2];
+        for (int t = 0; t < tensors.length; t++) {
+            tensors[t] = new CountTensor(1, numCells, 1);
+            for (int i = 0; i < numCells; i++) {
+                tensors[t].getPartialSums()[i] = random.nextLong();
+            }
+        }
+
+        // Java serialization on one long-lived stream: class descriptors go with the first message only
+        ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(serialized);
+        out.writeObject(new CountTensorMessage("party-0", "party-1", tensors[0]));
+        out.flush();
+        int firstBytes = serialized.size();
+        out.writeObject(new CountTensorMessage("party-0", "party-1", tensors[1]));
+        out.flush();
+        int steadyBytes = serialized.size() - firstBytes;
+
+        int repetitions = 20;
+        long start = System.nanoTime();
+        for (int r = 0; r < repetitions; r++) {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            try (ObjectOutputStream objects = new ObjectOutputStream(buffer)) {
+                objects.writeObject(new CountTensorMessage("party-0", "party-1", tensors[0]));
+            }
+            try (ObjectInputStream objects = new ObjectInputStream(new ByteArrayInputStream(buffer.toByteArray()))) {
+                objects.readObject();
+            }
+        }
+        double serializationSeconds = (System.nanoTime() - start) / 1e9 / repetitions;
+
+        // Binary codec
+        CountTensorMessage decoded = null;
+        int frameBytes = 0;
+        start = System.nanoTime();
+        for (int r = 0; r < repetitions; r++) {
+            ByteBuffer frame = MessageCodec.encode(new CountTensorMessage("party-0", "party-1", tensors[0]));
+            frameBytes = frame.limit();
+            frame.position(MessageCodec.HEADER_BYTES);
+            decoded = (CountTensorMessage) MessageCodec.decode(frame);
+        }
+        double codecSeconds = (System.nanoTime() - start) / 1e9 / repetitions;
+
+        System.out.printf("Wire bytes per split (%d messages): Java serialization %d (first message %d more), " +
+                          "binary codec %d%n", numParties, (long) steadyBytes * numParties,
+                          firstBytes - steadyBytes, (long) frameBytes * numParties);
+        report("Java serialization round trip", numCells, serializationSeconds);
+        report("Binary codec round trip", numCells, codecSeconds);
+        System.out.println("Codec round trip correct: " +
+                           Arrays.equals(tensors[0].getPartialSums(), decoded.getTensor().getPartialSums()));
+    }
+
+    /**
+     * Prints the throughput of one benchmark step.
+     *
+     * @param label the name of the step
+     * @param numCells the number of cells processed
+     * @param seconds the elapsed time in seconds
+     */
+    private static void report(String label, int numCells, double seconds) {
+        System.out.printf("%-36s %12.0f cells/s  (%.2f ms)%n", label + ":", numCells / seconds, seconds * 1e3);
+    }
+}
@@ -1,5 +1,10 @@
 package com.distributed.c50.arff;
 
+import com.distributed.c50.common.Constants;
+import com.distributed.c50.model.AttributeMetadata;
+import com.distributed.c50.model.ColumnarDataset;
+import com.distributed.c50.sketch.QuantileSketch;
+
 import weka.core.Attribute;
 import weka.core.DenseInstance;
 import weka.core.Instance;
@@ -20,6 +25,11 @@ import java.util.Random;
  */
 public class ARFFHandler {
     
+    /**
+     * Number of quantile bins used to encode numeric attributes as codes.
+     */
+    private static final int NUM_DISCRETIZATION_BINS = 10;
+    
     /**
      * Loads an ARFF file using Weka.
      * 
@@ -154,18 +164,12 @@ public class ARFFHandler {
         int numInstances = data.numInstances();
         int numAttributes = data.numAttributes();
         int[][] array = new int[numInstances][numAttributes];
+        double[][] cutPoints = computeCutPoints(data, buildQuantileSketches(data), NUM_DISCRETIZATION_BINS);
         
         for (int i = 0; i < numInstances; i++) {
             Instance instance = data.instance(i);
             for (int j = 0; j < numAttributes; j++) {
-                if (data.attribute(j).isNominal()) {
-                    array[i][j] = (int) instance.value(j);
-                } else {
-                    // For numeric attributes, we need to discretize
-                    // This is a simple discretization; more sophisticated methods could be used
-                    double value = instance.value(j);
-                    array[i][j] = discretizeNumericValue(value);
-                }
+                array[i][j] = encodeValue(data, instance, j, cutPoints[j]);
             }
         }
         
@@ -173,25 +177,217 @@ public class ARFFHandler {
     }
     
     /**
-     * Simple discretization of numeric values.
+     * Converts Weka instances to a columnar dataset for the C5.0 algorithm.
+     * Uses the same encoding as {@link #instancesToArray(Instances)}, but stores one
+     * narrow primitive array per attribute instead of one int array per instance.
+     * Numeric attributes also keep their raw values for threshold splits.
+     * 
+     * @param data the dataset
+     * @return the columnar dataset
+     */
+    public static ColumnarDataset instancesToColumnar(Instances data) {
+        double[][] cutPoints = computeCutPoints(data, buildQuantileSketches(data), NUM_DISCRETIZATION_BINS);
+        ColumnarDataset dataset = encodeColumns(data, cutPoints);
+        
+        for (int j = 0; j < data.numAttributes(); j++) {
+            if (data.attribute(j).isNumeric()) {
+                dataset.setNumericColumn(j, data.attributeToDoubleArray(j));
+            }
+        }
+        
+        return dataset;
+    }
+    
+    /**
+     * Converts Weka instances to a columnar dataset in histogram mode, with
+     * the default maximum number of bins.
+     * 
+     * @param data the dataset
+     * @return the columnar dataset
+     */
+    public static ColumnarDataset instancesToBinnedColumnar(Instances data) {
+        return instancesToBinnedColumnar(data, Constants.DEFAULT_HISTOGRAM_BINS);
+    }
+    
+    /**
+     * Converts Weka instances to a columnar dataset in histogram mode.
+     * Each numeric attribute is bucketized into at most maxBins quantile bins
+     * and stored only as byte or short bin codes with its bin boundaries, so
+     * split search works on bin counts instead of raw values.
+     * 
+     * @param data the dataset
+     * @param maxBins the maximum number of bins per numeric attribute
+     * @return the columnar dataset
+     */
+    public static ColumnarDataset instancesToBinnedColumnar(Instances data, int maxBins) {
+        return instancesToBinnedColumnar(data, buildQuantileSketches(data), maxBins);
+    }
+    
+    /**
+     * Converts Weka instances to a columnar dataset in histogram mode, using
+     * the given sketches for the bin boundaries. Passing sketches merged
+     * across parties gives every party the same bins.
+     * 
+     * @param data the dataset
+     * @param sketches one sketch per attribute, null for nominal attributes
+     * @param maxBins the maximum number of bins per numeric attribute
+     * @return the columnar dataset
+     */
+    public static ColumnarDataset instancesToBinnedColumnar(Instances data, QuantileSketch[] sketches,
+                                                           int maxBins) {
+        double[][] cutPoints = computeCutPoints(data, sketches, maxBins);
+        ColumnarDataset dataset = encodeColumns(data, cutPoints);
+        
+        for (int j = 0; j < data.numAttributes(); j++) {
+            if (data.attribute(j).isNumeric()) {
+                dataset.setBinBoundaries(j, cutPoints[j]);
+            }
+        }
+        
+        return dataset;
+    }
+    
+    /**
+     * Builds a quantile sketch over the values of each numeric attribute.
+     * The sketches are mergeable, so parties holding different rows of the
+     * same attribute can combine them before choosing bin boundaries.
+     * 
+     * @param data the dataset
+     * @return one sketch per attribute, null for nominal attributes
+     */
+    public static QuantileSketch[] buildQuantileSketches(Instances data) {
+        QuantileSketch[] sketches = new QuantileSketch[data.numAttributes()];
+        
+        for (int j = 0; j < data.numAttributes(); j++) {
+            if (!data.attribute(j).isNumeric()) {
+                continue;
+            }
+            sketches[j] = new QuantileSketch();
+            for (int i = 0; i < data.numInstances(); i++) {
+                sketches[j].update(data.instance(i).value(j));
+            }
+        }
+        
+        return sketches;
+    }
+    
+    /**
+     * Computes the bin boundaries of every numeric attribute from its sketch.
+     * 
+     * @param data the dataset
+     * @param sketches one sketch per attribute, null for nominal attributes
+     * @param maxBins the maximum number of bins per numeric attribute
+     * @return the cut points of each attribute, null for nominal attributes
+     */
+    private static double[][] computeCutPoints(Instances data, QuantileSketch[] sketches, int maxBins) {
+        double[][] cutPoints = new double[data.numAttributes()][];
+        
+        for (int j = 0; j < data.numAttributes(); j++) {
+            if (data.attribute(j).isNumeric()) {
+                cutPoints[j] = sketches[j].getCutPoints(maxBins);
+            }
+        }
+        
+        return cutPoints;
+    }
+    
+    /**
+     * Encodes all attributes into a columnar dataset. Nominal attributes keep
+     * their value index and numeric ones (including dates) become bin codes;
+     * string and relational attributes have no codes.
+     * 
+     * @param data the dataset
+     * @param cutPoints the bin boundaries of each numeric attribute
+     * @return the columnar dataset
+     * @throws IllegalArgumentException if an attribute is neither nominal nor numeric
+     */
+    private static ColumnarDataset encodeColumns(Instances data, double[][] cutPoints) {
+        int numInstances = data.numInstances();
+        int numAttributes = data.numAttributes();
+        
+        // Determine the number of codes each column can take
+        int[] cardinalities = new int[numAttributes];
+        for (int j = 0; j < numAttributes; j++) {
+            Attribute attribute = data.attribute(j);
+            if (attribute.isNominal()) {
+                cardinalities[j] = attribute.numValues();
+            } else if (attribute.isNumeric()) {
+                cardinalities[j] = cutPoints[j].length + 1;
+            } else {
+                throw new IllegalArgumentException("Attribute '" + attribute.name() + "' has unsupported type " +
+                    Attribute.typeToString(attribute) + "; only nominal and numeric attributes can be used");
+            }
+        }
+        
+        // Fill one column at a time so that writes stay contiguous
+        ColumnarDataset dataset = new ColumnarDataset(numInstances, cardinalities);
+        for (int j = 0; j < numAttributes; j++) {
+            for (int i = 0; i < numInstances; i++) {
+                dataset.setValue(j, i, encodeValue(data, data.instance(i), j, cutPoints[j]));
+            }
+        }
+        
+        return dataset;
+    }
+    
+    /**
+     * Extracts attribute metadata from Weka instances.
+     * 
+     * @param data the dataset
+     * @return metadata for each attribute, in attribute order
+     */
+    public static AttributeMetadata[] extractAttributeMetadata(Instances data) {
+        AttributeMetadata[] metadata = new AttributeMetadata[data.numAttributes()];
+        
+        for (int j = 0; j < data.numAttributes(); j++) {
+            Attribute attribute = data.attribute(j);
+            if (attribute.isNominal()) {
+                String[] values = new String[attribute.numValues()];
+                for (int v = 0; v < values.length; v++) {
+                    values[v] = attribute.value(v);
+                }
+                metadata[j] = new AttributeMetadata(attribute.name(), AttributeMetadata.TYPE_NOMINAL, values);
+            } else {
+                metadata[j] = new AttributeMetadata(attribute.name(), AttributeMetadata.TYPE_NUMERIC);
+            }
+        }
+        
+        return metadata;
+    }
+    
+    /**
+     * Encodes a single attribute value as an integer code.
+     * 
+     * @param data the dataset
+     * @param instance the instance
+     * @param attributeIndex the index of the attribute
+     * @param cutPoints the bin boundaries of a numeric attribute, unused for nominal ones
+     * @return the integer code of the value
+     */
+    private static int encodeValue(Instances data, Instance instance, int attributeIndex, double[] cutPoints) {
+        if (data.attribute(attributeIndex).isNominal()) {
+            return (int) instance.value(attributeIndex);
+        }
+        
+        // For numeric attributes, the code is the index of the quantile bin
+        return binOf(instance.value(attributeIndex), cutPoints);
+    }
+    
+    /**
+     * Finds the quantile bin of a numeric value.
      * 
      * @param value the numeric value
-     * @return a discretized integer value
+     * @param cutPoints the ascending bin boundaries
+     * @return the bin index, or -1 for a missing value
      */
-    private static int discretizeNumericValue(double value) {
-        // Simple discretization into 10 bins
-        // More sophisticated methods could be used
+    private static int binOf(double value, double[] cutPoints) {
         if (Double.isNaN(value)) {
-            return 0;
+            return -1;
         }
         
-        if (value <= 0.0) {
-            return 0;
-        } else if (value >= 1.0) {
-            return 9;
-        } else {
-            return (int) (value * 10);
-        }
+        // Bin b holds the values in (cutPoints[b - 1], cutPoints[b]]
+        int position = Arrays.binarySearch(cutPoints, value);
+        return position >= 0 ? position : -position - 1;
     }
     
     /**
@@ -24,6 +24,11 @@ public class Constants {
      */
     public static final int MIN_INSTANCES_PER_LEAF = 5;
     
+    /**
+     * Minimum number of instances on each side of a numeric threshold split.
+     */
+    public static final int MIN_INSTANCES_PER_BRANCH = 2;
+    
     /**
      * Minimum gain ratio threshold for splitting.
      */
@@ -39,6 +44,11 @@ public class Constants {
      */
     public static final int BUFFER_SIZE = 8192;
     
+    /**
+     * Largest message frame accepted from a socket, in bytes.
+     */
+    public static final int MAX_MESSAGE_BYTES = 256 * 1024 * 1024;
+    
     /**
      * Maximum number of connection retries.
      */
@@ -48,4 +58,75 @@ public class Constants {
      * Delay between connection retries in milliseconds.
      */
     public static final int CONNECTION_RETRY_DELAY = 1000;
+    
+    /**
+     * Default number of selector threads serving the connections of a node.
+     */
+    public static final int DEFAULT_IO_THREADS = 2;
+    
+    /**
+     * Default number of threads processing the messages received by a node.
+     */
+    public static final int DEFAULT_MESSAGE_PROCESSING_THREADS = 4;
+    
+    /**
+     * Minimum number of rows of a node whose subtrees are built in parallel.
+     */
+    public static final int DEFAULT_PARALLEL_CUTOFF_ROWS = 10000;
+    
+    /**
+     * Depth from which subtrees are always built sequentially.
+     */
+    public static final int DEFAULT_PARALLEL_CUTOFF_DEPTH = 6;
+    
+    /**
+     * Minimum number of rows of a node whose candidate attributes are evaluated in parallel.
+     */
+    public static final int DEFAULT_PARALLEL_EVALUATION_CUTOFF_ROWS = 100000;
+    
+    /**
+     * Default maximum number of histogram bins per numeric attribute.
+     */
+    public static final int DEFAULT_HISTOGRAM_BINS = 64;
+    
+    /**
+     * Default modulus size in bits of Paillier keys.
+     */
+    public static final int DEFAULT_PAILLIER_KEY_BITS = 2048;
+    
+    /**
+     * Default number of protocol batches a correlated randomness pool precomputes ahead.
+     */
+    public static final int DEFAULT_RANDOMNESS_POOL_BATCHES = 8;
+    
+    /**
+     * Default number of count cells per aggregation whose masking pads are precomputed.
+     */
+    public static final int DEFAULT_MASKED_CELLS = 64 * 1024;
+    
+    /**
+     * Default number of masks per block of the coordinator's mask pool.
+     */
+    public static final int DEFAULT_MASK_BLOCK_SIZE = 64 * 1024;
+    
+    /**
+     * Default number of mask blocks the coordinator's mask pool keeps ready.
+     */
+    public static final int DEFAULT_MASK_POOL_BLOCKS = 16;
+    
+    /**
+     * Default estimate in milliseconds of the time to receive one count vector,
+     * used when choosing the aggregation topology.
+     */
+    public static final double DEFAULT_VECTOR_TRANSFER_MILLIS = 1.0;
+    
+    /**
+     * Default base-2 logarithm of the lookup table size of the secure x ln x protocol.
+     */
+    public static final int DEFAULT_XLOGX_TABLE_BITS = 10;
+    
+    /**
+     * Default number of Taylor terms of the secure x ln x protocol.
+     */
+    public static final int DEFAULT_XLOGX_TAYLOR_TERMS = 4;
 }
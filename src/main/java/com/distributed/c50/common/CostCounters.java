@@ -0,0 +1,169 @@
+package com.distributed.c50.common;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Protocol cost counters for one scope of a training job: messages and bytes
+ * exchanged, secure aggregation rounds, masks generated, and the time spent in
+ * cryptographic operations versus waiting for other parties. Counters may be
+ * updated from any number of threads.
+ */
+public class CostCounters {
+    private final LongAdder messagesSent = new LongAdder();
+    private final LongAdder messagesReceived = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder rounds = new LongAdder();
+    private final LongAdder masks = new LongAdder();
+    private final LongAdder cryptoNanos = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+
+    /**
+     * Records a sent message.
+     *
+     * @param bytes the number of bytes written
+     */
+    public void recordSent(long bytes) {
+        messagesSent.increment();
+        bytesOut.add(bytes);
+    }
+
+    /**
+     * Records a received message.
+     *
+     * @param bytes the number of bytes read
+     */
+    public void recordReceived(long bytes) {
+        messagesReceived.increment();
+        bytesIn.add(bytes);
+    }
+
+    /**
+     * Records a secure aggregation round.
+     */
+    public void recordRound() {
+        rounds.increment();
+    }
+
+    /**
+     * Records generated masks.
+     *
+     * @param count the number of masks
+     */
+    public void recordMasks(long count) {
+        masks.add(count);
+    }
+
+    /**
+     * Records time spent in cryptographic operations.
+     *
+     * @param nanos the elapsed time in nanoseconds
+     */
+    public void recordCrypto(long nanos) {
+        cryptoNanos.add(nanos);
+    }
+
+    /**
+     * Records time spent waiting for other parties.
+     *
+     * @param nanos the elapsed time in nanoseconds
+     */
+    public void recordWait(long nanos) {
+        waitNanos.add(nanos);
+    }
+
+    /**
+     * Adds all counters of another scope to this one.
+     *
+     * @param other the counters to add
+     */
+    public void add(CostCounters other) {
+        messagesSent.add(other.getMessagesSent());
+        messagesReceived.add(other.getMessagesReceived());
+        bytesOut.add(other.getBytesOut());
+        bytesIn.add(other.getBytesIn());
+        rounds.add(other.getRounds());
+        masks.add(other.getMasks());
+        cryptoNanos.add(other.getCryptoNanos());
+        waitNanos.add(other.getWaitNanos());
+    }
+
+    /**
+     * Gets the number of messages sent.
+     *
+     * @return the number of sent messages
+     */
+    public long getMessagesSent() {
+        return messagesSent.sum();
+    }
+
+    /**
+     * Gets the number of messages received.
+     *
+     * @return the number of received messages
+     */
+    public long getMessagesReceived() {
+        return messagesReceived.sum();
+    }
+
+    /**
+     * Gets the number of bytes sent.
+     *
+     * @return the number of bytes written
+     */
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    /**
+     * Gets the number of bytes received.
+     *
+     * @return the number of bytes read
+     */
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    /**
+     * Gets the number of secure aggregation rounds.
+     *
+     * @return the number of rounds
+     */
+    public long getRounds() {
+        return rounds.sum();
+    }
+
+    /**
+     * Gets the number of masks generated.
+     *
+     * @return the number of masks
+     */
+    public long getMasks() {
+        return masks.sum();
+    }
+
+    /**
+     * Gets the time spent in cryptographic operations.
+     *
+     * @return the time in nanoseconds
+     */
+    public long getCryptoNanos() {
+        return cryptoNanos.sum();
+    }
+
+    /**
+     * Gets the time spent waiting for other parties.
+     *
+     * @return the time in nanoseconds
+     */
+    public long getWaitNanos() {
+        return waitNanos.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("rounds=%d, messages=%d/%d, bytes=%d/%d, masks=%d, crypto=%.1f ms, wait=%.1f ms",
+                             getRounds(), getMessagesSent(), getMessagesReceived(), getBytesOut(), getBytesIn(),
+                             getMasks(), getCryptoNanos() / 1e6, getWaitNanos() / 1e6);
+    }
+}
@@ -0,0 +1,221 @@
+package com.distributed.c50.common;
+
+import com.distributed.c50.model.TreeNode;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Protocol cost accounting for training jobs. Protocols and the socket manager
+ * record their costs here; every cost counts towards the current job, and costs
+ * recorded on a thread inside a scope opened with {@link #enter} also count
+ * towards the scope's tree level and, if given, tree node. The tree builder
+ * opens a scope around each secure aggregation, so the costs of a split can be
+ * queried per node and per level, and summarized in a per-level report.
+ * <p>
+ * Scopes nest, so a thread that runs another task while it waits inside a
+ * scope gets its own scope back once that task is done. A ledger may be used
+ * from any number of threads.
+ */
+public class CostLedger {
+    private final ThreadLocal<ArrayDeque<CostCounters[]>> scopes;
+    private final ConcurrentSkipListMap<Integer, CostCounters> levels;
+    private final Map<TreeNode, CostCounters> nodes;
+    private volatile CostCounters job;
+
+    /**
+     * Creates a new ledger with an empty job.
+     */
+    public CostLedger() {
+        this.scopes = ThreadLocal.withInitial(ArrayDeque::new);
+        this.levels = new ConcurrentSkipListMap<>();
+        this.nodes = Collections.synchronizedMap(new IdentityHashMap<>());
+        this.job = new CostCounters();
+    }
+
+    /**
+     * Starts a new training job, discarding the counters of the previous one.
+     */
+    public void startJob() {
+        levels.clear();
+        nodes.clear();
+        job = new CostCounters();
+    }
+
+    /**
+     * Opens a scope on the calling thread: costs recorded until {@link #exit()}
+     * also count towards the given level and node.
+     *
+     * @param node the tree node, or null if the costs are shared by the whole level
+     * @param depth the depth of the level
+     */
+    public void enter(TreeNode node, int depth) {
+        CostCounters level = levels.computeIfAbsent(depth, d -> new CostCounters());
+        CostCounters nodeCounters = null;
+        if (node != null) {
+            nodeCounters = nodes.computeIfAbsent(node, n -> new CostCounters());
+        }
+        scopes.get().push(nodeCounters == null ? new CostCounters[] { level }
+                                               : new CostCounters[] { level, nodeCounters });
+    }
+
+    /**
+     * Closes the calling thread's innermost scope.
+     */
+    public void exit() {
+        scopes.get().pop();
+    }
+
+    /**
+     * Records a sent message.
+     *
+     * @param bytes the number of bytes written
+     */
+    public void recordSent(long bytes) {
+        job.recordSent(bytes);
+        for (CostCounters counters : scoped()) {
+            counters.recordSent(bytes);
+        }
+    }
+
+    /**
+     * Records a received message.
+     *
+     * @param bytes the number of bytes read
+     */
+    public void recordReceived(long bytes) {
+        job.recordReceived(bytes);
+        for (CostCounters counters : scoped()) {
+            counters.recordReceived(bytes);
+        }
+    }
+
+    /**
+     * Records a secure aggregation round.
+     */
+    public void recordRound() {
+        job.recordRound();
+        for (CostCounters counters : scoped()) {
+            counters.recordRound();
+        }
+    }
+
+    /**
+     * Records generated masks.
+     *
+     * @param count the number of masks
+     */
+    public void recordMasks(long count) {
+        job.recordMasks(count);
+        for (CostCounters counters : scoped()) {
+            counters.recordMasks(count);
+        }
+    }
+
+    /**
+     * Records time spent in cryptographic operations.
+     *
+     * @param nanos the elapsed time in nanoseconds
+     */
+    public void recordCrypto(long nanos) {
+        job.recordCrypto(nanos);
+        for (CostCounters counters : scoped()) {
+            counters.recordCrypto(nanos);
+        }
+    }
+
+    /**
+     * Records time spent waiting for other parties.
+     *
+     * @param nanos the elapsed time in nanoseconds
+     */
+    public void recordWait(long nanos) {
+        job.recordWait(nanos);
+        for (CostCounters counters : scoped()) {
+            counters.recordWait(nanos);
+        }
+    }
+
+    /**
+     * Gets the counters of the calling thread's scope.
+     *
+     * @return the level and node counters in scope
+     */
+    private CostCounters[] scoped() {
+        CostCounters[] scope = scopes.get().peek();
+        return scope != null ? scope : new CostCounters[0];
+    }
+
+    /**
+     * Gets the counters of the current job.
+     *
+     * @return the job counters
+     */
+    public CostCounters getJobCounters() {
+        return job;
+    }
+
+    /**
+     * Gets the counters of one tree level.
+     *
+     * @param depth the depth of the level
+     * @return the level counters, or null if nothing was recorded at that depth
+     */
+    public CostCounters getLevelCounters(int depth) {
+        return levels.get(depth);
+    }
+
+    /**
+     * Gets the depths at which costs were recorded.
+     *
+     * @return the depths in increasing order
+     */
+    public NavigableSet<Integer> getLevels() {
+        return levels.keySet();
+    }
+
+    /**
+     * Gets the counters of one tree node.
+     *
+     * @param node the tree node
+     * @return the node counters, or null if nothing was recorded for the node
+     */
+    public CostCounters getNodeCounters(TreeNode node) {
+        return nodes.get(node);
+    }
+
+    /**
+     * Formats the per-level cost report of the current job.
+     *
+     * @return the report, one line per level and a total line
+     */
+    public String formatReport() {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("%-6s %7s %9s %9s %12s %12s %10s %11s %11s%n", "level", "rounds",
+                                    "msgs out", "msgs in", "bytes out", "bytes in", "masks",
+                                    "crypto ms", "wait ms"));
+        for (Map.Entry<Integer, CostCounters> level : levels.entrySet()) {
+            appendLine(report, String.valueOf(level.getKey()), level.getValue());
+        }
+        appendLine(report, "total", job);
+        return report.toString();
+    }
+
+    /**
+     * Appends one line of the cost report.
+     *
+     * @param report the report being built
+     * @param label the line label
+     * @param counters the counters of the line
+     */
+    private static void appendLine(StringBuilder report, String label, CostCounters counters) {
+        report.append(String.format("%-6s %7d %9d %9d %12d %12d %10d %11.1f %11.1f%n", label,
+                                    counters.getRounds(), counters.getMessagesSent(),
+                                    counters.getMessagesReceived(), counters.getBytesOut(),
+                                    counters.getBytesIn(), counters.getMasks(),
+                                    counters.getCryptoNanos() / 1e6, counters.getWaitNanos() / 1e6));
+    }
+}
@@ -0,0 +1,34 @@
+package com.distributed.c50.communication;
+
+import com.distributed.c50.privacy.CountTensor;
+
+/**
+ * Message carrying the masked partial sums of a secure count exchange from
+ * one party to the next.
+ */
+public class CountTensorMessage extends Message {
+    private static final long serialVersionUID = 1L;
+
+    private final CountTensor tensor;
+
+    /**
+     * Creates a new count tensor message.
+     *
+     * @param sourceId the ID of the source node
+     * @param destinationId the ID of the destination node
+     * @param tensor the masked partial sums
+     */
+    public CountTensorMessage(String sourceId, String destinationId, CountTensor tensor) {
+        super(sourceId, destinationId, "COUNT_TENSOR");
+        this.tensor = tensor;
+    }
+
+    /**
+     * Gets the masked partial sums.
+     *
+     * @return the count tensor
+     */
+    public CountTensor getTensor() {
+        return tensor;
+    }
+}
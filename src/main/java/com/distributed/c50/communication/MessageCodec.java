@@ -0,0 +1,385 @@
+package com.distributed.c50.communication;
+
+import com.distributed.c50.privacy.CountTensor;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Binary wire format of the messages exchanged between nodes. A frame is a
+ * 4-byte big-endian payload length followed by the payload: a one-byte type
+ * tag, the source and destination IDs, and the fields of the message type.
+ * <p>
+ * Lengths, counts and tensor dimensions are unsigned LEB128 varints; strings
+ * are UTF-8 behind their varint length. Nullable strings, arrays and maps
+ * store their length plus one, with 0 for null. The partial sums of a count
+ * tensor are masked and therefore look uniformly random, so they are written
+ * raw, 8 bytes each, in one bulk copy. Unlike Java serialization the format
+ * carries no class descriptors and keeps no per-stream back-reference table,
+ * so frames are independent of each other and of the stream.
+ */
+public final class MessageCodec {
+    /**
+     * Size of the length prefix of a frame.
+     */
+    public static final int HEADER_BYTES = 4;
+
+    /**
+     * Type tag of an {@link InitiationMessage}.
+     */
+    public static final int TYPE_INITIATION = 1;
+
+    /**
+     * Type tag of a {@link CountTensorMessage}.
+     */
+    public static final int TYPE_COUNT_TENSOR = 2;
+
+    /**
+     * Prevents instantiation.
+     */
+    private MessageCodec() {
+    }
+
+    /**
+     * Encodes a message into a frame.
+     *
+     * @param message the message
+     * @return the frame, length prefix included, between position 0 and the limit
+     * @throws IllegalArgumentException if the message type has no wire format
+     */
+    public static ByteBuffer encode(Message message) {
+        FrameWriter writer = new FrameWriter();
+
+        if (message instanceof InitiationMessage) {
+            InitiationMessage initiation = (InitiationMessage) message;
+            writer.putByte(TYPE_INITIATION);
+            putHeader(writer, message);
+            writer.putString(initiation.getCoordinatorId());
+            writer.putStrings(initiation.getParticipatingNodes());
+            writer.putString(initiation.getDatasetName());
+            writer.putStrings(initiation.getAttributePartitioning());
+            writer.putMap(initiation.getConfiguration());
+        } else if (message instanceof CountTensorMessage) {
+            CountTensor tensor = ((CountTensorMessage) message).getTensor();
+            writer.putByte(TYPE_COUNT_TENSOR);
+            putHeader(writer, message);
+            writer.putVarint(tensor.getNumMatrices());
+            writer.putVarint(tensor.getNumRows());
+            writer.putVarint(tensor.getNumColumns());
+            writer.putVarint(tensor.getRound());
+            writer.putLongs(tensor.getPartialSums(), tensor.getLength());
+        } else {
+            throw new IllegalArgumentException("No wire format for message type " + message.getMessageType());
+        }
+
+        return writer.finish();
+    }
+
+    /**
+     * Decodes the payload of a frame.
+     *
+     * @param payload the payload, without the length prefix, between its position and limit
+     * @return the message
+     * @throws IOException if the payload is malformed or of an unknown type
+     */
+    public static Message decode(ByteBuffer payload) throws IOException {
+        try {
+            int type = payload.get();
+            String sourceId = getString(payload);
+            String destinationId = getString(payload);
+
+            Message message;
+            switch (type) {
+                case TYPE_INITIATION:
+                    message = new InitiationMessage(sourceId, destinationId, getString(payload),
+                                                    getStrings(payload), getString(payload),
+                                                    getStrings(payload), getMap(payload));
+                    break;
+                case TYPE_COUNT_TENSOR:
+                    message = new CountTensorMessage(sourceId, destinationId, getTensor(payload));
+                    break;
+                default:
+                    throw new IOException("Unknown message type tag: " + type);
+            }
+
+            if (payload.hasRemaining()) {
+                throw new IOException(payload.remaining() + " trailing bytes after message");
+            }
+            return message;
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException("Malformed message frame", e);
+        }
+    }
+
+    /**
+     * Writes the fields shared by all messages.
+     *
+     * @param writer the frame being written
+     * @param message the message
+     */
+    private static void putHeader(FrameWriter writer, Message message) {
+        writer.putString(message.getSourceId());
+        writer.putString(message.getDestinationId());
+    }
+
+    /**
+     * Reads an unsigned varint.
+     *
+     * @param payload the payload
+     * @return the value
+     * @throws IOException if the varint does not fit an int
+     */
+    private static int getVarint(ByteBuffer payload) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = payload.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                if (value < 0) {
+                    break;
+                }
+                return value;
+            }
+        }
+        throw new IOException("Varint out of range");
+    }
+
+    /**
+     * Reads the stored length of a nullable value and checks it against the
+     * bytes left, so a corrupt length cannot trigger a huge allocation.
+     *
+     * @param payload the payload
+     * @param minBytesPerElement the fewest bytes each element takes
+     * @return the length, or -1 for null
+     * @throws IOException if the length exceeds the payload
+     */
+    private static int getLength(ByteBuffer payload, int minBytesPerElement) throws IOException {
+        int length = getVarint(payload) - 1;
+        if ((long) length * minBytesPerElement > payload.remaining()) {
+            throw new IOException("Length " + length + " exceeds the frame");
+        }
+        return length;
+    }
+
+    /**
+     * Reads a nullable string.
+     *
+     * @param payload the payload
+     * @return the string, or null
+     * @throws IOException if the string exceeds the frame
+     */
+    private static String getString(ByteBuffer payload) throws IOException {
+        int length = getLength(payload, 1);
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        payload.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads a nullable string array.
+     *
+     * @param payload the payload
+     * @return the strings, or null
+     * @throws IOException if the array exceeds the frame
+     */
+    private static String[] getStrings(ByteBuffer payload) throws IOException {
+        int length = getLength(payload, 1);
+        if (length < 0) {
+            return null;
+        }
+        String[] strings = new String[length];
+        for (int i = 0; i < length; i++) {
+            strings[i] = getString(payload);
+        }
+        return strings;
+    }
+
+    /**
+     * Reads a nullable string map, keeping the order it was written in.
+     *
+     * @param payload the payload
+     * @return the map, or null
+     * @throws IOException if the map exceeds the frame
+     */
+    private static Map<String, String> getMap(ByteBuffer payload) throws IOException {
+        int size = getLength(payload, 2);
+        if (size < 0) {
+            return null;
+        }
+        Map<String, String> map = new LinkedHashMap<>();
+        for (int i = 0; i < size; i++) {
+            map.put(getString(payload), getString(payload));
+        }
+        return map;
+    }
+
+    /**
+     * Reads a count tensor. The dimensions are checked against the bytes left
+     * before anything is allocated, without letting their product overflow.
+     *
+     * @param payload the payload
+     * @return the tensor
+     * @throws IOException if the tensor exceeds the frame
+     */
+    private static CountTensor getTensor(ByteBuffer payload) throws IOException {
+        int numMatrices = getVarint(payload);
+        int numRows = getVarint(payload);
+        int numColumns = getVarint(payload);
+        int round = getVarint(payload);
+        long maxCells = payload.remaining() / Long.BYTES;
+        long cells;
+        try {
+            cells = Math.multiplyExact(Math.multiplyExact((long) numMatrices, numRows), numColumns);
+        } catch (ArithmeticException e) {
+            cells = Long.MAX_VALUE;
+        }
+        if (cells > maxCells) {
+            throw new IOException("Tensor of " + numMatrices + "x" + numRows + "x" + numColumns +
+                " cells exceeds the frame");
+        }
+        long[] partialSums = new long[(int) cells];
+        payload.asLongBuffer().get(partialSums);
+        payload.position(payload.position() + partialSums.length * Long.BYTES);
+        return new CountTensor(numMatrices, numRows, numColumns, partialSums, round);
+    }
+
+    /**
+     * Growable buffer a frame is written into, with room for the length prefix.
+     */
+    private static final class FrameWriter {
+        private ByteBuffer buffer;
+
+        /**
+         * Creates a new writer positioned after the length prefix.
+         */
+        FrameWriter() {
+            this.buffer = ByteBuffer.allocate(256);
+            this.buffer.position(HEADER_BYTES);
+        }
+
+        /**
+         * Makes room for more bytes.
+         *
+         * @param bytes the number of bytes about to be written
+         */
+        private void ensure(long bytes) {
+            if (buffer.remaining() >= bytes) {
+                return;
+            }
+            long needed = buffer.position() + bytes;
+            if (needed > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Message does not fit a frame: " + needed + " bytes");
+            }
+            ByteBuffer grown = ByteBuffer.allocate((int) Math.min(Integer.MAX_VALUE,
+                                                                  Math.max(needed, 2L * buffer.capacity())));
+            buffer.flip();
+            grown.put(buffer);
+            buffer = grown;
+        }
+
+        /**
+         * Writes one byte.
+         *
+         * @param value the byte
+         */
+        void putByte(int value) {
+            ensure(1);
+            buffer.put((byte) value);
+        }
+
+        /**
+         * Writes an unsigned varint.
+         *
+         * @param value the value, not negative
+         */
+        void putVarint(int value) {
+            if (value < 0) {
+                throw new IllegalArgumentException("Varint must not be negative: " + value);
+            }
+            ensure(5);
+            while ((value & ~0x7F) != 0) {
+                buffer.put((byte) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            buffer.put((byte) value);
+        }
+
+        /**
+         * Writes a nullable string.
+         *
+         * @param value the string, or null
+         */
+        void putString(String value) {
+            if (value == null) {
+                putVarint(0);
+                return;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            putVarint(bytes.length + 1);
+            ensure(bytes.length);
+            buffer.put(bytes);
+        }
+
+        /**
+         * Writes a nullable string array.
+         *
+         * @param values the strings, or null
+         */
+        void putStrings(String[] values) {
+            if (values == null) {
+                putVarint(0);
+                return;
+            }
+            putVarint(values.length + 1);
+            for (String value : values) {
+                putString(value);
+            }
+        }
+
+        /**
+         * Writes a nullable string map.
+         *
+         * @param map the map, or null
+         */
+        void putMap(Map<String, String> map) {
+            if (map == null) {
+                putVarint(0);
+                return;
+            }
+            putVarint(map.size() + 1);
+            for (Map.Entry<String, String> entry : map.entrySet()) {
+                putString(entry.getKey());
+                putString(entry.getValue());
+            }
+        }
+
+        /**
+         * Writes raw 64-bit words in one bulk copy.
+         *
+         * @param values the words
+         * @param length the number of words
+         */
+        void putLongs(long[] values, int length) {
+            ensure((long) length * Long.BYTES);
+            buffer.asLongBuffer().put(values, 0, length);
+            buffer.position(buffer.position() + length * Long.BYTES);
+        }
+
+        /**
+         * Completes the frame by filling in the length prefix.
+         *
+         * @return the frame between position 0 and the limit
+         */
+        ByteBuffer finish() {
+            buffer.putInt(0, buffer.position() - HEADER_BYTES);
+            buffer.flip();
+            return buffer;
+        }
+    }
+}
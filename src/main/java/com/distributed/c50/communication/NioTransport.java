@@ -0,0 +1,644 @@
+package com.distributed.c50.communication;
+
+import com.distributed.c50.common.Constants;
+import com.distributed.c50.common.CostLedger;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Non-blocking transport for the message frames of {@link MessageCodec}.
+ * A small fixed set of I/O threads, each with its own {@link Selector},
+ * serves every connection: the first thread also accepts, and connections
+ * are spread over the threads round-robin. Sockets are read and written
+ * through direct buffers; frames larger than the read buffer are assembled
+ * in a buffer of their own.
+ * <p>
+ * Complete frames are handed to a processing executor, where they are
+ * decoded and passed to the {@link MessageHandler.MessageProcessor}. The
+ * frames of one connection are processed one at a time and in order, while
+ * different connections are processed concurrently. An accepted connection
+ * is known by the source ID of its first message; an outgoing one by the ID
+ * it was connected under. Sends are queued and return immediately. The
+ * frames sent and received are recorded in a {@link CostLedger}.
+ * <p>
+ * The transport is not authenticated or encrypted. A peer names itself in its
+ * first message, and the only checks are that the name is one of the expected
+ * peers registered with {@link #allowPeer} and that no other accepted
+ * connection holds it. If this node has itself connected to that peer, sends
+ * keep going over its own connection and the accepted one only delivers. After
+ * that, messages whose source ID differs from the connection's are dropped.
+ * This stops accidental or naive impersonation, but not an attacker who knows
+ * a valid ID and connects first. Deployments across untrusted networks need
+ * TLS or authenticated channels underneath.
+ */
+public class NioTransport implements MessageHandler, AutoCloseable {
+    private final int numIoThreads;
+    private final Executor processingExecutor;
+    private final MessageHandler.MessageProcessor processor;
+    private final Map<String, Connection> connections;
+    private final Map<String, Double> handshakeMillis;
+    private final Set<String> allowedPeers;
+    private final AtomicInteger nextIoThread;
+    private IoThread[] ioThreads;
+    private ServerSocketChannel serverChannel;
+    private CostLedger costLedger;
+    private volatile boolean running;
+
+    /**
+     * Creates a new transport; no threads run until {@link #start()}.
+     *
+     * @param numIoThreads the number of selector threads, at least 1
+     * @param processingExecutor the executor received messages are processed on
+     * @param processor the processor of received messages
+     * @throws IllegalArgumentException if numIoThreads is less than 1
+     */
+    public NioTransport(int numIoThreads, Executor processingExecutor, MessageHandler.MessageProcessor processor) {
+        if (numIoThreads < 1) {
+            throw new IllegalArgumentException("At least one I/O thread is required: " + numIoThreads);
+        }
+        this.numIoThreads = numIoThreads;
+        this.processingExecutor = processingExecutor;
+        this.processor = processor;
+        this.connections = new ConcurrentHashMap<>();
+        this.handshakeMillis = new ConcurrentHashMap<>();
+        this.allowedPeers = ConcurrentHashMap.newKeySet();
+        this.nextIoThread = new AtomicInteger();
+        this.costLedger = new CostLedger();
+    }
+
+    /**
+     * Sets the ledger that records the traffic of all connections.
+     *
+     * @param costLedger the cost ledger
+     */
+    public void setCostLedger(CostLedger costLedger) {
+        this.costLedger = costLedger;
+    }
+
+    /**
+     * Allows an accepted connection to identify itself as a node. Accepted
+     * connections whose first message names any other node are closed.
+     *
+     * @param nodeId the ID of an expected peer
+     */
+    public void allowPeer(String nodeId) {
+        allowedPeers.add(nodeId);
+    }
+
+    /**
+     * Opens the selectors and starts the I/O threads.
+     *
+     * @throws IOException if a selector cannot be opened
+     */
+    public synchronized void start() throws IOException {
+        if (running) {
+            return;
+        }
+        ioThreads = new IoThread[numIoThreads];
+        for (int i = 0; i < numIoThreads; i++) {
+            ioThreads[i] = new IoThread(Selector.open(), "nio-transport-" + i);
+        }
+        running = true;
+        for (IoThread ioThread : ioThreads) {
+            ioThread.thread.start();
+        }
+    }
+
+    /**
+     * Listens for connections on a port.
+     *
+     * @param port the port, or 0 for any free port
+     * @return the port listened on
+     * @throws IOException if the port cannot be bound
+     * @throws IllegalStateException if the transport has not been started
+     */
+    public int bind(int port) throws IOException {
+        if (!running) {
+            throw new IllegalStateException("Transport has not been started");
+        }
+        ServerSocketChannel channel = ServerSocketChannel.open();
+        channel.bind(new InetSocketAddress(port));
+        channel.configureBlocking(false);
+        serverChannel = channel;
+
+        IoThread acceptor = ioThreads[0];
+        acceptor.execute(() -> channel.register(acceptor.selector, SelectionKey.OP_ACCEPT));
+        return ((InetSocketAddress) channel.getLocalAddress()).getPort();
+    }
+
+    /**
+     * Connects to a remote node, retrying a few times. The TCP handshake of
+     * the successful attempt is timed; see {@link #getHandshakeMillis}.
+     *
+     * @param host the hostname or IP address of the remote node
+     * @param port the port number of the remote node
+     * @param nodeId the ID of the remote node
+     * @return true if connected successfully, false otherwise
+     */
+    public boolean connect(String host, int port, String nodeId) {
+        if (!running) {
+            throw new IllegalStateException("Transport has not been started");
+        }
+        for (int retries = 1; ; retries++) {
+            try {
+                InetSocketAddress address = new InetSocketAddress(host, port);
+                long handshakeStart = System.nanoTime();
+                SocketChannel channel = SocketChannel.open(address);
+                handshakeMillis.put(nodeId, (System.nanoTime() - handshakeStart) / 1e6);
+                Connection connection = register(channel, nodeId);
+                connections.put(nodeId, connection);
+                return true;
+            } catch (IOException e) {
+                if (retries >= Constants.MAX_CONNECTION_RETRIES) {
+                    System.err.println("Failed to connect to " + nodeId + ": " + e.getMessage());
+                    return false;
+                }
+            }
+
+            // Wait before retrying
+            try {
+                Thread.sleep(Constants.CONNECTION_RETRY_DELAY);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Sends a message to its destination node.
+     *
+     * @param message the message to send
+     * @return true if queued for sending, false if the destination is not connected
+     */
+    @Override
+    public boolean sendMessage(Message message) {
+        return sendMessage(message.getDestinationId(), message);
+    }
+
+    /**
+     * Queues a message for a remote node.
+     *
+     * @param nodeId the ID of the remote node
+     * @param message the message to send
+     * @return true if queued for sending, false if the node is not connected
+     */
+    public boolean sendMessage(String nodeId, Message message) {
+        Connection connection = nodeId == null ? null : connections.get(nodeId);
+        if (connection == null) {
+            return false;
+        }
+
+        ByteBuffer frame = MessageCodec.encode(message);
+        costLedger.recordSent(frame.limit());
+        connection.enqueue(frame);
+        return true;
+    }
+
+    /**
+     * Gets the duration of the TCP handshake of the last successful connect
+     * to a node: one round trip, without name resolution or retry delays.
+     *
+     * @param nodeId the ID of the remote node
+     * @return the handshake time in milliseconds, or NaN if never connected
+     */
+    public double getHandshakeMillis(String nodeId) {
+        return handshakeMillis.getOrDefault(nodeId, Double.NaN);
+    }
+
+    /**
+     * Gets the number of identified connections.
+     *
+     * @return the number of connections messages can be sent on
+     */
+    public int getNumConnections() {
+        return connections.size();
+    }
+
+    /**
+     * Closes the connection to a remote node.
+     *
+     * @param nodeId the ID of the remote node
+     */
+    public void closeConnection(String nodeId) {
+        Connection connection = connections.get(nodeId);
+        if (connection != null) {
+            connection.ioThread.execute(connection::close);
+        }
+    }
+
+    /**
+     * Stops the I/O threads and closes every connection. The processing
+     * executor belongs to the caller and is left running.
+     */
+    @Override
+    public synchronized void close() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        for (IoThread ioThread : ioThreads) {
+            ioThread.selector.wakeup();
+        }
+        for (IoThread ioThread : ioThreads) {
+            try {
+                ioThread.thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        try {
+            if (serverChannel != null) {
+                serverChannel.close();
+            }
+            for (IoThread ioThread : ioThreads) {
+                for (SelectionKey key : ioThread.selector.keys()) {
+                    key.channel().close();
+                }
+                ioThread.selector.close();
+            }
+        } catch (IOException e) {
+            System.err.println("Error closing transport: " + e.getMessage());
+        }
+        connections.clear();
+    }
+
+    /**
+     * Hands a connected channel to the next I/O thread.
+     *
+     * @param channel the connected channel
+     * @param nodeId the ID of the remote node, or null until its first message
+     * @return the connection
+     * @throws IOException if the channel cannot be configured
+     */
+    private Connection register(SocketChannel channel, String nodeId) throws IOException {
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+
+        IoThread ioThread = ioThreads[Math.floorMod(nextIoThread.getAndIncrement(), numIoThreads)];
+        Connection connection = new Connection(channel, ioThread, nodeId);
+        ioThread.execute(() -> connection.key = channel.register(ioThread.selector, SelectionKey.OP_READ,
+                                                                 connection));
+        return connection;
+    }
+
+    /**
+     * Task run on an I/O thread.
+     */
+    private interface IoTask {
+        /**
+         * Runs the task.
+         *
+         * @throws IOException if a channel operation fails
+         */
+        void run() throws IOException;
+    }
+
+    /**
+     * One selector and the thread that serves it.
+     */
+    private class IoThread implements Runnable {
+        private final Selector selector;
+        private final Thread thread;
+        private final Queue<IoTask> tasks;
+
+        /**
+         * Creates a new I/O thread.
+         *
+         * @param selector the selector of the thread
+         * @param name the name of the thread
+         */
+        IoThread(Selector selector, String name) {
+            this.selector = selector;
+            this.thread = new Thread(this, name);
+            this.thread.setDaemon(true);
+            this.tasks = new ConcurrentLinkedQueue<>();
+        }
+
+        /**
+         * Runs a task on this thread; selection keys may only be changed here.
+         *
+         * @param task the task
+         */
+        void execute(IoTask task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                try {
+                    selector.select();
+                } catch (IOException e) {
+                    System.err.println("Selector failed: " + e.getMessage());
+                    return;
+                }
+
+                // Step 1: Run the tasks handed over by other threads
+                IoTask task;
+                while ((task = tasks.poll()) != null) {
+                    try {
+                        task.run();
+                    } catch (IOException e) {
+                        System.err.println("Transport task failed: " + e.getMessage());
+                    }
+                }
+
+                // Step 2: Serve the ready channels
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (key.isValid() && key.isAcceptable()) {
+                        accept((ServerSocketChannel) key.channel());
+                        continue;
+                    }
+
+                    Connection connection = (Connection) key.attachment();
+                    try {
+                        if (key.isValid() && key.isReadable()) {
+                            connection.read();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            connection.flush();
+                        }
+                    } catch (IOException e) {
+                        System.err.println("Connection to " + connection.nodeId + " failed: " + e.getMessage());
+                        connection.close();
+                    }
+                }
+            }
+        }
+
+        /**
+         * Accepts every pending connection.
+         *
+         * @param channel the listening channel
+         */
+        private void accept(ServerSocketChannel channel) {
+            try {
+                SocketChannel accepted;
+                while ((accepted = channel.accept()) != null) {
+                    register(accepted, null);
+                }
+            } catch (IOException e) {
+                if (running) {
+                    System.err.println("Error accepting connection: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * State of one connection. Reads, writes and key changes happen on the
+     * connection's I/O thread; received frames are processed in order by one
+     * task at a time on the processing executor.
+     */
+    private class Connection {
+        private final SocketChannel channel;
+        private final IoThread ioThread;
+        private final ByteBuffer readBuffer;
+        private final ByteBuffer writeBuffer;
+        private final Queue<ByteBuffer> outbox;
+        private final Queue<byte[]> inbox;
+        private final AtomicBoolean flushScheduled;
+        private final AtomicBoolean processing;
+        private volatile String nodeId;
+        private final boolean outbound;
+        private volatile boolean rejected;
+        private SelectionKey key;
+        private ByteBuffer largeFrame;
+        private ByteBuffer sending;
+
+        /**
+         * Creates a new connection.
+         *
+         * @param channel the connected channel
+         * @param ioThread the I/O thread serving the channel
+         * @param nodeId the ID of the remote node, or null until its first message
+         */
+        Connection(SocketChannel channel, IoThread ioThread, String nodeId) {
+            this.channel = channel;
+            this.ioThread = ioThread;
+            this.nodeId = nodeId;
+            this.outbound = nodeId != null;
+            this.readBuffer = ByteBuffer.allocateDirect(Constants.BUFFER_SIZE);
+            this.writeBuffer = ByteBuffer.allocateDirect(Constants.BUFFER_SIZE);
+            this.outbox = new ConcurrentLinkedQueue<>();
+            this.inbox = new ConcurrentLinkedQueue<>();
+            this.flushScheduled = new AtomicBoolean();
+            this.processing = new AtomicBoolean();
+        }
+
+        /**
+         * Queues a frame and makes sure the I/O thread will write it.
+         *
+         * @param frame the frame
+         */
+        void enqueue(ByteBuffer frame) {
+            outbox.add(frame);
+            if (flushScheduled.compareAndSet(false, true)) {
+                ioThread.execute(() -> {
+                    flushScheduled.set(false);
+                    if (key != null && key.isValid()) {
+                        flush();
+                    }
+                });
+            }
+        }
+
+        /**
+         * Reads what the socket has and splits it into frames.
+         *
+         * @throws IOException if the read fails or a frame is malformed
+         */
+        void read() throws IOException {
+            // A frame larger than the read buffer is assembled on its own
+            if (largeFrame != null) {
+                if (channel.read(largeFrame) < 0) {
+                    close();
+                    return;
+                }
+                if (!largeFrame.hasRemaining()) {
+                    deliver(largeFrame.array());
+                    largeFrame = null;
+                }
+                return;
+            }
+
+            if (channel.read(readBuffer) < 0) {
+                close();
+                return;
+            }
+            readBuffer.flip();
+            while (readBuffer.remaining() >= MessageCodec.HEADER_BYTES) {
+                int length = readBuffer.getInt(readBuffer.position());
+                if (length < 0 || length > Constants.MAX_MESSAGE_BYTES) {
+                    throw new IOException("Invalid frame length " + length);
+                }
+
+                if (readBuffer.remaining() - MessageCodec.HEADER_BYTES >= length) {
+                    readBuffer.position(readBuffer.position() + MessageCodec.HEADER_BYTES);
+                    byte[] payload = new byte[length];
+                    readBuffer.get(payload);
+                    deliver(payload);
+                } else if (MessageCodec.HEADER_BYTES + length > readBuffer.capacity()) {
+                    readBuffer.position(readBuffer.position() + MessageCodec.HEADER_BYTES);
+                    largeFrame = ByteBuffer.allocate(length);
+                    largeFrame.put(readBuffer);
+                    break;
+                } else {
+                    break;
+                }
+            }
+            readBuffer.compact();
+        }
+
+        /**
+         * Writes queued frames until they are all out or the socket is full.
+         *
+         * @throws IOException if the write fails
+         */
+        void flush() throws IOException {
+            while (true) {
+                // Step 1: Copy queued frames into the direct buffer
+                if (sending == null) {
+                    sending = outbox.poll();
+                }
+                while (sending != null && writeBuffer.hasRemaining()) {
+                    int n = Math.min(sending.remaining(), writeBuffer.remaining());
+                    ByteBuffer chunk = sending.duplicate();
+                    chunk.limit(chunk.position() + n);
+                    writeBuffer.put(chunk);
+                    sending.position(sending.position() + n);
+                    if (!sending.hasRemaining()) {
+                        sending = outbox.poll();
+                    }
+                }
+
+                // Step 2: Write, and wait for the socket if it takes less than everything
+                writeBuffer.flip();
+                channel.write(writeBuffer);
+                boolean written = !writeBuffer.hasRemaining();
+                writeBuffer.compact();
+                if (!written) {
+                    key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    return;
+                }
+                if (sending == null && (sending = outbox.poll()) == null) {
+                    key.interestOps(SelectionKey.OP_READ);
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Queues a received frame for processing.
+         *
+         * @param payload the payload of the frame
+         */
+        private void deliver(byte[] payload) {
+            costLedger.recordReceived(MessageCodec.HEADER_BYTES + payload.length);
+            if (rejected) {
+                return;
+            }
+            inbox.add(payload);
+            if (processing.compareAndSet(false, true)) {
+                processingExecutor.execute(this::process);
+            }
+        }
+
+        /**
+         * Decodes and processes the received frames in order; runs on the
+         * processing executor, one task per connection at a time.
+         */
+        private void process() {
+            try {
+                byte[] payload;
+                while (!rejected && (payload = inbox.poll()) != null) {
+                    try {
+                        Message message = MessageCodec.decode(ByteBuffer.wrap(payload));
+                        if (accepts(message)) {
+                            processor.processMessage(message);
+                        }
+                    } catch (IOException e) {
+                        System.err.println("Dropped malformed message from " + nodeId + ": " + e.getMessage());
+                    } catch (RuntimeException e) {
+                        System.err.println("Failed to process message from " + nodeId + ": " + e);
+                    }
+                }
+            } finally {
+                // A frame may have arrived after the last poll
+                processing.set(false);
+                if (!rejected && !inbox.isEmpty() && processing.compareAndSet(false, true)) {
+                    processingExecutor.execute(this::process);
+                }
+            }
+        }
+
+        /**
+         * Checks the source of a received message. The first message of an
+         * accepted connection names the peer, which must be expected and not
+         * held by another accepted connection; otherwise the connection is
+         * closed.
+         *
+         * @param message the received message
+         * @return true if the message comes from the connection's peer
+         */
+        private boolean accepts(Message message) {
+            String sourceId = message.getSourceId();
+            if (nodeId == null) {
+                boolean allowed = sourceId != null && allowedPeers.contains(sourceId);
+                Connection existing = allowed ? connections.putIfAbsent(sourceId, this) : null;
+                if (!allowed || (existing != null && !existing.outbound)) {
+                    System.err.println("Rejected connection claiming to be " + sourceId);
+                    rejected = true;
+                    ioThread.execute(this::close);
+                    return false;
+                }
+                nodeId = sourceId;
+                return true;
+            }
+
+            if (!nodeId.equals(sourceId)) {
+                System.err.println("Dropped message from " + nodeId + " claiming to be " + sourceId);
+                return false;
+            }
+            return true;
+        }
+
+        /**
+         * Closes the channel and forgets the connection.
+         */
+        void close() {
+            if (nodeId != null) {
+                connections.remove(nodeId, this);
+            }
+            if (key != null) {
+                key.cancel();
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                System.err.println("Error closing connection to " + nodeId + ": " + e.getMessage());
+            }
+        }
+    }
+}
@@ -1,10 +1,14 @@
 package com.distributed.c50.communication;
 
 import com.distributed.c50.common.Constants;
+import com.distributed.c50.common.CostLedger;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.net.Socket;
+import java.nio.ByteBuffer;
 import java.security.NoSuchAlgorithmException;
 import java.util.HashMap;
 import java.util.Map;
@@ -14,12 +18,16 @@ import javax.crypto.SecretKey;
 
 /**
  * Manages secure socket connections between nodes in the distributed C5.0 system.
+ * Messages travel as length-prefixed binary frames of {@link MessageCodec}.
+ * The messages and bytes exchanged and the time spent blocked on receives are
+ * recorded in a {@link CostLedger}.
  */
 public class SecureSocketManager {
     private final Map<String, Socket> connections;
-    private final Map<String, ObjectOutputStream> outputStreams;
-    private final Map<String, ObjectInputStream> inputStreams;
+    private final Map<String, DataOutputStream> outputStreams;
+    private final Map<String, DataInputStream> inputStreams;
     private final Map<String, SecretKey> encryptionKeys;
+    private CostLedger costLedger;
     
     /**
      * Creates a new secure socket manager.
@@ -31,6 +39,16 @@ public class SecureSocketManager {
         this.outputStreams = new HashMap<>();
         this.inputStreams = new HashMap<>();
         this.encryptionKeys = new HashMap<>();
+        this.costLedger = new CostLedger();
+    }
+    
+    /**
+     * Sets the ledger that records the traffic of all connections.
+     * 
+     * @param costLedger the cost ledger
+     */
+    public void setCostLedger(CostLedger costLedger) {
+        this.costLedger = costLedger;
     }
     
     /**
@@ -67,10 +85,11 @@ public class SecureSocketManager {
                 }
             }
             
-            // Create streams
-            ObjectOutputStream out = new ObjectOutputStream(socket.getOutputStream());
-            out.flush();
-            ObjectInputStream in = new ObjectInputStream(socket.getInputStream());
+            // Create buffered streams for the message frames
+            DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(socket.getOutputStream(), Constants.BUFFER_SIZE));
+            DataInputStream in = new DataInputStream(
+                new BufferedInputStream(socket.getInputStream(), Constants.BUFFER_SIZE));
             
             // Generate encryption key
             KeyGenerator keyGen = KeyGenerator.getInstance("AES");
@@ -99,15 +118,17 @@ public class SecureSocketManager {
      */
     public boolean sendMessage(String nodeId, Message message) {
         try {
-            ObjectOutputStream out = outputStreams.get(nodeId);
+            DataOutputStream out = outputStreams.get(nodeId);
             if (out == null) {
                 return false;
             }
             
             // In a real implementation, we would encrypt the message here
-            // For simplicity, we just send the message directly
-            out.writeObject(message);
+            // For simplicity, we just send the frame directly
+            ByteBuffer frame = MessageCodec.encode(message);
+            out.write(frame.array(), 0, frame.limit());
             out.flush();
+            costLedger.recordSent(frame.limit());
             
             return true;
         } catch (IOException e) {
@@ -124,15 +145,25 @@ public class SecureSocketManager {
      */
     public Message receiveMessage(String nodeId) {
         try {
-            ObjectInputStream in = inputStreams.get(nodeId);
+            DataInputStream in = inputStreams.get(nodeId);
             if (in == null) {
                 return null;
             }
             
             // In a real implementation, we would decrypt the message here
-            // For simplicity, we just receive the message directly
-            return (Message) in.readObject();
-        } catch (IOException | ClassNotFoundException e) {
+            // For simplicity, we just receive the frame directly
+            long startTime = System.nanoTime();
+            int length = in.readInt();
+            if (length < 0 || length > Constants.MAX_MESSAGE_BYTES) {
+                throw new IOException("Invalid frame length " + length);
+            }
+            byte[] payload = new byte[length];
+            in.readFully(payload);
+            costLedger.recordWait(System.nanoTime() - startTime);
+            costLedger.recordReceived(MessageCodec.HEADER_BYTES + length);
+            
+            return MessageCodec.decode(ByteBuffer.wrap(payload));
+        } catch (IOException e) {
             System.err.println("Failed to receive message from " + nodeId + ": " + e.getMessage());
             return null;
         }
@@ -150,12 +181,12 @@ public class SecureSocketManager {
                 socket.close();
             }
             
-            ObjectOutputStream out = outputStreams.remove(nodeId);
+            DataOutputStream out = outputStreams.remove(nodeId);
             if (out != null) {
                 out.close();
             }
             
-            ObjectInputStream in = inputStreams.remove(nodeId);
+            DataInputStream in = inputStreams.remove(nodeId);
             if (in != null) {
                 in.close();
             }
@@ -0,0 +1,221 @@
+package com.distributed.c50.communication;
+
+import java.util.Random;
+
+/**
+ * Virtual-time model of the links between parties, for running protocols
+ * in-process without sockets or sleeps. Every party has a virtual clock and
+ * one full-duplex link with a fixed bandwidth. A message leaves when the
+ * sender's uplink is free, takes size / bandwidth to serialize, reaches the
+ * receiver after the one-way latency plus a uniformly random jitter, and then
+ * queues behind earlier messages on the receiver's downlink. A receiver's
+ * clock only moves forward when a message arrives after it, and that gap is
+ * counted as waiting time.
+ * <p>
+ * Messages are exchanged in rounds: all senders of a round send what they held
+ * at the start of the round, so a party that receives and sends in the same
+ * round does not delay its own send. The jitter is drawn from a seeded
+ * generator, so a run is reproducible. Instances are not thread-safe.
+ */
+public class SimulatedNetwork {
+    private final int numParties;
+    private final double latencyMillis;
+    private final double jitterMillis;
+    private final double bytesPerMilli;
+    private final Random random;
+    private final double[] clocks;
+    private final double[] uplinkFree;
+    private final double[] downlinkFree;
+    private final long[] messagesSent;
+    private final long[] messagesReceived;
+    private final long[] bytesSent;
+    private final long[] bytesReceived;
+    private final double[] waitMillis;
+
+    /**
+     * Creates a new network with all clocks at zero.
+     *
+     * @param numParties the number of parties
+     * @param latencyMillis the one-way latency of every link
+     * @param bandwidthMbps the bandwidth of every link in megabits per second
+     * @param jitterMillis the maximum extra delay added to each message
+     * @param seed the seed of the jitter
+     * @throws IllegalArgumentException if a parameter is out of range
+     */
+    public SimulatedNetwork(int numParties, double latencyMillis, double bandwidthMbps,
+                            double jitterMillis, long seed) {
+        if (numParties < 1 || latencyMillis < 0 || bandwidthMbps <= 0 || jitterMillis < 0) {
+            throw new IllegalArgumentException("Invalid network parameters: " + numParties + " parties, " +
+                latencyMillis + " ms latency, " + bandwidthMbps + " Mbit/s, " + jitterMillis + " ms jitter");
+        }
+        this.numParties = numParties;
+        this.latencyMillis = latencyMillis;
+        this.jitterMillis = jitterMillis;
+        this.bytesPerMilli = bandwidthMbps * 1e6 / 8 / 1e3;
+        this.random = new Random(seed);
+        this.clocks = new double[numParties];
+        this.uplinkFree = new double[numParties];
+        this.downlinkFree = new double[numParties];
+        this.messagesSent = new long[numParties];
+        this.messagesReceived = new long[numParties];
+        this.bytesSent = new long[numParties];
+        this.bytesReceived = new long[numParties];
+        this.waitMillis = new double[numParties];
+    }
+
+    /**
+     * Advances a party's clock by local computation.
+     *
+     * @param party the party
+     * @param millis the computation time in milliseconds
+     */
+    public void compute(int party, double millis) {
+        clocks[party] += millis;
+    }
+
+    /**
+     * Delivers one round of messages of equal size.
+     *
+     * @param sends the {sender, receiver} pairs of the round
+     * @param bytes the size of each message
+     */
+    public void round(int[][] sends, long bytes) {
+        double transferMillis = bytes / bytesPerMilli;
+        double[] start = clocks.clone();
+        double[] arrived = clocks.clone();
+
+        for (int[] send : sends) {
+            int from = send[0];
+            int to = send[1];
+
+            // Step 1: Serialize on the sender's uplink
+            double departure = Math.max(start[from], uplinkFree[from]);
+            uplinkFree[from] = departure + transferMillis;
+
+            // Step 2: Cross the link and queue on the receiver's downlink
+            double firstByte = departure + latencyMillis + random.nextDouble() * jitterMillis;
+            double arrival = Math.max(firstByte, downlinkFree[to]) + transferMillis;
+            downlinkFree[to] = arrival;
+            arrived[to] = Math.max(arrived[to], arrival);
+
+            messagesSent[from]++;
+            bytesSent[from] += bytes;
+            messagesReceived[to]++;
+            bytesReceived[to] += bytes;
+        }
+
+        // Step 3: Receivers continue once their last message is in
+        for (int party = 0; party < numParties; party++) {
+            waitMillis[party] += arrived[party] - clocks[party];
+            clocks[party] = arrived[party];
+        }
+    }
+
+    /**
+     * Gets the number of parties.
+     *
+     * @return the number of parties
+     */
+    public int getNumParties() {
+        return numParties;
+    }
+
+    /**
+     * Gets a party's virtual clock.
+     *
+     * @param party the party
+     * @return the time in milliseconds since the start of the simulation
+     */
+    public double getClock(int party) {
+        return clocks[party];
+    }
+
+    /**
+     * Gets the time until the last party is done.
+     *
+     * @return the latest clock in milliseconds
+     */
+    public double getElapsedMillis() {
+        double elapsed = 0.0;
+        for (double clock : clocks) {
+            elapsed = Math.max(elapsed, clock);
+        }
+        return elapsed;
+    }
+
+    /**
+     * Gets the number of messages a party has sent.
+     *
+     * @param party the party
+     * @return the number of sent messages
+     */
+    public long getMessagesSent(int party) {
+        return messagesSent[party];
+    }
+
+    /**
+     * Gets the number of messages a party has received.
+     *
+     * @param party the party
+     * @return the number of received messages
+     */
+    public long getMessagesReceived(int party) {
+        return messagesReceived[party];
+    }
+
+    /**
+     * Gets the number of bytes a party has sent.
+     *
+     * @param party the party
+     * @return the number of bytes sent
+     */
+    public long getBytesSent(int party) {
+        return bytesSent[party];
+    }
+
+    /**
+     * Gets the number of bytes a party has received.
+     *
+     * @param party the party
+     * @return the number of bytes received
+     */
+    public long getBytesReceived(int party) {
+        return bytesReceived[party];
+    }
+
+    /**
+     * Gets the time a party has spent waiting for messages.
+     *
+     * @param party the party
+     * @return the waiting time in milliseconds
+     */
+    public double getWaitMillis(int party) {
+        return waitMillis[party];
+    }
+
+    /**
+     * Gets the total number of messages sent by all parties.
+     *
+     * @return the number of messages
+     */
+    public long getTotalMessages() {
+        long total = 0;
+        for (long messages : messagesSent) {
+            total += messages;
+        }
+        return total;
+    }
+
+    /**
+     * Gets the total number of bytes sent by all parties.
+     *
+     * @return the number of bytes
+     */
+    public long getTotalBytes() {
+        long total = 0;
+        for (long bytes : bytesSent) {
+            total += bytes;
+        }
+        return total;
+    }
+}
@@ -0,0 +1,151 @@
+package com.distributed.c50.core;
+
+import com.distributed.c50.common.Constants;
+import com.distributed.c50.privacy.GainEvaluator;
+import java.util.Arrays;
+
+/**
+ * Threshold search for numeric attributes in histogram mode.
+ * Works on an attribute's bin x class slice of the aggregated count tensor:
+ * every boundary between two bins is a candidate threshold, evaluated from the
+ * cumulative bin counts in a single sweep. Gain and split information follow
+ * the same C4.5 rules as {@link NumericSplitFinder}, so histogram splits stay
+ * comparable with exact ones. Instances are not thread-safe.
+ */
+class BinnedSplitFinder {
+    private final int numClassValues;
+    private final int[] knownCounts;
+    private final int[] leftCounts;
+
+    private int bin;
+    private double informationGain;
+    private double gainRatio;
+
+    /**
+     * Creates a new histogram threshold finder.
+     *
+     * @param numClassValues the number of distinct class values
+     */
+    BinnedSplitFinder(int numClassValues) {
+        this.numClassValues = numClassValues;
+        this.knownCounts = new int[numClassValues];
+        this.leftCounts = new int[numClassValues];
+    }
+
+    /**
+     * Searches the best bin boundary of a numeric attribute for a node.
+     *
+     * @param counts the flat count buffer
+     * @param offset the offset of the attribute's slice in the buffer
+     * @param numBins the number of bins of the attribute
+     * @param totalInstances the number of instances reaching the node
+     * @return true if a boundary with positive gain was found, false otherwise
+     */
+    boolean find(int[] counts, int offset, int numBins, int totalInstances) {
+        // Class counts of the rows with a known value; missing values are not in any bin
+        Arrays.fill(knownCounts, 0);
+        Arrays.fill(leftCounts, 0);
+        int numKnown = 0;
+        for (int b = 0; b < numBins; b++) {
+            for (int c = 0; c < numClassValues; c++) {
+                int count = counts[offset + b * numClassValues + c];
+                knownCounts[c] += count;
+                numKnown += count;
+            }
+        }
+        if (numKnown < 2 * Constants.MIN_INSTANCES_PER_BRANCH) {
+            return false;
+        }
+
+        double knownSum = 0.0;
+        for (int c = 0; c < numClassValues; c++) {
+            knownSum += GainEvaluator.nLog2n(knownCounts[c]);
+        }
+        double knownInfo = GainEvaluator.nLog2n(numKnown) - knownSum;
+
+        // Sweep the bins, moving one bin at a time to the left side
+        double bestConditionalInfo = Double.MAX_VALUE;
+        int bestNumLeft = 0;
+        int numThresholds = 0;
+        int numLeft = 0;
+        for (int b = 0; b < numBins - 1; b++) {
+            int binCount = 0;
+            for (int c = 0; c < numClassValues; c++) {
+                int count = counts[offset + b * numClassValues + c];
+                leftCounts[c] += count;
+                binCount += count;
+            }
+            numLeft += binCount;
+
+            // An empty bin gives the same partition as the boundary before it
+            if (binCount == 0 ||
+                numLeft < Constants.MIN_INSTANCES_PER_BRANCH ||
+                numKnown - numLeft < Constants.MIN_INSTANCES_PER_BRANCH) {
+                continue;
+            }
+
+            numThresholds++;
+            double leftSum = 0.0;
+            double rightSum = 0.0;
+            for (int c = 0; c < numClassValues; c++) {
+                leftSum += GainEvaluator.nLog2n(leftCounts[c]);
+                rightSum += GainEvaluator.nLog2n(knownCounts[c] - leftCounts[c]);
+            }
+            double conditionalInfo = (GainEvaluator.nLog2n(numLeft) - leftSum) +
+                                     (GainEvaluator.nLog2n(numKnown - numLeft) - rightSum);
+            if (conditionalInfo < bestConditionalInfo) {
+                bestConditionalInfo = conditionalInfo;
+                bestNumLeft = numLeft;
+                bin = b;
+            }
+        }
+        if (numThresholds == 0) {
+            return false;
+        }
+
+        // Gain on the known values, scaled by their share and penalized for the threshold choice
+        double knownGain = (knownInfo - bestConditionalInfo) / numKnown;
+        informationGain = (double) numKnown / totalInstances * knownGain -
+                          GainEvaluator.log2(numThresholds) / totalInstances;
+        if (informationGain <= 0.0) {
+            return false;
+        }
+
+        // Split information over the left, right and missing branches
+        double splitSum = GainEvaluator.nLog2n(bestNumLeft) +
+                          GainEvaluator.nLog2n(numKnown - bestNumLeft) +
+                          GainEvaluator.nLog2n(totalInstances - numKnown);
+        double splitInfo = (GainEvaluator.nLog2n(totalInstances) - splitSum) / totalInstances;
+        gainRatio = splitInfo < 1e-10 ? 0.0 : informationGain / splitInfo;
+
+        return true;
+    }
+
+    /**
+     * Gets the last bin of the left branch found by the last successful search.
+     * Bins up to and including it go to the left child.
+     *
+     * @return the bin index
+     */
+    int getBin() {
+        return bin;
+    }
+
+    /**
+     * Gets the information gain of the last successful search.
+     *
+     * @return the information gain
+     */
+    double getInformationGain() {
+        return informationGain;
+    }
+
+    /**
+     * Gets the gain ratio of the last successful search.
+     *
+     * @return the gain ratio
+     */
+    double getGainRatio() {
+        return gainRatio;
+    }
+}
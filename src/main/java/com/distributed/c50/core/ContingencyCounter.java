@@ -0,0 +1,231 @@
+package com.distributed.c50.core;
+
+import com.distributed.c50.model.AttributeMetadata;
+import com.distributed.c50.model.ColumnarDataset;
+
+/**
+ * Fused counting kernel for split evaluation.
+ * Fills the attribute x value x class count tensors of all candidate attributes
+ * of a node in a single pass over the node's rows. All tensors live in one flat
+ * int buffer, laid out attribute by attribute, so the same buffer can be reused
+ * for every node of a build. Instances are not thread-safe; concurrent builders
+ * each need their own counter.
+ */
+class ContingencyCounter {
+    /**
+     * Number of rows processed together; the block's row indices and class
+     * codes stay in cache while every candidate attribute is counted.
+     */
+    private static final int BLOCK_SIZE = 512;
+
+    private final ColumnarDataset data;
+    private final int classAttributeIndex;
+    private final int numClassValues;
+    private final int[] numValues;
+    private final int[] offsets;
+    private final boolean[] binned;
+    private final int tensorSize;
+    private final int[] classBlock;
+
+    /**
+     * Creates a new counter for a dataset.
+     * Every nominal attribute other than the class gets a fixed slice
+     * of numValues x numClassValues cells in the count buffer, and so does
+     * every numeric attribute held only as histogram bin codes.
+     *
+     * @param data the local data partition
+     * @param attributeMetadata metadata about all attributes in the dataset
+     * @param classAttributeIndex the index of the class attribute
+     */
+    ContingencyCounter(ColumnarDataset data, AttributeMetadata[] attributeMetadata,
+                       int classAttributeIndex) {
+        this.data = data;
+        this.classAttributeIndex = classAttributeIndex;
+        this.numClassValues = attributeMetadata[classAttributeIndex].getNumValues();
+        this.numValues = new int[attributeMetadata.length];
+        this.offsets = new int[attributeMetadata.length];
+
+        this.binned = new boolean[attributeMetadata.length];
+
+        // Lay out one slice per countable attribute
+        int size = 0;
+        for (int attrIndex = 0; attrIndex < attributeMetadata.length; attrIndex++) {
+            boolean nominal = attributeMetadata[attrIndex].getType() == AttributeMetadata.TYPE_NOMINAL;
+            binned[attrIndex] = !nominal && data.hasBinBoundaries(attrIndex) && !data.hasNumericColumn(attrIndex);
+            if (attrIndex == classAttributeIndex || !(nominal || binned[attrIndex])) {
+                offsets[attrIndex] = -1;
+                continue;
+            }
+
+            numValues[attrIndex] = nominal ? attributeMetadata[attrIndex].getNumValues()
+                                           : data.getCardinality(attrIndex);
+            offsets[attrIndex] = size;
+            size += numValues[attrIndex] * numClassValues;
+        }
+        this.tensorSize = size;
+        this.classBlock = new int[BLOCK_SIZE];
+    }
+
+    /**
+     * Gets the number of cells of the flat count buffer.
+     *
+     * @return the size of a count buffer
+     */
+    int getTensorSize() {
+        return tensorSize;
+    }
+
+    /**
+     * Gets the offset of an attribute's slice in the count buffer.
+     *
+     * @param attributeIndex the index of the attribute
+     * @return the offset, or -1 if the attribute is not counted
+     */
+    int getOffset(int attributeIndex) {
+        return offsets[attributeIndex];
+    }
+
+    /**
+     * Gets the number of rows of an attribute's slice.
+     *
+     * @param attributeIndex the index of the attribute
+     * @return the number of attribute values or histogram bins
+     */
+    int getNumValues(int attributeIndex) {
+        return numValues[attributeIndex];
+    }
+
+    /**
+     * Checks whether an attribute is counted by histogram bin and split by threshold.
+     *
+     * @param attributeIndex the index of the attribute
+     * @return true if the attribute is a binned numeric attribute, false otherwise
+     */
+    boolean isBinned(int attributeIndex) {
+        return binned[attributeIndex];
+    }
+
+    /**
+     * Gets the number of classes, which is the row stride of every slice.
+     *
+     * @return the number of class values
+     */
+    int getNumClassValues() {
+        return numClassValues;
+    }
+
+    /**
+     * Counts the rows [start, end) of the row index for the candidate attributes.
+     * Counts are added to the candidates' slices of the tensor starting at
+     * baseOffset, so callers pass a zeroed tensor; other slices are left untouched.
+     *
+     * @param rows the shared row index
+     * @param start the first position of the node's slice
+     * @param end the position after the last element of the node's slice
+     * @param candidates the indices of the candidate attributes
+     * @param numCandidates the number of valid entries in candidates
+     * @param counts the flat count buffer to add to
+     * @param baseOffset the offset of the node's tensor in the buffer
+     */
+    void count(int[] rows, int start, int end, int[] candidates, int numCandidates,
+               int[] counts, int baseOffset) {
+        for (int blockStart = start; blockStart < end; blockStart += BLOCK_SIZE) {
+            int blockEnd = Math.min(blockStart + BLOCK_SIZE, end);
+
+            // Gather the class codes of the block once, marking invalid ones
+            for (int i = blockStart; i < blockEnd; i++) {
+                int classValue = data.getValue(classAttributeIndex, rows[i]);
+                classBlock[i - blockStart] = (classValue >= 0 && classValue < numClassValues) ? classValue : -1;
+            }
+
+            // Count every candidate attribute against the cached block
+            for (int c = 0; c < numCandidates; c++) {
+                int attrIndex = candidates[c];
+                int offset = baseOffset + offsets[attrIndex];
+                switch (data.getColumnWidth(attrIndex)) {
+                    case ColumnarDataset.WIDTH_BYTE:
+                        countBlock(data.getByteColumn(attrIndex), rows, blockStart, blockEnd,
+                                   classBlock, numValues[attrIndex], offset, counts);
+                        break;
+                    case ColumnarDataset.WIDTH_SHORT:
+                        countBlock(data.getShortColumn(attrIndex), rows, blockStart, blockEnd,
+                                   classBlock, numValues[attrIndex], offset, counts);
+                        break;
+                    default:
+                        countBlock(data.getIntColumn(attrIndex), rows, blockStart, blockEnd,
+                                   classBlock, numValues[attrIndex], offset, counts);
+                        break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Counts one block of rows for a byte-wide attribute column.
+     *
+     * @param column the attribute column
+     * @param rows the shared row index
+     * @param blockStart the first position of the block
+     * @param blockEnd the position after the last element of the block
+     * @param classBlock the class codes of the block, -1 for invalid ones
+     * @param numAttributeValues the number of distinct attribute values
+     * @param offset the offset of the attribute's slice in the count buffer
+     * @param counts the flat count buffer
+     */
+    private void countBlock(byte[] column, int[] rows, int blockStart, int blockEnd,
+                            int[] classBlock, int numAttributeValues, int offset, int[] counts) {
+        for (int i = blockStart; i < blockEnd; i++) {
+            int classValue = classBlock[i - blockStart];
+            int value = column[rows[i]];
+            if (classValue >= 0 && value >= 0 && value < numAttributeValues) {
+                counts[offset + value * numClassValues + classValue]++;
+            }
+        }
+    }
+
+    /**
+     * Counts one block of rows for a short-wide attribute column.
+     *
+     * @param column the attribute column
+     * @param rows the shared row index
+     * @param blockStart the first position of the block
+     * @param blockEnd the position after the last element of the block
+     * @param classBlock the class codes of the block, -1 for invalid ones
+     * @param numAttributeValues the number of distinct attribute values
+     * @param offset the offset of the attribute's slice in the count buffer
+     * @param counts the flat count buffer
+     */
+    private void countBlock(short[] column, int[] rows, int blockStart, int blockEnd,
+                            int[] classBlock, int numAttributeValues, int offset, int[] counts) {
+        for (int i = blockStart; i < blockEnd; i++) {
+            int classValue = classBlock[i - blockStart];
+            int value = column[rows[i]];
+            if (classValue >= 0 && value >= 0 && value < numAttributeValues) {
+                counts[offset + value * numClassValues + classValue]++;
+            }
+        }
+    }
+
+    /**
+     * Counts one block of rows for a int-wide attribute column.
+     *
+     * @param column the attribute column
+     * @param rows the shared row index
+     * @param blockStart the first position of the block
+     * @param blockEnd the position after the last element of the block
+     * @param classBlock the class codes of the block, -1 for invalid ones
+     * @param numAttributeValues the number of distinct attribute values
+     * @param offset the offset of the attribute's slice in the count buffer
+     * @param counts the flat count buffer
+     */
+    private void countBlock(int[] column, int[] rows, int blockStart, int blockEnd,
+                            int[] classBlock, int numAttributeValues, int offset, int[] counts) {
+        for (int i = blockStart; i < blockEnd; i++) {
+            int classValue = classBlock[i - blockStart];
+            int value = column[rows[i]];
+            if (classValue >= 0 && value >= 0 && value < numAttributeValues) {
+                counts[offset + value * numClassValues + classValue]++;
+            }
+        }
+    }
+}
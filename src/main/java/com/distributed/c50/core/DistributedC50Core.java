@@ -1,13 +1,24 @@
 package com.distributed.c50.core;
 
 import com.distributed.c50.common.Constants;
+import com.distributed.c50.common.CostLedger;
 import com.distributed.c50.model.AttributeMetadata;
+import com.distributed.c50.model.ColumnarDataset;
 import com.distributed.c50.model.TreeNode;
+import com.distributed.c50.privacy.GainEvaluator;
+import com.distributed.c50.privacy.PairwiseComparison;
+import com.distributed.c50.privacy.SecureArgmaxProtocol;
 import com.distributed.c50.privacy.SecureInformationGainProtocol;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Core implementation of the distributed C5.0 algorithm for vertically partitioned data.
@@ -18,6 +29,18 @@ public class DistributedC50Core {
     private final String nodeId;
     private final int numParties;
     private final SecureInformationGainProtocol gainProtocol;
+    private final CostLedger costLedger;
+    private final AtomicLong tournaments;
+    
+    private ForkJoinPool forkJoinPool;
+    private int parallelCutoffRows;
+    private int parallelCutoffDepth;
+    private int parallelEvaluationCutoffRows = Constants.DEFAULT_PARALLEL_EVALUATION_CUTOFF_ROWS;
+    private boolean levelWiseGrowth;
+    private boolean costReport = true;
+    private int[] attributeOwners;
+    private int numOwners;
+    private PairwiseComparison splitComparison;
     
     /**
      * Creates a new distributed C5.0 core instance.
@@ -29,6 +52,119 @@ public class DistributedC50Core {
         this.nodeId = nodeId;
         this.numParties = numParties;
         this.gainProtocol = new SecureInformationGainProtocol(nodeId, numParties);
+        this.costLedger = new CostLedger();
+        this.gainProtocol.setCostLedger(costLedger);
+        this.tournaments = new AtomicLong();
+    }
+    
+    /**
+     * Enables parallel subtree construction with the default sequential cutoffs.
+     * 
+     * @param pool the fork/join pool to build subtrees in, or null to build sequentially
+     */
+    public void setParallelBuild(ForkJoinPool pool) {
+        setParallelBuild(pool, Constants.DEFAULT_PARALLEL_CUTOFF_ROWS,
+                         Constants.DEFAULT_PARALLEL_CUTOFF_DEPTH);
+    }
+    
+    /**
+     * Enables parallel subtree construction. Once a node's split is chosen, its
+     * children are built as independent fork/join tasks, unless the node has fewer
+     * than cutoffRows rows or lies at depth cutoffDepth or deeper, in which case
+     * its subtree is built sequentially. The resulting tree is identical to the
+     * one built sequentially.
+     * 
+     * @param pool the fork/join pool to build subtrees in, or null to build sequentially
+     * @param cutoffRows the minimum number of rows of a node whose children are forked
+     * @param cutoffDepth the depth from which subtrees are always built sequentially
+     */
+    public void setParallelBuild(ForkJoinPool pool, int cutoffRows, int cutoffDepth) {
+        this.forkJoinPool = pool;
+        this.parallelCutoffRows = cutoffRows;
+        this.parallelCutoffDepth = cutoffDepth;
+    }
+    
+    /**
+     * Sets the minimum number of rows of a node whose candidate attributes are
+     * counted and evaluated concurrently. Only takes effect in parallel build mode.
+     * 
+     * @param cutoffRows the minimum number of rows for parallel split evaluation
+     */
+    public void setParallelEvaluationCutoff(int cutoffRows) {
+        this.parallelEvaluationCutoffRows = cutoffRows;
+    }
+    
+    /**
+     * Selects breadth-first tree growth. In this mode the count tensors of every
+     * frontier node at a depth are aggregated in one batched secure round, so the
+     * number of rounds grows with the depth of the tree instead of its node count.
+     * 
+     * @param levelWiseGrowth true to grow the tree level by level, false to grow it depth-first
+     */
+    public void setLevelWiseGrowth(boolean levelWiseGrowth) {
+        this.levelWiseGrowth = levelWiseGrowth;
+    }
+    
+    /**
+     * Selects the secure argmax mode. Instead of picking the best split among
+     * all attributes, each party finds the best split among the attributes it
+     * holds, and a tournament of secure comparisons between the parties'
+     * local bests picks the winner, so only the winning party's split is
+     * revealed. The tree equals the one built without this mode when the
+     * parties hold contiguous attribute ranges in index order, up to gain
+     * ratios closer than {@link SecureArgmaxProtocol#FRACTION_BITS} bits.
+     * 
+     * @param attributeOwners the index of the party holding each attribute, or null to leave the mode
+     * @param comparison the transport for the comparisons, or null to leave the mode
+     */
+    public void setSecureArgmax(int[] attributeOwners, PairwiseComparison comparison) {
+        if (attributeOwners == null || comparison == null) {
+            this.attributeOwners = null;
+            this.splitComparison = null;
+            return;
+        }
+        
+        int owners = 0;
+        for (int owner : attributeOwners) {
+            if (owner < 0) {
+                throw new IllegalArgumentException("Invalid attribute owner: " + owner);
+            }
+            owners = Math.max(owners, owner + 1);
+        }
+        if (owners == 0) {
+            throw new IllegalArgumentException("No attribute owners given");
+        }
+        this.attributeOwners = attributeOwners.clone();
+        this.numOwners = owners;
+        this.splitComparison = comparison;
+    }
+    
+    /**
+     * Selects whether each build prints its per-level protocol costs.
+     * 
+     * @param costReport true to print the cost report after each build, false to only record it
+     */
+    public void setCostReport(boolean costReport) {
+        this.costReport = costReport;
+    }
+    
+    /**
+     * Gets the secure information gain protocol used by this core.
+     * 
+     * @return the gain protocol
+     */
+    public SecureInformationGainProtocol getGainProtocol() {
+        return gainProtocol;
+    }
+    
+    /**
+     * Gets the ledger recording the protocol costs of the current or last build,
+     * per tree node, per level and in total.
+     * 
+     * @return the cost ledger
+     */
+    public CostLedger getCostLedger() {
+        return costLedger;
     }
     
     /**
@@ -42,12 +178,51 @@ public class DistributedC50Core {
     public TreeNode buildDecisionTree(int[][] dataPartition, 
                                      AttributeMetadata[] attributeMetadata,
                                      int classAttributeIndex) {
-        // Create root node
+        return buildDecisionTree(ColumnarDataset.fromRows(dataPartition, attributeMetadata.length),
+                                 attributeMetadata, classAttributeIndex);
+    }
+    
+    /**
+     * Builds a distributed decision tree using the C5.0 algorithm.
+     * 
+     * @param data the local data partition in columnar form
+     * @param attributeMetadata metadata about all attributes in the dataset
+     * @param classAttributeIndex the index of the class attribute
+     * @return the root node of the decision tree
+     */
+    public TreeNode buildDecisionTree(ColumnarDataset data, 
+                                     AttributeMetadata[] attributeMetadata,
+                                     int classAttributeIndex) {
+        // Create root node and start accounting for a new job
         TreeNode root = new TreeNode();
+        costLedger.startJob();
+        
+        // Set up the state shared by every node of this build
+        BuildContext context = new BuildContext(data, attributeMetadata, classAttributeIndex);
         
-        // Build tree recursively
-        buildTreeRecursive(root, dataPartition, attributeMetadata, classAttributeIndex, 
-                          new ArrayList<>(), 0);
+        // Every party decides on the global class distribution; the children's follow from the tensors
+        int[] rootClassCounts = computeClassDistribution(context, 0, data.getNumRows());
+        aggregateCounts(root, 0, rootClassCounts, rootClassCounts.length);
+        
+        // Build tree level by level or recursively, on the fork/join pool if one is configured
+        if (levelWiseGrowth) {
+            if (forkJoinPool != null) {
+                forkJoinPool.invoke(ForkJoinTask.adapt(() -> buildTreeLevelWise(context, root, rootClassCounts)));
+            } else {
+                buildTreeLevelWise(context, root, rootClassCounts);
+            }
+        } else if (forkJoinPool != null) {
+            forkJoinPool.invoke(new SubtreeTask(context, root, 0, data.getNumRows(), rootClassCounts,
+                                                new ArrayList<>(), 0, null, 0));
+        } else {
+            buildTreeRecursive(context, root, 0, data.getNumRows(), rootClassCounts, new ArrayList<>(), 0,
+                               null, 0);
+        }
+        
+        // Dump the protocol costs of the build per level
+        if (costReport) {
+            System.out.print("Protocol costs of " + nodeId + ":\n" + costLedger.formatReport());
+        }
         
         return root;
     }
@@ -55,123 +230,914 @@ public class DistributedC50Core {
     /**
      * Recursively builds a decision tree.
      * 
+     * @param context the state of the current build
      * @param node the current tree node
-     * @param dataPartition the local data partition
-     * @param attributeMetadata metadata about all attributes in the dataset
-     * @param classAttributeIndex the index of the class attribute
+     * @param start the first position of this node's slice of the row index
+     * @param end the position after the last element of this node's slice
+     * @param classCounts the global class distribution of the node
      * @param usedAttributes list of attributes already used in the path
      * @param depth current depth in the tree
+     * @param knownCounts buffer holding the node's global count tensor, or null to count the node's rows
+     * @param knownOffset the offset of the node's tensor in knownCounts
      */
-    private void buildTreeRecursive(TreeNode node, int[][] dataPartition,
-                                   AttributeMetadata[] attributeMetadata,
-                                   int classAttributeIndex, List<Integer> usedAttributes,
-                                   int depth) {
+    private void buildTreeRecursive(BuildContext context, TreeNode node, int start, int end,
+                                   int[] classCounts, List<Integer> usedAttributes, int depth,
+                                   int[] knownCounts, int knownOffset) {
         // Check stopping criteria
-        if (depth >= Constants.MAX_TREE_DEPTH || 
-            dataPartition.length < Constants.MIN_INSTANCES_PER_LEAF ||
-            isHomogeneous(dataPartition, classAttributeIndex) ||
-            usedAttributes.size() >= attributeMetadata.length - 1) {
-            
+        if (meetsStoppingCriteria(context, classCounts, usedAttributes, depth)) {
             // Create leaf node
-            node.setLeaf(true);
-            node.setClassDistribution(computeClassDistribution(dataPartition, classAttributeIndex,
-                                                             attributeMetadata[classAttributeIndex].getNumValues()));
+            makeLeaf(node, classCounts);
             return;
         }
         
+        // The node's count tensor: handed down by the parent, or counted here
+        int[] counts = knownCounts;
+        int countsOffset = knownOffset;
+        if (counts == null) {
+            counts = isParallelEvaluation(start, end) ? new int[context.workspace().counts.length]
+                                                      : context.workspace().counts;
+            countsOffset = 0;
+        }
+        
         // Find best attribute to split on
-        BestSplitResult bestSplit = findBestSplit(dataPartition, attributeMetadata, 
-                                                classAttributeIndex, usedAttributes);
+        BestSplitResult bestSplit = findBestSplit(context, node, depth, start, end, countInstances(classCounts),
+                                                  usedAttributes, counts, countsOffset, knownCounts != null);
         
         if (bestSplit == null || bestSplit.getGainRatio() < Constants.MIN_GAIN_THRESHOLD) {
             // No good split found, create leaf node
-            node.setLeaf(true);
-            node.setClassDistribution(computeClassDistribution(dataPartition, classAttributeIndex,
-                                                             attributeMetadata[classAttributeIndex].getNumValues()));
+            makeLeaf(node, classCounts);
+            return;
+        }
+        
+        // Split the node and its slice of the row index
+        int[] childBounds = applySplit(context, node, bestSplit, start, end);
+        TreeNode[] children = childrenOf(node);
+        int[][] childClassCounts = computeChildClassDistributions(context, bestSplit, classCounts,
+                                                                  counts, countsOffset, childBounds);
+        
+        // Add nominal attribute to used list; numeric attributes may be split on again
+        List<Integer> updatedUsedAttributes = usedAttributes;
+        if (!bestSplit.isNumeric()) {
+            updatedUsedAttributes = new ArrayList<>(usedAttributes);
+            updatedUsedAttributes.add(bestSplit.getAttributeIndex());
+        }
+        
+        // Derive the largest child's counts from this node's tensor where that saves counting
+        int[] childOffsets = new int[children.length];
+        int[] childCounts = countChildren(context, node, counts, countsOffset, classCounts, childBounds,
+                                          childClassCounts, end, updatedUsedAttributes, depth + 1,
+                                          childOffsets);
+        
+        // Children own disjoint slices, so large subtrees can be built concurrently
+        if (forkJoinPool != null && end - start >= parallelCutoffRows && depth < parallelCutoffDepth) {
+            SubtreeTask[] tasks = new SubtreeTask[children.length];
+            for (int childIndex = 0; childIndex < children.length; childIndex++) {
+                tasks[childIndex] = new SubtreeTask(context, children[childIndex],
+                                                    childBounds[childIndex], childBounds[childIndex + 1],
+                                                    childClassCounts[childIndex], updatedUsedAttributes,
+                                                    depth + 1,
+                                                    childOffsets[childIndex] >= 0 ? childCounts : null,
+                                                    childOffsets[childIndex]);
+            }
+            RecursiveTask.invokeAll(tasks);
             return;
         }
         
+        // Process child nodes
+        for (int childIndex = 0; childIndex < children.length; childIndex++) {
+            // Recursively build subtree
+            buildTreeRecursive(context, children[childIndex], childBounds[childIndex],
+                              childBounds[childIndex + 1], childClassCounts[childIndex],
+                              updatedUsedAttributes, depth + 1,
+                              childOffsets[childIndex] >= 0 ? childCounts : null, childOffsets[childIndex]);
+        }
+    }
+    
+    /**
+     * Counts the children of a split node when the largest expanding child is
+     * cheaper to derive than to count. Every other child, and the rows that reach
+     * no child, is counted into its own tensor of one batch buffer; the batch is
+     * aggregated in a single secure round, and the largest child's tensor is the
+     * parent's minus all the others. Since the subtraction works on global counts,
+     * the largest child takes part in no counting pass and no aggregation.
+     * 
+     * @param context the state of the current build
+     * @param parent the split node, which the costs of the batch are accounted to
+     * @param parentCounts the buffer holding the parent's global count tensor
+     * @param parentOffset the offset of the parent's tensor in parentCounts
+     * @param parentClassCounts the global class distribution of the parent
+     * @param childBounds the child boundaries returned by the split
+     * @param childClassCounts the global class distribution of each child
+     * @param end the position after the last element of the parent's slice
+     * @param usedAttributes list of attributes already used on the children's path
+     * @param depth depth of the children in the tree
+     * @param childOffsets filled with the offset of each child's tensor in the batch, or -1
+     * @return the batch buffer, or null if every child counts its own rows
+     */
+    private int[] countChildren(BuildContext context, TreeNode parent, int[] parentCounts, int parentOffset,
+                                int[] parentClassCounts, int[] childBounds, int[][] childClassCounts, int end,
+                                List<Integer> usedAttributes, int depth, int[] childOffsets) {
+        int numChildren = childOffsets.length;
+        Arrays.fill(childOffsets, -1);
+        
+        boolean[] expands = new boolean[numChildren];
+        for (int childIndex = 0; childIndex < numChildren; childIndex++) {
+            expands[childIndex] = !meetsStoppingCriteria(context, childClassCounts[childIndex],
+                                                         usedAttributes, depth);
+        }
+        int derivedChild = chooseDerivedChild(childClassCounts, expands, countInstances(parentClassCounts));
+        if (derivedChild < 0) {
+            return null;
+        }
+        
+        // One slot per sibling and for the rows in no child, then the derived child
+        int tensorSize = context.workspace().counter.getTensorSize();
+        boolean hasOrphans = hasOrphans(parentClassCounts, childClassCounts);
+        int numCounted = numChildren - 1 + (hasOrphans ? 1 : 0);
+        int derivedOffset = numCounted * tensorSize;
+        int[] batchCounts = new int[derivedOffset + tensorSize];
+        
+        // Copy the parent's tensor before any join; it may live in this thread's workspace
+        System.arraycopy(parentCounts, parentOffset, batchCounts, derivedOffset, tensorSize);
+        
+        int[] candidates = new int[context.attributeMetadata.length];
+        int numCandidates = collectCandidates(context, usedAttributes, candidates);
+        CountTask[] countTasks = new CountTask[numCounted];
+        int slot = 0;
+        for (int childIndex = 0; childIndex < numChildren; childIndex++) {
+            if (childIndex == derivedChild) {
+                childOffsets[childIndex] = derivedOffset;
+                continue;
+            }
+            childOffsets[childIndex] = slot * tensorSize;
+            countTasks[slot] = new CountTask(context, childBounds[childIndex], childBounds[childIndex + 1],
+                                             candidates, 0, numCandidates, batchCounts, slot * tensorSize);
+            slot++;
+        }
+        if (hasOrphans) {
+            countTasks[slot] = new CountTask(context, childBounds[numChildren], end,
+                                             candidates, 0, numCandidates, batchCounts, slot * tensorSize);
+        }
+        runCountTasks(countTasks);
+        
+        // Perform secure computation of the siblings' global counts in one round
+        aggregateCounts(parent, depth - 1, batchCounts, derivedOffset);
+        
+        for (int s = 0; s < numCounted; s++) {
+            subtractTensor(batchCounts, derivedOffset, batchCounts, s * tensorSize, tensorSize);
+        }
+        
+        return batchCounts;
+    }
+    
+    /**
+     * Picks the child whose counts are derived by subtraction: the expanding child
+     * with the most rows, ties going to the lowest index. Deriving it means counting
+     * the rows of the non-expanding children and of no child as well, so it only
+     * pays off when those are fewer than the largest child's rows. The choice is
+     * made on global row counts, so that all parties lay out the batch alike.
+     * 
+     * @param childClassCounts the global class distribution of each child
+     * @param expands whether each child will be split further
+     * @param parentInstances the global number of instances reaching the parent
+     * @return the index of the derived child, or -1 if every child counts its own rows
+     */
+    private static int chooseDerivedChild(int[][] childClassCounts, boolean[] expands, int parentInstances) {
+        int largestChild = -1;
+        int largestRows = 0;
+        int expandingRows = 0;
+        for (int childIndex = 0; childIndex < expands.length; childIndex++) {
+            if (!expands[childIndex]) {
+                continue;
+            }
+            int rows = countInstances(childClassCounts[childIndex]);
+            expandingRows += rows;
+            if (largestChild < 0 || rows > largestRows) {
+                largestChild = childIndex;
+                largestRows = rows;
+            }
+        }
+        
+        int extraRows = parentInstances - expandingRows;
+        return (largestChild >= 0 && extraRows < largestRows) ? largestChild : -1;
+    }
+    
+    /**
+     * Checks whether any of a split node's instances reach no child, which
+     * happens when the split attribute is missing on a nominal split.
+     * 
+     * @param parentClassCounts the global class distribution of the parent
+     * @param childClassCounts the global class distribution of each child
+     * @return true if the children hold fewer instances than the parent
+     */
+    private static boolean hasOrphans(int[] parentClassCounts, int[][] childClassCounts) {
+        int childInstances = 0;
+        for (int[] classCounts : childClassCounts) {
+            childInstances += countInstances(classCounts);
+        }
+        return childInstances < countInstances(parentClassCounts);
+    }
+    
+    /**
+     * Subtracts one count tensor from another.
+     * 
+     * @param target the buffer holding the tensor to subtract from
+     * @param targetOffset the offset of that tensor
+     * @param source the buffer holding the tensor to subtract
+     * @param sourceOffset the offset of that tensor
+     * @param tensorSize the number of cells of a tensor
+     */
+    private static void subtractTensor(int[] target, int targetOffset, int[] source, int sourceOffset,
+                                       int tensorSize) {
+        for (int i = 0; i < tensorSize; i++) {
+            target[targetOffset + i] -= source[sourceOffset + i];
+        }
+    }
+    
+    /**
+     * Runs count tasks on the fork/join pool if one is configured, otherwise in turn.
+     * 
+     * @param countTasks the tasks to run
+     */
+    private void runCountTasks(CountTask[] countTasks) {
+        if (forkJoinPool != null) {
+            RecursiveAction.invokeAll(countTasks);
+        } else {
+            for (CountTask task : countTasks) {
+                task.compute();
+            }
+        }
+    }
+    
+    /**
+     * Builds a decision tree breadth-first. The count tensors of all frontier nodes
+     * at one depth are aggregated in a single secure round, so the number of rounds
+     * grows with the depth of the tree rather than with its number of nodes. A node
+     * whose counts can be derived from its parent's tensor and its siblings' is
+     * neither counted nor aggregated. The resulting tree is identical to the one
+     * built depth-first.
+     * 
+     * @param context the state of the current build
+     * @param root the root node of the tree
+     * @param rootClassCounts the global class distribution of the root
+     */
+    private void buildTreeLevelWise(BuildContext context, TreeNode root, int[] rootClassCounts) {
+        int tensorSize = context.workspace().counter.getTensorSize();
+        
+        List<FrontierNode> frontier = new ArrayList<>();
+        frontier.add(new FrontierNode(root, 0, context.data.getNumRows(), rootClassCounts, new ArrayList<>(), 0));
+        
+        while (!frontier.isEmpty()) {
+            // Turn nodes that meet the stopping criteria into leaves
+            List<FrontierNode> expandable = new ArrayList<>();
+            for (FrontierNode entry : frontier) {
+                if (meetsStoppingCriteria(context, entry.classCounts, entry.usedAttributes, entry.depth)) {
+                    makeLeaf(entry.node, entry.classCounts);
+                } else {
+                    entry.expandable = true;
+                    expandable.add(entry);
+                }
+            }
+            if (expandable.isEmpty()) {
+                break;
+            }
+            
+            // Give a tensor slot to every node counting its own rows, then to the siblings
+            // and stray rows counted only for a subtraction, and last to the derived nodes
+            List<FrontierNode> derived = new ArrayList<>();
+            int numSlots = 0;
+            for (FrontierNode entry : expandable) {
+                entry.candidates = new int[context.attributeMetadata.length];
+                entry.numCandidates = collectCandidates(context, entry.usedAttributes, entry.candidates);
+                if (entry.siblings == null) {
+                    entry.slot = numSlots++;
+                } else {
+                    derived.add(entry);
+                }
+            }
+            for (FrontierNode entry : derived) {
+                for (FrontierNode sibling : entry.siblings.members) {
+                    if (!sibling.expandable) {
+                        sibling.slot = numSlots++;
+                    }
+                }
+                if (entry.siblings.hasOrphans) {
+                    entry.siblings.orphanSlot = numSlots++;
+                }
+            }
+            int numCounted = numSlots;
+            for (FrontierNode entry : derived) {
+                entry.slot = numSlots++;
+            }
+            
+            // Count every slot of the aggregated part of one batch buffer
+            int[] batchCounts = new int[numSlots * tensorSize];
+            List<CountTask> countTasks = new ArrayList<>();
+            for (FrontierNode entry : expandable) {
+                if (entry.siblings == null) {
+                    countTasks.add(new CountTask(context, entry.start, entry.end, entry.candidates,
+                                                 0, entry.numCandidates, batchCounts, entry.slot * tensorSize));
+                    continue;
+                }
+                for (FrontierNode sibling : entry.siblings.members) {
+                    if (!sibling.expandable) {
+                        countTasks.add(new CountTask(context, sibling.start, sibling.end, entry.candidates,
+                                                     0, entry.numCandidates, batchCounts,
+                                                     sibling.slot * tensorSize));
+                    }
+                }
+                if (entry.siblings.orphanSlot >= 0) {
+                    countTasks.add(new CountTask(context, entry.siblings.orphanStart, entry.siblings.orphanEnd,
+                                                 entry.candidates, 0, entry.numCandidates, batchCounts,
+                                                 entry.siblings.orphanSlot * tensorSize));
+                }
+            }
+            runCountTasks(countTasks.toArray(new CountTask[0]));
+            
+            // Perform secure computation of global counts for the whole level at once
+            aggregateCounts(null, expandable.get(0).depth, batchCounts, numCounted * tensorSize);
+            
+            // Derive the remaining nodes from their parent's tensor
+            for (FrontierNode entry : derived) {
+                SiblingGroup group = entry.siblings;
+                System.arraycopy(group.parentCounts, group.parentOffset, batchCounts,
+                                 entry.slot * tensorSize, tensorSize);
+                for (FrontierNode sibling : group.members) {
+                    subtractTensor(batchCounts, entry.slot * tensorSize, batchCounts,
+                                   sibling.slot * tensorSize, tensorSize);
+                }
+                if (group.orphanSlot >= 0) {
+                    subtractTensor(batchCounts, entry.slot * tensorSize, batchCounts,
+                                   group.orphanSlot * tensorSize, tensorSize);
+                }
+            }
+            
+            // Split each node on its best attribute and collect the next level
+            List<FrontierNode> nextFrontier = new ArrayList<>();
+            for (FrontierNode entry : expandable) {
+                BestSplitResult bestSplit;
+                if (splitComparison != null) {
+                    bestSplit = findBestSplitByTournament(context, entry.node, entry.depth, entry.start, entry.end,
+                                                          countInstances(entry.classCounts), entry.candidates,
+                                                          entry.numCandidates, batchCounts,
+                                                          entry.slot * tensorSize);
+                } else {
+                    bestSplit = evaluateCandidates(context, batchCounts, entry.slot * tensorSize,
+                                                   entry.candidates, 0, entry.numCandidates,
+                                                   countInstances(entry.classCounts));
+                    bestSplit = findBestNumericSplit(context, entry.start, entry.end, bestSplit);
+                }
+                
+                if (bestSplit == null || bestSplit.getGainRatio() < Constants.MIN_GAIN_THRESHOLD) {
+                    makeLeaf(entry.node, entry.classCounts);
+                    continue;
+                }
+                
+                int[] childBounds = applySplit(context, entry.node, bestSplit, entry.start, entry.end);
+                int[][] childClassCounts = computeChildClassDistributions(context, bestSplit, entry.classCounts,
+                                                                          batchCounts, entry.slot * tensorSize,
+                                                                          childBounds);
+                List<Integer> updatedUsedAttributes = entry.usedAttributes;
+                if (!bestSplit.isNumeric()) {
+                    updatedUsedAttributes = new ArrayList<>(entry.usedAttributes);
+                    updatedUsedAttributes.add(bestSplit.getAttributeIndex());
+                }
+                
+                TreeNode[] children = childrenOf(entry.node);
+                FrontierNode[] childEntries = new FrontierNode[children.length];
+                boolean[] expands = new boolean[children.length];
+                for (int childIndex = 0; childIndex < children.length; childIndex++) {
+                    childEntries[childIndex] = new FrontierNode(children[childIndex],
+                                                                childBounds[childIndex], childBounds[childIndex + 1],
+                                                                childClassCounts[childIndex],
+                                                                updatedUsedAttributes, entry.depth + 1);
+                    expands[childIndex] = !meetsStoppingCriteria(context, childClassCounts[childIndex],
+                                                                 updatedUsedAttributes, entry.depth + 1);
+                    nextFrontier.add(childEntries[childIndex]);
+                }
+                
+                // Derive the largest child from this node's tensor where that saves counting
+                int derivedChild = chooseDerivedChild(childClassCounts, expands, countInstances(entry.classCounts));
+                if (derivedChild >= 0) {
+                    List<FrontierNode> members = new ArrayList<>(Arrays.asList(childEntries));
+                    members.remove(derivedChild);
+                    childEntries[derivedChild].siblings = new SiblingGroup(
+                        batchCounts, entry.slot * tensorSize, members,
+                        childBounds[children.length], entry.end, hasOrphans(entry.classCounts, childClassCounts));
+                }
+            }
+            
+            frontier = nextFrontier;
+        }
+    }
+    
+    /**
+     * Securely aggregates a batch of local counts, accounting its costs to a
+     * tree node and level.
+     * 
+     * @param node the tree node the batch serves, or null if it serves a whole level
+     * @param depth depth of the level
+     * @param counts the flat buffer of local counts, replaced by the global counts
+     * @param length the number of cells to aggregate
+     */
+    private void aggregateCounts(TreeNode node, int depth, int[] counts, int length) {
+        costLedger.enter(node, depth);
+        try {
+            gainProtocol.aggregateCounts(counts, length);
+        } finally {
+            costLedger.exit();
+        }
+    }
+    
+    /**
+     * Checks whether a node must become a leaf without evaluating any split.
+     * The check only looks at the node's global class distribution, so all
+     * parties reach the same decision.
+     * 
+     * @param context the state of the current build
+     * @param classCounts the global class distribution of the node
+     * @param usedAttributes list of attributes already used in the path
+     * @param depth depth of the node in the tree
+     * @return true if the node is a leaf, false otherwise
+     */
+    private boolean meetsStoppingCriteria(BuildContext context, int[] classCounts,
+                                          List<Integer> usedAttributes, int depth) {
+        return depth >= Constants.MAX_TREE_DEPTH || 
+               countInstances(classCounts) < Constants.MIN_INSTANCES_PER_LEAF ||
+               isHomogeneous(classCounts) ||
+               usedAttributes.size() >= context.attributeMetadata.length - 1;
+    }
+    
+    /**
+     * Turns a node into a leaf holding its global class distribution.
+     * 
+     * @param node the node
+     * @param classCounts the global class distribution of the node
+     */
+    private void makeLeaf(TreeNode node, int[] classCounts) {
+        node.setLeaf(true);
+        node.setClassDistribution(classCounts);
+    }
+    
+    /**
+     * Splits a node on the chosen attribute: creates its children and reorders its
+     * slice of the row index so that each child's rows are contiguous.
+     * 
+     * @param context the state of the current build
+     * @param node the node to split
+     * @param bestSplit the chosen split
+     * @param start the first position of the node's slice
+     * @param end the position after the last element of the node's slice
+     * @return the child boundaries; child i of {@link #childrenOf(TreeNode)} owns [bounds[i], bounds[i + 1])
+     */
+    private int[] applySplit(BuildContext context, TreeNode node, BestSplitResult bestSplit,
+                             int start, int end) {
+        int attrIndex = bestSplit.getAttributeIndex();
+        
         // Set node information
-        node.setAttributeIndex(bestSplit.getAttributeIndex());
-        node.setAttributeName(attributeMetadata[bestSplit.getAttributeIndex()].getName());
+        node.setAttributeIndex(attrIndex);
+        node.setAttributeName(context.attributeMetadata[attrIndex].getName());
+        node.setSplitAttribute(context.attributeMetadata[attrIndex].getName());
+        
+        // Numeric attributes split in two around the threshold
+        if (bestSplit.isNumeric()) {
+            node.setNumericSplit(true);
+            node.setSplitThreshold(bestSplit.getThreshold());
+            node.setLeftChild(new TreeNode());
+            node.setRightChild(new TreeNode());
+            if (!context.data.hasNumericColumn(attrIndex)) {
+                int lastLeftBin = Arrays.binarySearch(context.data.getBinBoundaries(attrIndex),
+                                                      bestSplit.getThreshold());
+                return context.rowIndex.partitionByBin(context.data, attrIndex, lastLeftBin, start, end);
+            }
+            return context.rowIndex.partitionByThreshold(context.data.getNumericColumn(attrIndex),
+                                                         bestSplit.getThreshold(), start, end);
+        }
         
         // Create child nodes
-        int numValues = attributeMetadata[bestSplit.getAttributeIndex()].getNumValues();
+        int numValues = context.attributeMetadata[attrIndex].getNumValues();
         node.setChildren(new TreeNode[numValues]);
+        for (int valueIndex = 0; valueIndex < numValues; valueIndex++) {
+            node.getChildren()[valueIndex] = new TreeNode();
+        }
         
-        // Add attribute to used list
-        List<Integer> updatedUsedAttributes = new ArrayList<>(usedAttributes);
-        updatedUsedAttributes.add(bestSplit.getAttributeIndex());
+        return context.rowIndex.partition(context.data, attrIndex, numValues, start, end);
+    }
+    
+    /**
+     * Gets the children of a split node in the order of its child boundaries.
+     * 
+     * @param node the split node
+     * @return the left and right child of a numeric split, or the nominal children
+     */
+    private static TreeNode[] childrenOf(TreeNode node) {
+        if (node.isNumericSplit()) {
+            return new TreeNode[] { node.getLeftChild(), node.getRightChild() };
+        }
+        return node.getChildren();
+    }
+    
+    /**
+     * Fork/join task building the subtree below one node.
+     */
+    private class SubtreeTask extends RecursiveTask<TreeNode> {
+        private static final long serialVersionUID = 1L;
         
-        // Create and process child nodes
-        for (int valueIndex = 0; valueIndex < numValues; valueIndex++) {
-            // Create child node
-            TreeNode child = new TreeNode();
-            node.getChildren()[valueIndex] = child;
-            
-            // Filter data for this child
-            int[][] childData = filterDataByAttributeValue(dataPartition, 
-                                                         bestSplit.getAttributeIndex(),
-                                                         valueIndex);
-            
-            // Recursively build subtree
-            buildTreeRecursive(child, childData, attributeMetadata, classAttributeIndex,
-                              updatedUsedAttributes, depth + 1);
+        private final BuildContext context;
+        private final TreeNode node;
+        private final int start;
+        private final int end;
+        private final int[] classCounts;
+        private final List<Integer> usedAttributes;
+        private final int depth;
+        private final int[] knownCounts;
+        private final int knownOffset;
+        
+        /**
+         * Creates a new subtree task.
+         * 
+         * @param context the state of the current build
+         * @param node the root node of the subtree
+         * @param start the first position of the node's slice of the row index
+         * @param end the position after the last element of the node's slice
+         * @param classCounts the global class distribution of the node
+         * @param usedAttributes list of attributes already used in the path
+         * @param depth depth of the node in the tree
+         * @param knownCounts buffer holding the node's global count tensor, or null
+         * @param knownOffset the offset of the node's tensor in knownCounts
+         */
+        SubtreeTask(BuildContext context, TreeNode node, int start, int end, int[] classCounts,
+                    List<Integer> usedAttributes, int depth, int[] knownCounts, int knownOffset) {
+            this.context = context;
+            this.node = node;
+            this.start = start;
+            this.end = end;
+            this.classCounts = classCounts;
+            this.usedAttributes = usedAttributes;
+            this.depth = depth;
+            this.knownCounts = knownCounts;
+            this.knownOffset = knownOffset;
+        }
+        
+        @Override
+        protected TreeNode compute() {
+            buildTreeRecursive(context, node, start, end, classCounts, usedAttributes, depth, knownCounts,
+                               knownOffset);
+            return node;
         }
     }
     
     /**
      * Finds the best attribute to split on using secure information gain computation.
      * 
-     * @param dataPartition the local data partition
-     * @param attributeMetadata metadata about all attributes in the dataset
-     * @param classAttributeIndex the index of the class attribute
+     * @param context the state of the current build
+     * @param node the tree node being split
+     * @param depth depth of the node in the tree
+     * @param start the first position of the node's slice
+     * @param end the position after the last element of the node's slice
+     * @param totalInstances the global number of instances reaching the node
      * @param usedAttributes list of attributes already used in the path
+     * @param counts the buffer holding the node's global count tensor if countsKnown, otherwise
+     *               a tensor-sized buffer to count into, which must not be the thread's
+     *               workspace if the node is evaluated in parallel
+     * @param baseOffset the offset of the node's tensor in counts; 0 unless countsKnown
+     * @param countsKnown true if counts already holds the node's global counts
      * @return the best split result, or null if no good split was found
      */
-    private BestSplitResult findBestSplit(int[][] dataPartition, 
-                                        AttributeMetadata[] attributeMetadata,
-                                        int classAttributeIndex,
-                                        List<Integer> usedAttributes) {
+    private BestSplitResult findBestSplit(BuildContext context, TreeNode node, int depth, int start, int end,
+                                        int totalInstances, List<Integer> usedAttributes, int[] counts,
+                                        int baseOffset, boolean countsKnown) {
+        Workspace workspace = context.workspace();
+        
+        // Large nodes spread their candidates over the pool. Their buffers must not be
+        // the thread's workspace, which other tasks may use while this thread joins.
+        boolean parallel = isParallelEvaluation(start, end);
+        int[] candidates = parallel ? new int[context.attributeMetadata.length] : workspace.candidates;
+        
+        // Collect the candidate attributes: countable and not yet used
+        int numCandidates = collectCandidates(context, usedAttributes, candidates);
+        
+        if (parallel) {
+            return findBestSplitInParallel(context, node, depth, start, end, totalInstances, candidates,
+                                           numCandidates, counts, baseOffset, countsKnown);
+        }
+        
+        if (!countsKnown) {
+            // Compute local counts of all candidates in one pass over the node's rows
+            int[] localCounts = counts;
+            Arrays.fill(localCounts, 0);
+            workspace.counter.count(context.rowIndex.getRows(), start, end, candidates, numCandidates,
+                                    localCounts, 0);
+            
+            // Perform secure computation of global counts
+            aggregateCounts(node, depth, localCounts, localCounts.length);
+        }
+        
+        int[] globalCounts = counts;
+        if (splitComparison != null) {
+            return findBestSplitByTournament(context, node, depth, start, end, totalInstances, candidates,
+                                             numCandidates, globalCounts, baseOffset);
+        }
+        BestSplitResult bestSplit = evaluateCandidates(context, globalCounts, baseOffset, candidates, 0,
+                                                       numCandidates, totalInstances);
+        
+        // Numeric thresholds are searched locally on the presorted rows
+        return findBestNumericSplit(context, start, end, bestSplit);
+    }
+    
+    /**
+     * Finds the best split of a large node by counting and evaluating groups of
+     * candidate attributes concurrently. Each group writes its own slices of the
+     * count buffer. Group winners are merged in attribute order with the same
+     * strict comparison as the sequential search, so ties always go to the lowest
+     * attribute index and the result does not depend on thread timing.
+     * 
+     * @param context the state of the current build
+     * @param node the tree node being split
+     * @param depth depth of the node in the tree
+     * @param start the first position of the node's slice
+     * @param end the position after the last element of the node's slice
+     * @param totalInstances the global number of instances reaching the node
+     * @param candidates the candidate attributes, in increasing index order
+     * @param numCandidates the number of valid entries in candidates
+     * @param counts the buffer for the node's count tensor, zeroed unless countsKnown
+     * @param baseOffset the offset of the node's tensor in counts
+     * @param countsKnown true if counts already holds the node's global counts
+     * @return the best split result, or null if no candidate exists
+     */
+    private BestSplitResult findBestSplitInParallel(BuildContext context, TreeNode node, int depth,
+                                                  int start, int end, int totalInstances,
+                                                  int[] candidates, int numCandidates,
+                                                  int[] counts, int baseOffset, boolean countsKnown) {
+        // Split the candidates into one contiguous group per worker
+        int numGroups = Math.max(1, Math.min(numCandidates, forkJoinPool.getParallelism()));
+        int[] groupBounds = new int[numGroups + 1];
+        for (int g = 0; g <= numGroups; g++) {
+            groupBounds[g] = (int) ((long) numCandidates * g / numGroups);
+        }
+        
+        if (!countsKnown) {
+            // Count each group with its own pass over the node's rows
+            CountTask[] countTasks = new CountTask[numGroups];
+            for (int g = 0; g < numGroups; g++) {
+                countTasks[g] = new CountTask(context, start, end, candidates,
+                                              groupBounds[g], groupBounds[g + 1], counts, baseOffset);
+            }
+            RecursiveAction.invokeAll(countTasks);
+            
+            // Perform secure computation of global counts
+            aggregateCounts(node, depth, counts, counts.length);
+        }
+        
+        // The tournament compares the parties' local bests one after the other
+        int[] globalCounts = counts;
+        if (splitComparison != null) {
+            return findBestSplitByTournament(context, node, depth, start, end, totalInstances, candidates,
+                                             numCandidates, globalCounts, baseOffset);
+        }
+        
+        // Evaluate each group, then merge the group winners in attribute order
+        EvaluateTask[] evaluateTasks = new EvaluateTask[numGroups];
+        for (int g = 0; g < numGroups; g++) {
+            evaluateTasks[g] = new EvaluateTask(context, globalCounts, baseOffset, candidates,
+                                                groupBounds[g], groupBounds[g + 1], totalInstances);
+        }
+        RecursiveTask.invokeAll(evaluateTasks);
+        
+        // Search numeric thresholds concurrently as well
+        NumericSplitTask[] numericTasks = new NumericSplitTask[context.numericAttributes.length];
+        for (int k = 0; k < numericTasks.length; k++) {
+            numericTasks[k] = new NumericSplitTask(context, context.numericAttributes[k], start, end);
+        }
+        RecursiveTask.invokeAll(numericTasks);
+        
         BestSplitResult bestSplit = null;
-        double bestGainRatio = -1;
+        for (EvaluateTask task : evaluateTasks) {
+            bestSplit = better(task.join(), bestSplit);
+        }
+        for (NumericSplitTask task : numericTasks) {
+            bestSplit = better(task.join(), bestSplit);
+        }
         
-        // Try each attribute
-        for (int attrIndex = 0; attrIndex < attributeMetadata.length; attrIndex++) {
-            // Skip class attribute and already used attributes
-            if (attrIndex == classAttributeIndex || usedAttributes.contains(attrIndex)) {
-                continue;
+        return bestSplit;
+    }
+    
+    /**
+     * Finds the best split of a node in secure argmax mode: every party picks
+     * the best split among its own candidates and numeric attributes with the
+     * usual tie rule, and a tournament of secure comparisons picks the party
+     * whose split is used. Tournaments run one at a time, as the transport
+     * holds the local bests of the current one.
+     * 
+     * @param context the state of the current build
+     * @param node the tree node being split
+     * @param depth depth of the node in the tree
+     * @param start the first position of the node's slice
+     * @param end the position after the last element of the node's slice
+     * @param totalInstances the global number of instances reaching the node
+     * @param candidates the candidate attributes, in increasing index order
+     * @param numCandidates the number of valid entries in candidates
+     * @param globalCounts the buffer holding the node's global count tensor
+     * @param baseOffset the offset of the node's tensor in globalCounts
+     * @return the winning party's split, or null if no party has a candidate
+     */
+    private BestSplitResult findBestSplitByTournament(BuildContext context, TreeNode node, int depth,
+                                                    int start, int end, int totalInstances,
+                                                    int[] candidates, int numCandidates,
+                                                    int[] globalCounts, int baseOffset) {
+        // Step 1: Each party searches its own attributes
+        BestSplitResult[] localBest = new BestSplitResult[numOwners];
+        int[] partyCandidates = new int[numCandidates];
+        for (int party = 0; party < numOwners; party++) {
+            int numPartyCandidates = 0;
+            for (int c = 0; c < numCandidates; c++) {
+                if (ownerOf(candidates[c]) == party) {
+                    partyCandidates[numPartyCandidates++] = candidates[c];
+                }
+            }
+            BestSplitResult best = evaluateCandidates(context, globalCounts, baseOffset, partyCandidates, 0,
+                                                      numPartyCandidates, totalInstances);
+            for (int attrIndex : context.numericAttributes) {
+                if (ownerOf(attrIndex) == party) {
+                    best = better(findNumericSplit(context, attrIndex, start, end), best);
+                }
+            }
+            localBest[party] = best;
+        }
+        
+        // Step 2: The parties compare their local bests; only the winner's split is revealed
+        int winner;
+        costLedger.enter(node, depth);
+        long startTime = System.nanoTime();
+        try {
+            synchronized (splitComparison) {
+                for (int party = 0; party < numOwners; party++) {
+                    splitComparison.setLocalBest(party, localBest[party] == null ? Double.NaN
+                                                                                 : localBest[party].getGainRatio());
+                }
+                winner = SecureArgmaxProtocol.runTournament(numOwners, tournaments.getAndIncrement(),
+                                                            splitComparison);
+            }
+            // The matches within a bracket round are independent, so only the bracket rounds are sequential;
+            // the numOwners - 1 comparisons themselves are charged as crypto time
+            for (int round = 0; round < SecureArgmaxProtocol.tournamentRounds(numOwners); round++) {
+                costLedger.recordRound();
             }
+            costLedger.recordCrypto(System.nanoTime() - startTime);
+        } finally {
+            costLedger.exit();
+        }
+        
+        return localBest[winner];
+    }
+    
+    /**
+     * Gets the party holding an attribute in secure argmax mode.
+     * 
+     * @param attrIndex the index of the attribute
+     * @return the party index; attributes beyond the ownership table belong to party 0
+     */
+    private int ownerOf(int attrIndex) {
+        return attrIndex < attributeOwners.length ? attributeOwners[attrIndex] : 0;
+    }
+    
+    /**
+     * Checks whether the candidates of a node are counted and evaluated concurrently.
+     * 
+     * @param start the first position of the node's slice
+     * @param end the position after the last element of the node's slice
+     * @return true for large nodes in parallel build mode, false otherwise
+     */
+    private boolean isParallelEvaluation(int start, int end) {
+        return forkJoinPool != null && end - start >= parallelEvaluationCutoffRows;
+    }
+    
+    /**
+     * Searches the best threshold split over all numeric attributes of a node.
+     * 
+     * @param context the state of the current build
+     * @param start the first position of the node's slice
+     * @param end the position after the last element of the node's slice
+     * @param bestSplit the best split found so far, or null
+     * @return the better of bestSplit and the best numeric split
+     */
+    private BestSplitResult findBestNumericSplit(BuildContext context, int start, int end,
+                                               BestSplitResult bestSplit) {
+        for (int attrIndex : context.numericAttributes) {
+            bestSplit = better(findNumericSplit(context, attrIndex, start, end), bestSplit);
+        }
+        return bestSplit;
+    }
+    
+    /**
+     * Searches the best threshold split of one numeric attribute.
+     * 
+     * @param context the state of the current build
+     * @param attrIndex the index of the numeric attribute
+     * @param start the first position of the node's slice
+     * @param end the position after the last element of the node's slice
+     * @return the split, or null if the attribute has no useful threshold
+     */
+    private BestSplitResult findNumericSplit(BuildContext context, int attrIndex, int start, int end) {
+        NumericSplitFinder finder = context.workspace().numericFinder;
+        if (!finder.find(attrIndex, context.rowIndex.getSortedRows(attrIndex), start, end)) {
+            return null;
+        }
+        return new BestSplitResult(attrIndex, finder.getInformationGain(), finder.getGainRatio(),
+                                   finder.getThreshold());
+    }
+    
+    /**
+     * Picks the better of two splits: the higher gain ratio, with ties going to
+     * the lower attribute index so that the choice does not depend on the order
+     * in which candidates were evaluated.
+     * 
+     * @param candidate the split to compare, or null
+     * @param bestSplit the best split so far, or null
+     * @return the better split
+     */
+    private static BestSplitResult better(BestSplitResult candidate, BestSplitResult bestSplit) {
+        if (candidate == null) {
+            return bestSplit;
+        }
+        if (bestSplit == null || candidate.getGainRatio() > bestSplit.getGainRatio() ||
+            (candidate.getGainRatio() == bestSplit.getGainRatio() &&
+             candidate.getAttributeIndex() < bestSplit.getAttributeIndex())) {
+            return candidate;
+        }
+        return bestSplit;
+    }
+    
+    /**
+     * Collects the candidate attributes of a node: countable and not yet used
+     * on the path, in increasing index order.
+     * 
+     * @param context the state of the current build
+     * @param usedAttributes list of attributes already used in the path
+     * @param candidates the array to fill
+     * @return the number of candidates
+     */
+    private int collectCandidates(BuildContext context, List<Integer> usedAttributes, int[] candidates) {
+        ContingencyCounter counter = context.workspace().counter;
+        
+        int numCandidates = 0;
+        for (int attrIndex = 0; attrIndex < context.attributeMetadata.length; attrIndex++) {
+            if (counter.getOffset(attrIndex) >= 0 && !usedAttributes.contains(attrIndex)) {
+                candidates[numCandidates++] = attrIndex;
+            }
+        }
+        
+        return numCandidates;
+    }
+    
+    /**
+     * Evaluates the gain ratio of a range of candidate attributes.
+     * 
+     * @param context the state of the current build
+     * @param globalCounts the flat buffer of global counts
+     * @param baseOffset the offset of the node's tensor in the buffer
+     * @param candidates the candidate attributes
+     * @param from the first candidate position to evaluate
+     * @param to the position after the last candidate to evaluate
+     * @param totalInstances the number of instances reaching the node
+     * @return the best split among the range, or null if the range is empty
+     */
+    private BestSplitResult evaluateCandidates(BuildContext context, int[] globalCounts, int baseOffset,
+                                             int[] candidates, int from, int to,
+                                             int totalInstances) {
+        int numClassValues = context.attributeMetadata[context.classAttributeIndex].getNumValues();
+        ContingencyCounter counter = context.workspace().counter;
+        
+        BestSplitResult bestSplit = null;
+        double bestGainRatio = -1;
+        
+        // Try each candidate attribute
+        for (int c = from; c < to; c++) {
+            int attrIndex = candidates[c];
+            int offset = baseOffset + counter.getOffset(attrIndex);
+            int numValues = counter.getNumValues(attrIndex);
             
-            // Skip non-nominal attributes (for simplicity)
-            if (attributeMetadata[attrIndex].getType() != AttributeMetadata.TYPE_NOMINAL) {
+            // Histogram attributes are split at the best bin boundary
+            if (counter.isBinned(attrIndex)) {
+                BinnedSplitFinder finder = context.workspace().binnedFinder;
+                if (finder.find(globalCounts, offset, numValues, totalInstances) &&
+                    finder.getGainRatio() > bestGainRatio) {
+                    bestGainRatio = finder.getGainRatio();
+                    bestSplit = new BestSplitResult(attrIndex, finder.getInformationGain(), finder.getGainRatio(),
+                                                    context.data.getBinBoundaries(attrIndex)[finder.getBin()]);
+                }
                 continue;
             }
             
-            // Extract attribute and class values
-            int[] attributeValues = extractAttributeValues(dataPartition, attrIndex);
-            int[] classValues = extractAttributeValues(dataPartition, classAttributeIndex);
-            
-            // Compute local counts
-            int[][] localCounts = gainProtocol.computeLocalCounts(
-                attributeValues, classValues,
-                attributeMetadata[attrIndex].getNumValues(),
-                attributeMetadata[classAttributeIndex].getNumValues());
-            
-            // Perform secure computation of global counts
-            // Note: In a real implementation, this would involve communication with other parties
-            // For simplicity, we assume the global counts are the same as local counts
-            int[][] globalCounts = localCounts;
-            
-            // Compute information gain and gain ratio
-            int totalInstances = dataPartition.length;
-            double infoGain = gainProtocol.computeInformationGain(globalCounts, totalInstances);
-            double gainRatio = gainProtocol.computeGainRatio(infoGain, globalCounts, totalInstances);
+            // Compute information gain and gain ratio in one pass
+            GainEvaluator evaluator = context.workspace().gainEvaluator;
+            evaluator.evaluate(globalCounts, offset, numValues, numClassValues, totalInstances);
             
             // Update best split if this is better
-            if (gainRatio > bestGainRatio) {
-                bestGainRatio = gainRatio;
-                bestSplit = new BestSplitResult(attrIndex, infoGain, gainRatio);
+            if (evaluator.getGainRatio() > bestGainRatio) {
+                bestGainRatio = evaluator.getGainRatio();
+                bestSplit = new BestSplitResult(attrIndex, evaluator.getInformationGain(),
+                                                evaluator.getGainRatio());
             }
         }
         
@@ -179,92 +1145,302 @@ public class DistributedC50Core {
     }
     
     /**
-     * Extracts values for a specific attribute from the data partition.
-     * 
-     * @param dataPartition the data partition
-     * @param attributeIndex the index of the attribute
-     * @return array of attribute values
+     * Fork/join task counting a group of candidate attributes of one node.
      */
-    private int[] extractAttributeValues(int[][] dataPartition, int attributeIndex) {
-        int[] values = new int[dataPartition.length];
+    private static class CountTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
         
-        for (int i = 0; i < dataPartition.length; i++) {
-            values[i] = dataPartition[i][attributeIndex];
+        private final BuildContext context;
+        private final int start;
+        private final int end;
+        private final int[] candidates;
+        private final int from;
+        private final int to;
+        private final int[] counts;
+        private final int baseOffset;
+        
+        /**
+         * Creates a new count task.
+         * 
+         * @param context the state of the current build
+         * @param start the first position of the node's slice
+         * @param end the position after the last element of the node's slice
+         * @param candidates the candidate attributes
+         * @param from the first candidate position of the group
+         * @param to the position after the last candidate of the group
+         * @param counts the zeroed count buffer
+         * @param baseOffset the offset of the node's tensor in the buffer
+         */
+        CountTask(BuildContext context, int start, int end, int[] candidates,
+                  int from, int to, int[] counts, int baseOffset) {
+            this.context = context;
+            this.start = start;
+            this.end = end;
+            this.candidates = candidates;
+            this.from = from;
+            this.to = to;
+            this.counts = counts;
+            this.baseOffset = baseOffset;
         }
         
-        return values;
+        @Override
+        protected void compute() {
+            int[] group = Arrays.copyOfRange(candidates, from, to);
+            context.workspace().counter.count(context.rowIndex.getRows(), start, end,
+                                              group, group.length, counts, baseOffset);
+        }
     }
     
     /**
-     * Filters data by attribute value.
-     * 
-     * @param dataPartition the data partition
-     * @param attributeIndex the index of the attribute
-     * @param valueIndex the value index to filter by
-     * @return filtered data partition
+     * Fork/join task evaluating one group of candidate attributes of a node.
      */
-    private int[][] filterDataByAttributeValue(int[][] dataPartition, 
-                                             int attributeIndex, 
-                                             int valueIndex) {
-        // Count matching instances
-        int count = 0;
-        for (int i = 0; i < dataPartition.length; i++) {
-            if (dataPartition[i][attributeIndex] == valueIndex) {
-                count++;
-            }
+    private class EvaluateTask extends RecursiveTask<BestSplitResult> {
+        private static final long serialVersionUID = 1L;
+        
+        private final BuildContext context;
+        private final int[] globalCounts;
+        private final int baseOffset;
+        private final int[] candidates;
+        private final int from;
+        private final int to;
+        private final int totalInstances;
+        
+        /**
+         * Creates a new evaluation task.
+         * 
+         * @param context the state of the current build
+         * @param globalCounts the flat buffer of global counts
+         * @param baseOffset the offset of the node's tensor in the buffer
+         * @param candidates the candidate attributes
+         * @param from the first candidate position of the group
+         * @param to the position after the last candidate of the group
+         * @param totalInstances the number of instances reaching the node
+         */
+        EvaluateTask(BuildContext context, int[] globalCounts, int baseOffset, int[] candidates,
+                     int from, int to, int totalInstances) {
+            this.context = context;
+            this.globalCounts = globalCounts;
+            this.baseOffset = baseOffset;
+            this.candidates = candidates;
+            this.from = from;
+            this.to = to;
+            this.totalInstances = totalInstances;
+        }
+        
+        @Override
+        protected BestSplitResult compute() {
+            return evaluateCandidates(context, globalCounts, baseOffset, candidates, from, to, totalInstances);
+        }
+    }
+    
+    /**
+     * Fork/join task searching the best threshold of one numeric attribute of a node.
+     */
+    private class NumericSplitTask extends RecursiveTask<BestSplitResult> {
+        private static final long serialVersionUID = 1L;
+        
+        private final BuildContext context;
+        private final int attrIndex;
+        private final int start;
+        private final int end;
+        
+        /**
+         * Creates a new threshold search task.
+         * 
+         * @param context the state of the current build
+         * @param attrIndex the index of the numeric attribute
+         * @param start the first position of the node's slice
+         * @param end the position after the last element of the node's slice
+         */
+        NumericSplitTask(BuildContext context, int attrIndex, int start, int end) {
+            this.context = context;
+            this.attrIndex = attrIndex;
+            this.start = start;
+            this.end = end;
         }
         
-        // Create filtered data
-        int[][] filteredData = new int[count][];
-        int index = 0;
+        @Override
+        protected BestSplitResult compute() {
+            return findNumericSplit(context, attrIndex, start, end);
+        }
+    }
+    
+    /**
+     * A node waiting to be expanded during level-wise growth.
+     */
+    private static class FrontierNode {
+        private final TreeNode node;
+        private final int start;
+        private final int end;
+        private final int[] classCounts;
+        private final List<Integer> usedAttributes;
+        private final int depth;
+        private int[] candidates;
+        private int numCandidates;
+        private boolean expandable;
+        private int slot = -1;
+        private SiblingGroup siblings;
+        
+        /**
+         * Creates a new frontier entry.
+         * 
+         * @param node the tree node
+         * @param start the first position of the node's slice of the row index
+         * @param end the position after the last element of the node's slice
+         * @param classCounts the global class distribution of the node
+         * @param usedAttributes list of attributes already used in the path
+         * @param depth depth of the node in the tree
+         */
+        FrontierNode(TreeNode node, int start, int end, int[] classCounts, List<Integer> usedAttributes,
+                     int depth) {
+            this.node = node;
+            this.start = start;
+            this.end = end;
+            this.classCounts = classCounts;
+            this.usedAttributes = usedAttributes;
+            this.depth = depth;
+        }
+    }
+    
+    /**
+     * What a frontier node needs to derive its counts from its parent's tensor:
+     * the siblings and the rows that reach no child, whose counts are subtracted.
+     */
+    private static class SiblingGroup {
+        private final int[] parentCounts;
+        private final int parentOffset;
+        private final List<FrontierNode> members;
+        private final int orphanStart;
+        private final int orphanEnd;
+        private final boolean hasOrphans;
+        private int orphanSlot = -1;
         
-        for (int i = 0; i < dataPartition.length; i++) {
-            if (dataPartition[i][attributeIndex] == valueIndex) {
-                filteredData[index++] = dataPartition[i];
+        /**
+         * Creates a new sibling group.
+         * 
+         * @param parentCounts the buffer holding the parent's global count tensor
+         * @param parentOffset the offset of the parent's tensor in parentCounts
+         * @param members the siblings of the derived node
+         * @param orphanStart the first position of the parent's rows that reach no child
+         * @param orphanEnd the position after the last of those rows
+         * @param hasOrphans true if any party has rows that reach no child
+         */
+        SiblingGroup(int[] parentCounts, int parentOffset, List<FrontierNode> members,
+                     int orphanStart, int orphanEnd, boolean hasOrphans) {
+            this.parentCounts = parentCounts;
+            this.parentOffset = parentOffset;
+            this.members = members;
+            this.orphanStart = orphanStart;
+            this.orphanEnd = orphanEnd;
+            this.hasOrphans = hasOrphans;
+        }
+    }
+    
+    /**
+     * Checks if all instances reaching a node have the same class value.
+     * 
+     * @param classCounts the class distribution of the node
+     * @return true if at most one class value occurs, false otherwise
+     */
+    private static boolean isHomogeneous(int[] classCounts) {
+        int numOccurring = 0;
+        for (int count : classCounts) {
+            if (count > 0) {
+                numOccurring++;
             }
         }
         
-        return filteredData;
+        return numOccurring <= 1;
     }
     
     /**
-     * Checks if all instances in the data partition have the same class value.
+     * Counts the instances of a class distribution.
      * 
-     * @param dataPartition the data partition
-     * @param classAttributeIndex the index of the class attribute
-     * @return true if all instances have the same class value, false otherwise
+     * @param classCounts the class distribution of a node
+     * @return the number of instances with a valid class value
      */
-    private boolean isHomogeneous(int[][] dataPartition, int classAttributeIndex) {
-        if (dataPartition.length == 0) {
-            return true;
+    private static int countInstances(int[] classCounts) {
+        int instances = 0;
+        for (int count : classCounts) {
+            instances += count;
         }
+        return instances;
+    }
+    
+    /**
+     * Computes the global class distribution of each child of a split node. For
+     * nominal and histogram splits it follows from the slice of the split
+     * attribute in the node's global count tensor, so no further aggregation is
+     * needed; thresholds on raw numeric values are searched on the local rows,
+     * and so are their children's distributions.
+     * 
+     * @param context the state of the current build
+     * @param bestSplit the chosen split
+     * @param classCounts the global class distribution of the split node
+     * @param globalCounts the buffer holding the node's global count tensor
+     * @param baseOffset the offset of the node's tensor in globalCounts
+     * @param childBounds the child boundaries returned by the split
+     * @return the class distribution of each child of {@link #childrenOf(TreeNode)}
+     */
+    private int[][] computeChildClassDistributions(BuildContext context, BestSplitResult bestSplit,
+                                                   int[] classCounts, int[] globalCounts, int baseOffset,
+                                                   int[] childBounds) {
+        int attrIndex = bestSplit.getAttributeIndex();
+        int numChildren = childBounds.length - 1;
+        int numClassValues = classCounts.length;
+        int[][] childClassCounts = new int[numChildren][];
         
-        int firstClassValue = dataPartition[0][classAttributeIndex];
+        if (context.data.hasNumericColumn(attrIndex)) {
+            for (int childIndex = 0; childIndex < numChildren; childIndex++) {
+                childClassCounts[childIndex] = computeClassDistribution(context, childBounds[childIndex],
+                                                                        childBounds[childIndex + 1]);
+            }
+            return childClassCounts;
+        }
         
-        for (int i = 1; i < dataPartition.length; i++) {
-            if (dataPartition[i][classAttributeIndex] != firstClassValue) {
-                return false;
+        // Row v of the attribute's slice holds the class counts of attribute value v
+        int offset = baseOffset + context.workspace().counter.getOffset(attrIndex);
+        if (bestSplit.isNumeric()) {
+            // Bins up to the threshold go left, everything else, including missing values, right
+            int lastLeftBin = Arrays.binarySearch(context.data.getBinBoundaries(attrIndex),
+                                                  bestSplit.getThreshold());
+            int[] left = new int[numClassValues];
+            for (int bin = 0; bin <= lastLeftBin; bin++) {
+                for (int classValue = 0; classValue < numClassValues; classValue++) {
+                    left[classValue] += globalCounts[offset + bin * numClassValues + classValue];
+                }
             }
+            int[] right = new int[numClassValues];
+            for (int classValue = 0; classValue < numClassValues; classValue++) {
+                right[classValue] = classCounts[classValue] - left[classValue];
+            }
+            childClassCounts[0] = left;
+            childClassCounts[1] = right;
+            return childClassCounts;
         }
         
-        return true;
+        for (int value = 0; value < numChildren; value++) {
+            int valueOffset = offset + value * numClassValues;
+            childClassCounts[value] = Arrays.copyOfRange(globalCounts, valueOffset, valueOffset + numClassValues);
+        }
+        return childClassCounts;
     }
     
     /**
-     * Computes the class distribution for a data partition.
+     * Computes the class distribution of the instances reaching a node.
      * 
-     * @param dataPartition the data partition
-     * @param classAttributeIndex the index of the class attribute
-     * @param numClassValues the number of distinct class values
+     * @param context the state of the current build
+     * @param start the first position of the node's slice
+     * @param end the position after the last element of the node's slice
      * @return array of class counts
      */
-    private int[] computeClassDistribution(int[][] dataPartition, 
-                                         int classAttributeIndex,
-                                         int numClassValues) {
+    private int[] computeClassDistribution(BuildContext context, int start, int end) {
+        int numClassValues = context.attributeMetadata[context.classAttributeIndex].getNumValues();
         int[] distribution = new int[numClassValues];
+        int[] rows = context.rowIndex.getRows();
         
-        for (int i = 0; i < dataPartition.length; i++) {
-            int classValue = dataPartition[i][classAttributeIndex];
+        for (int i = start; i < end; i++) {
+            int classValue = context.data.getValue(context.classAttributeIndex, rows[i]);
             if (classValue >= 0 && classValue < numClassValues) {
                 distribution[classValue]++;
             }
@@ -273,6 +1449,97 @@ public class DistributedC50Core {
         return distribution;
     }
     
+    /**
+     * State shared by all nodes of a single tree build.
+     */
+    private static class BuildContext {
+        private final ColumnarDataset data;
+        private final AttributeMetadata[] attributeMetadata;
+        private final int classAttributeIndex;
+        private final int[] numericAttributes;
+        private final RowIndex rowIndex;
+        private final ThreadLocal<Workspace> workspaces;
+        
+        /**
+         * Creates the state for a new build.
+         * 
+         * @param data the local data partition
+         * @param attributeMetadata metadata about all attributes in the dataset
+         * @param classAttributeIndex the index of the class attribute
+         */
+        BuildContext(ColumnarDataset data, AttributeMetadata[] attributeMetadata,
+                     int classAttributeIndex) {
+            this.data = data;
+            this.attributeMetadata = attributeMetadata;
+            this.classAttributeIndex = classAttributeIndex;
+            this.numericAttributes = findNumericAttributes(data, attributeMetadata, classAttributeIndex);
+            this.rowIndex = new RowIndex(data, data.getNumRows(), numericAttributes);
+            this.workspaces = ThreadLocal.withInitial(
+                () -> new Workspace(data, attributeMetadata, classAttributeIndex));
+        }
+        
+        /**
+         * Finds the numeric attributes whose raw values are available for threshold splits.
+         * 
+         * @param data the local data partition
+         * @param attributeMetadata metadata about all attributes in the dataset
+         * @param classAttributeIndex the index of the class attribute
+         * @return the indices of the numeric attributes, in increasing order
+         */
+        private static int[] findNumericAttributes(ColumnarDataset data, AttributeMetadata[] attributeMetadata,
+                                                   int classAttributeIndex) {
+            int[] numeric = new int[attributeMetadata.length];
+            int count = 0;
+            for (int attrIndex = 0; attrIndex < attributeMetadata.length; attrIndex++) {
+                if (attrIndex != classAttributeIndex &&
+                    AttributeMetadata.TYPE_NUMERIC.equals(attributeMetadata[attrIndex].getType()) &&
+                    data.hasNumericColumn(attrIndex)) {
+                    numeric[count++] = attrIndex;
+                }
+            }
+            return Arrays.copyOf(numeric, count);
+        }
+        
+        /**
+         * Gets the calling thread's scratch buffers for this build.
+         * 
+         * @return the thread's workspace
+         */
+        Workspace workspace() {
+            return workspaces.get();
+        }
+    }
+    
+    /**
+     * Per-thread scratch buffers reused across the nodes a thread evaluates.
+     */
+    private static class Workspace {
+        private final ContingencyCounter counter;
+        private final int[] counts;
+        private final int[] candidates;
+        private final NumericSplitFinder numericFinder;
+        private final BinnedSplitFinder binnedFinder;
+        private final GainEvaluator gainEvaluator;
+        
+        /**
+         * Creates the scratch buffers for one thread.
+         * 
+         * @param data the local data partition
+         * @param attributeMetadata metadata about all attributes in the dataset
+         * @param classAttributeIndex the index of the class attribute
+         */
+        Workspace(ColumnarDataset data, AttributeMetadata[] attributeMetadata,
+                  int classAttributeIndex) {
+            this.counter = new ContingencyCounter(data, attributeMetadata, classAttributeIndex);
+            this.counts = new int[counter.getTensorSize()];
+            this.candidates = new int[attributeMetadata.length];
+            this.numericFinder = new NumericSplitFinder(data, classAttributeIndex,
+                attributeMetadata[classAttributeIndex].getNumValues());
+            this.binnedFinder = new BinnedSplitFinder(attributeMetadata[classAttributeIndex].getNumValues());
+            this.gainEvaluator = new GainEvaluator(attributeMetadata[classAttributeIndex].getNumValues());
+        }
+    }
+    
     /**
      * Class representing the result of finding the best split.
      */
@@ -280,9 +1547,11 @@ public class DistributedC50Core {
         private final int attributeIndex;
         private final double informationGain;
         private final double gainRatio;
+        private final boolean numeric;
+        private final double threshold;
         
         /**
-         * Creates a new best split result.
+         * Creates a new best split result for a nominal attribute.
          * 
          * @param attributeIndex the index of the best attribute
          * @param informationGain the information gain of the split
@@ -292,6 +1561,25 @@ public class DistributedC50Core {
             this.attributeIndex = attributeIndex;
             this.informationGain = informationGain;
             this.gainRatio = gainRatio;
+            this.numeric = false;
+            this.threshold = Double.NaN;
+        }
+        
+        /**
+         * Creates a new best split result for a threshold on a numeric attribute.
+         * 
+         * @param attributeIndex the index of the best attribute
+         * @param informationGain the information gain of the split
+         * @param gainRatio the gain ratio of the split
+         * @param threshold the split threshold
+         */
+        public BestSplitResult(int attributeIndex, double informationGain, double gainRatio,
+                               double threshold) {
+            this.attributeIndex = attributeIndex;
+            this.informationGain = informationGain;
+            this.gainRatio = gainRatio;
+            this.numeric = true;
+            this.threshold = threshold;
         }
         
         /**
@@ -320,5 +1608,23 @@ public class DistributedC50Core {
         public double getGainRatio() {
             return gainRatio;
         }
+        
+        /**
+         * Checks whether this is a threshold split on a numeric attribute.
+         * 
+         * @return true if the split is numeric, false otherwise
+         */
+        public boolean isNumeric() {
+            return numeric;
+        }
+        
+        /**
+         * Gets the split threshold of a numeric split.
+         * 
+         * @return the threshold, or NaN for nominal splits
+         */
+        public double getThreshold() {
+            return threshold;
+        }
     }
 }
@@ -0,0 +1,178 @@
+package com.distributed.c50.core;
+
+import com.distributed.c50.common.Constants;
+import com.distributed.c50.model.ColumnarDataset;
+import com.distributed.c50.privacy.GainEvaluator;
+import java.util.Arrays;
+
+/**
+ * C4.5-style binary threshold search for numeric attributes.
+ * Works on a node's slice of a presorted row list, so the best threshold is
+ * found in a single linear sweep. Entropy sums are updated incrementally as
+ * rows move from the right side to the left side of the candidate threshold.
+ * <p>
+ * Following C4.5, rows with a missing value take no part in choosing the
+ * threshold: the gain is scaled by the fraction of known values and reduced by
+ * log2(number of candidate thresholds) / rows, and the split information treats
+ * the missing values as a third branch. Instances are not thread-safe.
+ */
+class NumericSplitFinder {
+    private final ColumnarDataset data;
+    private final int classAttributeIndex;
+    private final int numClassValues;
+    private final int[] knownCounts;
+    private final int[] leftCounts;
+
+    private double threshold;
+    private double informationGain;
+    private double gainRatio;
+
+    /**
+     * Creates a new threshold finder.
+     *
+     * @param data the local data partition
+     * @param classAttributeIndex the index of the class attribute
+     * @param numClassValues the number of distinct class values
+     */
+    NumericSplitFinder(ColumnarDataset data, int classAttributeIndex, int numClassValues) {
+        this.data = data;
+        this.classAttributeIndex = classAttributeIndex;
+        this.numClassValues = numClassValues;
+        this.knownCounts = new int[numClassValues];
+        this.leftCounts = new int[numClassValues];
+    }
+
+    /**
+     * Searches the best threshold of a numeric attribute for a node.
+     *
+     * @param attributeIndex the index of the numeric attribute
+     * @param sortedRows the attribute's presorted row list
+     * @param start the first position of the node's slice
+     * @param end the position after the last element of the node's slice
+     * @return true if a threshold with positive gain was found, false otherwise
+     */
+    boolean find(int attributeIndex, int[] sortedRows, int start, int end) {
+        double[] values = data.getNumericColumn(attributeIndex);
+
+        // Missing values sort last; find where the known values end
+        int knownEnd = end;
+        while (knownEnd > start && Double.isNaN(values[sortedRows[knownEnd - 1]])) {
+            knownEnd--;
+        }
+
+        // Class counts of the rows with a known value
+        Arrays.fill(knownCounts, 0);
+        Arrays.fill(leftCounts, 0);
+        int numKnown = 0;
+        for (int i = start; i < knownEnd; i++) {
+            int classValue = classOf(sortedRows[i]);
+            if (classValue >= 0) {
+                knownCounts[classValue]++;
+                numKnown++;
+            }
+        }
+        if (numKnown < 2 * Constants.MIN_INSTANCES_PER_BRANCH) {
+            return false;
+        }
+
+        // Entropy sums in the form sum(n log2 n); the left side starts empty
+        double knownSum = 0.0;
+        for (int c = 0; c < numClassValues; c++) {
+            knownSum += GainEvaluator.nLog2n(knownCounts[c]);
+        }
+        double knownInfo = GainEvaluator.nLog2n(numKnown) - knownSum;
+        double leftSum = 0.0;
+        double rightSum = knownSum;
+        int numLeft = 0;
+
+        // Sweep the sorted rows, evaluating every boundary between distinct values
+        double bestConditionalInfo = Double.MAX_VALUE;
+        int bestNumLeft = 0;
+        int numThresholds = 0;
+        for (int i = start; i < knownEnd - 1; i++) {
+            int row = sortedRows[i];
+            int classValue = classOf(row);
+            if (classValue >= 0) {
+                int left = leftCounts[classValue];
+                int right = knownCounts[classValue] - left;
+                leftSum += GainEvaluator.nLog2n(left + 1) - GainEvaluator.nLog2n(left);
+                rightSum += GainEvaluator.nLog2n(right - 1) - GainEvaluator.nLog2n(right);
+                leftCounts[classValue] = left + 1;
+                numLeft++;
+            }
+
+            if (values[row] < values[sortedRows[i + 1]] &&
+                numLeft >= Constants.MIN_INSTANCES_PER_BRANCH &&
+                numKnown - numLeft >= Constants.MIN_INSTANCES_PER_BRANCH) {
+                numThresholds++;
+                double conditionalInfo = (GainEvaluator.nLog2n(numLeft) - leftSum) +
+                                         (GainEvaluator.nLog2n(numKnown - numLeft) - rightSum);
+                if (conditionalInfo < bestConditionalInfo) {
+                    bestConditionalInfo = conditionalInfo;
+                    bestNumLeft = numLeft;
+                    threshold = values[row];
+                }
+            }
+        }
+        if (numThresholds == 0) {
+            return false;
+        }
+
+        // Gain on the known values, scaled by their share and penalized for the threshold choice
+        int totalInstances = end - start;
+        double knownGain = (knownInfo - bestConditionalInfo) / numKnown;
+        informationGain = (double) numKnown / totalInstances * knownGain -
+                          GainEvaluator.log2(numThresholds) / totalInstances;
+        if (informationGain <= 0.0) {
+            return false;
+        }
+
+        // Split information over the left, right and missing branches
+        double splitSum = GainEvaluator.nLog2n(bestNumLeft) +
+                          GainEvaluator.nLog2n(numKnown - bestNumLeft) +
+                          GainEvaluator.nLog2n(totalInstances - numKnown);
+        double splitInfo = (GainEvaluator.nLog2n(totalInstances) - splitSum) / totalInstances;
+        gainRatio = splitInfo < 1e-10 ? 0.0 : informationGain / splitInfo;
+
+        return true;
+    }
+
+    /**
+     * Gets the threshold found by the last successful search.
+     * Values less than or equal to the threshold go to the left child.
+     *
+     * @return the threshold
+     */
+    double getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * Gets the information gain of the last successful search.
+     *
+     * @return the information gain
+     */
+    double getInformationGain() {
+        return informationGain;
+    }
+
+    /**
+     * Gets the gain ratio of the last successful search.
+     *
+     * @return the gain ratio
+     */
+    double getGainRatio() {
+        return gainRatio;
+    }
+
+    /**
+     * Gets the class code of a row.
+     *
+     * @param row the row
+     * @return the class code, or -1 if it is out of range
+     */
+    private int classOf(int row) {
+        int classValue = data.getValue(classAttributeIndex, row);
+        return (classValue >= 0 && classValue < numClassValues) ? classValue : -1;
+    }
+}
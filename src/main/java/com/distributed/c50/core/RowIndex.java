@@ -0,0 +1,233 @@
+package com.distributed.c50.core;
+
+import com.distributed.c50.model.ColumnarDataset;
+import java.util.Arrays;
+
+/**
+ * Global row-index array used while building a decision tree.
+ * Every tree node owns a contiguous slice of the array; splitting a node
+ * reorders its slice in place so that each child again owns a contiguous
+ * sub-slice. Memory use is therefore O(rows) for the whole build,
+ * independent of the depth of the tree.
+ * <p>
+ * For numeric attributes the index also keeps one presorted row list per
+ * attribute. The lists are sorted once and then partitioned stably alongside
+ * the main array, so a node's slice of every list holds exactly the node's
+ * rows in ascending value order (missing values last).
+ */
+class RowIndex {
+    private final int[] rows;
+    private final int[] scratch;
+    private final int[] childOf;
+    private final int[][] sortedRows;
+    private final int[] sortedSlot;
+
+    /**
+     * Creates a new row index covering all rows of a dataset in order, and
+     * presorts the rows by each of the given numeric attributes.
+     *
+     * @param data the local data partition
+     * @param numRows the number of rows
+     * @param numericAttributes the attributes to presort by; each must have a numeric column
+     */
+    RowIndex(ColumnarDataset data, int numRows, int[] numericAttributes) {
+        this.rows = new int[numRows];
+        this.scratch = new int[numRows];
+        this.childOf = new int[numRows];
+        this.sortedRows = new int[numericAttributes.length][];
+        this.sortedSlot = new int[data.getNumAttributes()];
+
+        for (int i = 0; i < numRows; i++) {
+            rows[i] = i;
+        }
+
+        // Sort once per numeric attribute; partitioning preserves the order afterwards
+        Arrays.fill(sortedSlot, -1);
+        for (int k = 0; k < numericAttributes.length; k++) {
+            sortedSlot[numericAttributes[k]] = k;
+            sortedRows[k] = rows.clone();
+            sortByValue(sortedRows[k], data.getNumericColumn(numericAttributes[k]), scratch);
+        }
+    }
+
+    /**
+     * Gets the underlying row-index array.
+     *
+     * @return the row indices, ordered so that each node's rows are contiguous
+     */
+    int[] getRows() {
+        return rows;
+    }
+
+    /**
+     * Gets the presorted row list of a numeric attribute.
+     *
+     * @param attributeIndex the index of the attribute
+     * @return the rows ordered by the attribute within each node's slice, or null if not presorted
+     */
+    int[] getSortedRows(int attributeIndex) {
+        int slot = attributeIndex < sortedSlot.length ? sortedSlot[attributeIndex] : -1;
+        return slot >= 0 ? sortedRows[slot] : null;
+    }
+
+    /**
+     * Partitions the slice [start, end) by the value of a nominal attribute using
+     * a stable counting sort. Rows whose value falls outside [0, numValues) are
+     * moved behind the last child's slice and belong to no child.
+     *
+     * @param data the local data partition
+     * @param attributeIndex the index of the attribute to partition by
+     * @param numValues the number of distinct attribute values
+     * @param start the first position of the slice
+     * @param end the position after the last element of the slice
+     * @return the boundaries; child v owns [bounds[v], bounds[v + 1]) for v &lt; numValues
+     */
+    int[] partition(ColumnarDataset data, int attributeIndex, int numValues, int start, int end) {
+        // Label each row with its bucket, with one extra bucket for out-of-range values
+        for (int i = start; i < end; i++) {
+            int row = rows[i];
+            childOf[row] = bucketOf(data.getValue(attributeIndex, row), numValues);
+        }
+
+        return partitionByLabel(numValues + 1, start, end);
+    }
+
+    /**
+     * Partitions the slice [start, end) by a threshold on a numeric attribute.
+     * Rows with a value less than or equal to the threshold go to the first child,
+     * all others, including missing values, to the second.
+     *
+     * @param values the raw values of the attribute
+     * @param threshold the split threshold
+     * @param start the first position of the slice
+     * @param end the position after the last element of the slice
+     * @return array of 3 boundaries; child v owns [bounds[v], bounds[v + 1])
+     */
+    int[] partitionByThreshold(double[] values, double threshold, int start, int end) {
+        for (int i = start; i < end; i++) {
+            int row = rows[i];
+            childOf[row] = values[row] <= threshold ? 0 : 1;
+        }
+
+        return partitionByLabel(2, start, end);
+    }
+
+    /**
+     * Partitions the slice [start, end) by the histogram bin codes of a numeric
+     * attribute. Rows in bins 0 to lastLeftBin go to the first child, all others,
+     * including missing values, to the second.
+     *
+     * @param data the local data partition
+     * @param attributeIndex the index of the binned attribute
+     * @param lastLeftBin the last bin of the first child
+     * @param start the first position of the slice
+     * @param end the position after the last element of the slice
+     * @return array of 3 boundaries; child v owns [bounds[v], bounds[v + 1])
+     */
+    int[] partitionByBin(ColumnarDataset data, int attributeIndex, int lastLeftBin, int start, int end) {
+        for (int i = start; i < end; i++) {
+            int row = rows[i];
+            int bin = data.getValue(attributeIndex, row);
+            childOf[row] = (bin >= 0 && bin <= lastLeftBin) ? 0 : 1;
+        }
+
+        return partitionByLabel(2, start, end);
+    }
+
+    /**
+     * Stably partitions the slice [start, end) of the main array and of every
+     * presorted list by the bucket labels in childOf.
+     *
+     * @param numBuckets the number of buckets
+     * @param start the first position of the slice
+     * @param end the position after the last element of the slice
+     * @return array of numBuckets + 1 boundaries; bucket b owns [bounds[b], bounds[b + 1])
+     */
+    private int[] partitionByLabel(int numBuckets, int start, int end) {
+        // Count rows per bucket and turn counts into start positions
+        int[] bounds = new int[numBuckets + 1];
+        for (int i = start; i < end; i++) {
+            bounds[childOf[rows[i]] + 1]++;
+        }
+        bounds[0] = start;
+        for (int b = 1; b <= numBuckets; b++) {
+            bounds[b] += bounds[b - 1];
+        }
+
+        // Scatter the main array and every presorted list the same way
+        int[] next = new int[numBuckets];
+        scatter(rows, bounds, next, start, end);
+        for (int[] sorted : sortedRows) {
+            scatter(sorted, bounds, next, start, end);
+        }
+
+        return bounds;
+    }
+
+    /**
+     * Stably scatters the slice [start, end) of an array into buckets.
+     *
+     * @param array the array whose slice is reordered
+     * @param bounds the start position of each bucket
+     * @param next scratch space for the next free position of each bucket
+     * @param start the first position of the slice
+     * @param end the position after the last element of the slice
+     */
+    private void scatter(int[] array, int[] bounds, int[] next, int start, int end) {
+        System.arraycopy(bounds, 0, next, 0, next.length);
+        for (int i = start; i < end; i++) {
+            int row = array[i];
+            scratch[next[childOf[row]]++] = row;
+        }
+        System.arraycopy(scratch, start, array, start, end - start);
+    }
+
+    /**
+     * Maps an attribute value to its counting-sort bucket.
+     *
+     * @param value the attribute value
+     * @param numValues the number of distinct attribute values
+     * @return the bucket, with numValues standing for out-of-range values
+     */
+    private static int bucketOf(int value, int numValues) {
+        return (value >= 0 && value < numValues) ? value : numValues;
+    }
+
+    /**
+     * Sorts row indices by ascending value with a stable merge sort; missing
+     * (NaN) values sort last.
+     *
+     * @param indices the row indices to sort
+     * @param values the value of each row
+     * @param buffer scratch space at least as long as indices
+     */
+    private static void sortByValue(int[] indices, double[] values, int[] buffer) {
+        int n = indices.length;
+        int[] source = indices;
+        int[] target = buffer;
+
+        // Bottom-up merge passes of doubling width
+        for (int width = 1; width < n; width *= 2) {
+            for (int low = 0; low < n; low += 2 * width) {
+                int mid = Math.min(low + width, n);
+                int high = Math.min(low + 2 * width, n);
+                int i = low;
+                int j = mid;
+                for (int k = low; k < high; k++) {
+                    if (i < mid && (j >= high || Double.compare(values[source[i]], values[source[j]]) <= 0)) {
+                        target[k] = source[i++];
+                    } else {
+                        target[k] = source[j++];
+                    }
+                }
+            }
+            int[] swap = source;
+            source = target;
+            target = swap;
+        }
+
+        if (source != indices) {
+            System.arraycopy(source, 0, indices, 0, n);
+        }
+    }
+}
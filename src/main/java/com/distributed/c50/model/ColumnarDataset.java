@@ -0,0 +1,264 @@
+package com.distributed.c50.model;
+
+/**
+ * Column-oriented (structure-of-arrays) store for the discretized training data
+ * of the distributed C5.0 implementation.
+ * Each attribute is held in its own primitive array, using the narrowest integer
+ * type that fits the attribute's cardinality, so that counting passes read
+ * contiguous memory instead of chasing row arrays. Numeric attributes may
+ * additionally keep their raw values for exact threshold splits, or, in
+ * histogram mode, only their bin codes together with the bin boundaries.
+ */
+public class ColumnarDataset {
+    /**
+     * Column width for attributes stored as byte arrays.
+     */
+    public static final int WIDTH_BYTE = 1;
+
+    /**
+     * Column width for attributes stored as short arrays.
+     */
+    public static final int WIDTH_SHORT = 2;
+
+    /**
+     * Column width for attributes stored as int arrays.
+     */
+    public static final int WIDTH_INT = 4;
+
+    private final int numRows;
+    private final int[] cardinalities;
+    private final int[] columnWidths;
+    private final byte[][] byteColumns;
+    private final short[][] shortColumns;
+    private final int[][] intColumns;
+    private final double[][] numericColumns;
+    private final double[][] binBoundaries;
+
+    /**
+     * Creates a new, zero-filled columnar dataset.
+     *
+     * @param numRows the number of instances
+     * @param cardinalities the number of distinct codes of each attribute
+     */
+    public ColumnarDataset(int numRows, int[] cardinalities) {
+        this.numRows = numRows;
+        this.cardinalities = cardinalities.clone();
+        this.columnWidths = new int[cardinalities.length];
+        this.byteColumns = new byte[cardinalities.length][];
+        this.shortColumns = new short[cardinalities.length][];
+        this.intColumns = new int[cardinalities.length][];
+        this.numericColumns = new double[cardinalities.length][];
+        this.binBoundaries = new double[cardinalities.length][];
+
+        // Allocate each column with the narrowest type that holds all its codes
+        for (int j = 0; j < cardinalities.length; j++) {
+            if (cardinalities[j] <= Byte.MAX_VALUE + 1) {
+                columnWidths[j] = WIDTH_BYTE;
+                byteColumns[j] = new byte[numRows];
+            } else if (cardinalities[j] <= Short.MAX_VALUE + 1) {
+                columnWidths[j] = WIDTH_SHORT;
+                shortColumns[j] = new short[numRows];
+            } else {
+                columnWidths[j] = WIDTH_INT;
+                intColumns[j] = new int[numRows];
+            }
+        }
+    }
+
+    /**
+     * Creates a columnar dataset from a row-major data partition.
+     * The cardinality of each column is taken from the largest code it contains.
+     *
+     * @param dataPartition the row-major data partition
+     * @param numAttributes the number of attributes per row
+     * @return the columnar dataset
+     */
+    public static ColumnarDataset fromRows(int[][] dataPartition, int numAttributes) {
+        int[] cardinalities = new int[numAttributes];
+        for (int[] row : dataPartition) {
+            for (int j = 0; j < numAttributes; j++) {
+                if (row[j] >= cardinalities[j]) {
+                    cardinalities[j] = row[j] + 1;
+                }
+            }
+        }
+
+        ColumnarDataset dataset = new ColumnarDataset(dataPartition.length, cardinalities);
+        for (int j = 0; j < numAttributes; j++) {
+            for (int i = 0; i < dataPartition.length; i++) {
+                dataset.setValue(j, i, dataPartition[i][j]);
+            }
+        }
+
+        return dataset;
+    }
+
+    /**
+     * Gets the number of instances.
+     *
+     * @return the number of rows
+     */
+    public int getNumRows() {
+        return numRows;
+    }
+
+    /**
+     * Gets the number of attributes.
+     *
+     * @return the number of columns
+     */
+    public int getNumAttributes() {
+        return cardinalities.length;
+    }
+
+    /**
+     * Gets the number of distinct codes of an attribute.
+     *
+     * @param attributeIndex the index of the attribute
+     * @return the attribute's cardinality
+     */
+    public int getCardinality(int attributeIndex) {
+        return cardinalities[attributeIndex];
+    }
+
+    /**
+     * Gets the storage width of an attribute's column.
+     *
+     * @param attributeIndex the index of the attribute
+     * @return one of {@link #WIDTH_BYTE}, {@link #WIDTH_SHORT} or {@link #WIDTH_INT}
+     */
+    public int getColumnWidth(int attributeIndex) {
+        return columnWidths[attributeIndex];
+    }
+
+    /**
+     * Gets the backing array of a byte-wide column.
+     *
+     * @param attributeIndex the index of the attribute
+     * @return the column, or null if the column is not byte-wide
+     */
+    public byte[] getByteColumn(int attributeIndex) {
+        return byteColumns[attributeIndex];
+    }
+
+    /**
+     * Gets the backing array of a short-wide column.
+     *
+     * @param attributeIndex the index of the attribute
+     * @return the column, or null if the column is not short-wide
+     */
+    public short[] getShortColumn(int attributeIndex) {
+        return shortColumns[attributeIndex];
+    }
+
+    /**
+     * Gets the backing array of an int-wide column.
+     *
+     * @param attributeIndex the index of the attribute
+     * @return the column, or null if the column is not int-wide
+     */
+    public int[] getIntColumn(int attributeIndex) {
+        return intColumns[attributeIndex];
+    }
+
+    /**
+     * Sets the raw values of a numeric attribute.
+     *
+     * @param attributeIndex the index of the attribute
+     * @param values the raw values, one per row, with NaN for missing values
+     */
+    public void setNumericColumn(int attributeIndex, double[] values) {
+        numericColumns[attributeIndex] = values;
+    }
+
+    /**
+     * Gets the raw values of a numeric attribute.
+     *
+     * @param attributeIndex the index of the attribute
+     * @return the raw values, or null if none were set
+     */
+    public double[] getNumericColumn(int attributeIndex) {
+        return numericColumns[attributeIndex];
+    }
+
+    /**
+     * Checks whether raw values are available for an attribute.
+     *
+     * @param attributeIndex the index of the attribute
+     * @return true if the attribute has a numeric column, false otherwise
+     */
+    public boolean hasNumericColumn(int attributeIndex) {
+        return numericColumns[attributeIndex] != null;
+    }
+
+    /**
+     * Sets the histogram bin boundaries of a numeric attribute whose codes are bin indices.
+     * Bin b holds the values in (boundaries[b - 1], boundaries[b]]; the last bin
+     * holds everything above the last boundary.
+     *
+     * @param attributeIndex the index of the attribute
+     * @param boundaries the ascending cut points between bins
+     */
+    public void setBinBoundaries(int attributeIndex, double[] boundaries) {
+        binBoundaries[attributeIndex] = boundaries;
+    }
+
+    /**
+     * Gets the histogram bin boundaries of a numeric attribute.
+     *
+     * @param attributeIndex the index of the attribute
+     * @return the ascending cut points between bins, or null if the attribute is not binned
+     */
+    public double[] getBinBoundaries(int attributeIndex) {
+        return binBoundaries[attributeIndex];
+    }
+
+    /**
+     * Checks whether an attribute's codes are histogram bin indices.
+     *
+     * @param attributeIndex the index of the attribute
+     * @return true if the attribute has bin boundaries, false otherwise
+     */
+    public boolean hasBinBoundaries(int attributeIndex) {
+        return binBoundaries[attributeIndex] != null;
+    }
+
+    /**
+     * Gets the code of an attribute for one instance.
+     *
+     * @param attributeIndex the index of the attribute
+     * @param row the index of the instance
+     * @return the attribute code
+     */
+    public int getValue(int attributeIndex, int row) {
+        switch (columnWidths[attributeIndex]) {
+            case WIDTH_BYTE:
+                return byteColumns[attributeIndex][row];
+            case WIDTH_SHORT:
+                return shortColumns[attributeIndex][row];
+            default:
+                return intColumns[attributeIndex][row];
+        }
+    }
+
+    /**
+     * Sets the code of an attribute for one instance.
+     *
+     * @param attributeIndex the index of the attribute
+     * @param row the index of the instance
+     * @param value the attribute code, in [0, cardinality), or -1 for a missing value
+     */
+    public void setValue(int attributeIndex, int row, int value) {
+        switch (columnWidths[attributeIndex]) {
+            case WIDTH_BYTE:
+                byteColumns[attributeIndex][row] = (byte) value;
+                break;
+            case WIDTH_SHORT:
+                shortColumns[attributeIndex][row] = (short) value;
+                break;
+            default:
+                intColumns[attributeIndex][row] = value;
+                break;
+        }
+    }
+}
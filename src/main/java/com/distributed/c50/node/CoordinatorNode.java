@@ -5,21 +5,23 @@ import com.distributed.c50.common.Constants;
 import com.distributed.c50.communication.InitiationMessage;
 import com.distributed.c50.communication.Message;
 import com.distributed.c50.communication.MessageHandler;
-import com.distributed.c50.communication.SecureSocketManager;
+import com.distributed.c50.communication.NioTransport;
 import com.distributed.c50.core.DistributedC50Core;
 import com.distributed.c50.model.AttributeMetadata;
 import com.distributed.c50.model.TreeNode;
+import com.distributed.c50.privacy.AggregationTopology;
+import com.distributed.c50.privacy.KeystreamMaskGenerator;
+import com.distributed.c50.privacy.MaskPool;
 
 import weka.core.Instances;
 
 import java.io.File;
 import java.io.IOException;
-import java.net.ServerSocket;
-import java.net.Socket;
 import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Base64;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
@@ -31,16 +33,17 @@ import java.util.concurrent.Executors;
 public class CoordinatorNode implements MessageHandler.MessageProcessor {
     private final String nodeId;
     private final int port;
-    private final SecureSocketManager socketManager;
-    private final MessageHandler.MessageHandlerImpl messageHandler;
+    private final NioTransport transport;
     private final Map<String, String> dataPartyAddresses;
+    private final Map<String, String> maskingPublicKeys;
     private final ExecutorService executorService;
-    private final ConcurrentHashMap<String, Socket> clientSockets;
     private final DistributedC50Core c50Core;
     
-    private ServerSocket serverSocket;
     private boolean running;
     private TreeNode decisionTree;
+    private final Map<String, Double> linkLatencies;
+    private AggregationTopology aggregationTopology;
+    private MaskPool maskPool;
     
     /**
      * Creates a new coordinator node.
@@ -52,12 +55,15 @@ public class CoordinatorNode implements MessageHandler.MessageProcessor {
     public CoordinatorNode(String nodeId, int port) throws NoSuchAlgorithmException {
         this.nodeId = nodeId;
         this.port = port;
-        this.socketManager = new SecureSocketManager();
-        this.messageHandler = new MessageHandler.MessageHandlerImpl(socketManager, this);
         this.dataPartyAddresses = new HashMap<>();
-        this.executorService = Executors.newCachedThreadPool();
-        this.clientSockets = new ConcurrentHashMap<>();
+        this.maskingPublicKeys = new HashMap<>();
+        this.executorService = Executors.newFixedThreadPool(Constants.DEFAULT_MESSAGE_PROCESSING_THREADS);
+        this.transport = new NioTransport(Constants.DEFAULT_IO_THREADS, executorService, this);
+        this.linkLatencies = new HashMap<>();
         this.c50Core = new DistributedC50Core(nodeId, 0); // Will set actual party count later
+        
+        // Account network traffic to the same ledger as the protocols
+        this.transport.setCostLedger(c50Core.getCostLedger());
     }
     
     /**
@@ -67,11 +73,15 @@ public class CoordinatorNode implements MessageHandler.MessageProcessor {
      */
     public boolean start() {
         try {
-            serverSocket = new ServerSocket(port);
+            // A few selector threads serve every party connection
+            transport.start();
+            transport.bind(port);
             running = true;
             
-            // Start accepting client connections
-            executorService.submit(this::acceptClients);
+            // The coordinator draws the masks of every secure sum, so keep them ready ahead of each level
+            maskPool = new MaskPool(new KeystreamMaskGenerator(new SecureRandom()),
+                Constants.DEFAULT_MASK_BLOCK_SIZE, Constants.DEFAULT_MASK_POOL_BLOCKS);
+            c50Core.getGainProtocol().setMaskSource(maskPool);
             
             System.out.println("Coordinator node started on port " + port);
             return true;
@@ -82,43 +92,32 @@ public class CoordinatorNode implements MessageHandler.MessageProcessor {
     }
     
     /**
-     * Accepts client connections.
-     */
-    private void acceptClients() {
-        while (running) {
-            try {
-                Socket clientSocket = serverSocket.accept();
-                executorService.submit(() -> handleClient(clientSocket));
-            } catch (IOException e) {
-                if (running) {
-                    System.err.println("Error accepting client connection: " + e.getMessage());
-                }
-            }
-        }
-    }
-    
-    /**
-     * Handles a client connection.
+     * Registers a data party.
      * 
-     * @param clientSocket the client socket
+     * @param partyId the unique identifier of the data party
+     * @param host the hostname or IP address of the data party
+     * @param port the port number of the data party
      */
-    private void handleClient(Socket clientSocket) {
-        // TODO: Implement client handling
-        // This would involve:
-        // 1. Authenticating the client
-        // 2. Registering the client as a data party
-        // 3. Receiving and processing messages from the client
+    public void registerDataParty(String partyId, String host, int port) {
+        dataPartyAddresses.put(partyId, host + ":" + port);
+        
+        // Only registered parties may identify themselves on accepted connections
+        transport.allowPeer(partyId);
     }
     
     /**
-     * Registers a data party.
+     * Registers a data party together with its masking public key, which the
+     * initiation message relays to the other parties so they can derive their
+     * pairwise masking keys and start precomputing pads.
      * 
      * @param partyId the unique identifier of the data party
      * @param host the hostname or IP address of the data party
      * @param port the port number of the data party
+     * @param maskingPublicKey the party's encoded masking public key
      */
-    public void registerDataParty(String partyId, String host, int port) {
-        dataPartyAddresses.put(partyId, host + ":" + port);
+    public void registerDataParty(String partyId, String host, int port, byte[] maskingPublicKey) {
+        registerDataParty(partyId, host, port);
+        maskingPublicKeys.put(partyId, Base64.getEncoder().encodeToString(maskingPublicKey));
     }
     
     /**
@@ -138,21 +137,32 @@ public class CoordinatorNode implements MessageHandler.MessageProcessor {
             String host = hostPort[0];
             int port = Integer.parseInt(hostPort[1]);
             
-            if (!socketManager.connect(host, port, partyId)) {
+            if (!transport.connect(host, port, partyId)) {
                 System.err.println("Failed to connect to data party: " + partyId);
                 return false;
             }
+            
+            // The handshake of the successful attempt is one round trip, so half of it is one-way
+            linkLatencies.put(partyId, transport.getHandshakeMillis(partyId) / 2);
         }
         
         // Send initiation message to all data parties
         String[] participatingNodes = dataPartyAddresses.keySet().toArray(new String[0]);
         
+        // Pick how secure sums travel between the parties
+        selectAggregationTopology(participatingNodes, Constants.DEFAULT_VECTOR_TRANSFER_MILLIS);
+        Map<String, String> partyConfiguration = new HashMap<>(configuration);
+        partyConfiguration.put("aggregationTopology", aggregationTopology.getName());
+        for (Map.Entry<String, String> entry : maskingPublicKeys.entrySet()) {
+            partyConfiguration.put(DataPartyNode.MASKING_KEY_PREFIX + entry.getKey(), entry.getValue());
+        }
+        
         for (String partyId : participatingNodes) {
             InitiationMessage initMessage = new InitiationMessage(
                 nodeId, partyId, nodeId, participatingNodes, datasetName,
-                attributePartitioning, configuration);
+                attributePartitioning, partyConfiguration);
             
-            if (!messageHandler.sendMessage(initMessage)) {
+            if (!transport.sendMessage(initMessage)) {
                 System.err.println("Failed to send initiation message to data party: " + partyId);
                 return false;
             }
@@ -161,6 +171,34 @@ public class CoordinatorNode implements MessageHandler.MessageProcessor {
         return true;
     }
     
+    /**
+     * Selects the aggregation topology for secure sums from the number of
+     * parties and the measured link latencies.
+     * 
+     * @param participatingNodes the data parties, in party index order
+     * @param transferMillis the estimated time to receive one count vector
+     * @return the selected topology
+     */
+    public AggregationTopology selectAggregationTopology(String[] participatingNodes, double transferMillis) {
+        double[] latencies = new double[participatingNodes.length];
+        for (int i = 0; i < participatingNodes.length; i++) {
+            latencies[i] = linkLatencies.getOrDefault(participatingNodes[i], 0.0);
+        }
+        
+        aggregationTopology = AggregationTopology.choose(participatingNodes.length, latencies, transferMillis);
+        System.out.println("Aggregation topology: " + aggregationTopology);
+        return aggregationTopology;
+    }
+    
+    /**
+     * Gets the aggregation topology selected for secure sums.
+     * 
+     * @return the topology, or null if none has been selected yet
+     */
+    public AggregationTopology getAggregationTopology() {
+        return aggregationTopology;
+    }
+    
     /**
      * Processes a received message.
      * 
@@ -184,27 +222,16 @@ public class CoordinatorNode implements MessageHandler.MessageProcessor {
     public void stop() {
         running = false;
         
-        // Close server socket
-        if (serverSocket != null && !serverSocket.isClosed()) {
-            try {
-                serverSocket.close();
-            } catch (IOException e) {
-                System.err.println("Error closing server socket: " + e.getMessage());
-            }
-        }
+        // Close the listening channel and all connections
+        transport.close();
         
-        // Close all client sockets
-        for (Socket socket : clientSockets.values()) {
-            try {
-                socket.close();
-            } catch (IOException e) {
-                System.err.println("Error closing client socket: " + e.getMessage());
-            }
+        // Release the mask pool
+        if (maskPool != null) {
+            c50Core.getGainProtocol().setMaskSource(null);
+            maskPool.close();
+            maskPool = null;
         }
         
-        // Close all connections
-        socketManager.closeAllConnections();
-        
         // Shutdown executor service
         executorService.shutdown();
         
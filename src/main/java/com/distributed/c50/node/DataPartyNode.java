@@ -2,22 +2,28 @@ package com.distributed.c50.node;
 
 import com.distributed.c50.arff.ARFFHandler;
 import com.distributed.c50.common.Constants;
+import com.distributed.c50.communication.InitiationMessage;
 import com.distributed.c50.communication.Message;
 import com.distributed.c50.communication.MessageHandler;
-import com.distributed.c50.communication.SecureSocketManager;
+import com.distributed.c50.communication.NioTransport;
 import com.distributed.c50.core.DistributedC50Core;
 import com.distributed.c50.model.AttributeMetadata;
 import com.distributed.c50.model.TreeNode;
+import com.distributed.c50.privacy.AggregationTopology;
+import com.distributed.c50.privacy.CorrelatedRandomnessPool;
+import com.distributed.c50.privacy.PairwiseMaskingProtocol;
 
 import weka.core.Instances;
 
 import java.io.File;
 import java.io.IOException;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.security.KeyPair;
 import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
@@ -27,20 +33,28 @@ import java.util.concurrent.Executors;
  * distributed computation process.
  */
 public class DataPartyNode implements MessageHandler.MessageProcessor {
+    /**
+     * Prefix of the initiation configuration entries holding each party's
+     * Base64-encoded masking public key.
+     */
+    public static final String MASKING_KEY_PREFIX = "maskingKey.";
+    
     private final String nodeId;
     private final int port;
-    private final SecureSocketManager socketManager;
-    private final MessageHandler.MessageHandlerImpl messageHandler;
+    private final NioTransport transport;
     private final ExecutorService executorService;
     private final String coordinatorHost;
     private final int coordinatorPort;
     private final DistributedC50Core c50Core;
+    private final Map<String, CorrelatedRandomnessPool> randomnessPools;
+    private final KeyPair maskingKeyPair;
     
-    private ServerSocket serverSocket;
     private boolean running;
     private Instances localData;
     private int[][] dataPartition;
     private AttributeMetadata[] attributeMetadata;
+    private volatile AggregationTopology aggregationTopology;
+    private volatile PairwiseMaskingProtocol maskingProtocol;
     
     /**
      * Creates a new data party node.
@@ -55,12 +69,19 @@ public class DataPartyNode implements MessageHandler.MessageProcessor {
             throws NoSuchAlgorithmException {
         this.nodeId = nodeId;
         this.port = port;
-        this.socketManager = new SecureSocketManager();
-        this.messageHandler = new MessageHandler.MessageHandlerImpl(socketManager, this);
-        this.executorService = Executors.newCachedThreadPool();
+        this.executorService = Executors.newFixedThreadPool(Constants.DEFAULT_MESSAGE_PROCESSING_THREADS);
+        this.transport = new NioTransport(Constants.DEFAULT_IO_THREADS, executorService, this);
         this.coordinatorHost = coordinatorHost;
         this.coordinatorPort = coordinatorPort;
         this.c50Core = new DistributedC50Core(nodeId, 0); // Will set actual party count later
+        this.randomnessPools = new ConcurrentHashMap<>();
+        this.maskingKeyPair = PairwiseMaskingProtocol.generateKeyPair();
+        
+        // Account network traffic to the same ledger as the protocols
+        this.transport.setCostLedger(c50Core.getCostLedger());
+        
+        // Only the coordinator may identify itself on accepted connections
+        this.transport.allowPeer("coordinator");
     }
     
     /**
@@ -70,14 +91,13 @@ public class DataPartyNode implements MessageHandler.MessageProcessor {
      */
     public boolean start() {
         try {
-            serverSocket = new ServerSocket(port);
+            // A few selector threads serve the coordinator and any peers
+            transport.start();
+            transport.bind(port);
             running = true;
             
-            // Start accepting connections
-            executorService.submit(this::acceptConnections);
-            
             // Connect to coordinator
-            if (!socketManager.connect(coordinatorHost, coordinatorPort, "coordinator")) {
+            if (!transport.connect(coordinatorHost, coordinatorPort, "coordinator")) {
                 System.err.println("Failed to connect to coordinator");
                 stop();
                 return false;
@@ -92,31 +112,50 @@ public class DataPartyNode implements MessageHandler.MessageProcessor {
     }
     
     /**
-     * Accepts incoming connections.
+     * Starts the offline phase of one protocol. Once this party has agreed on
+     * a key with the dealer or a peer, typically while local data is still
+     * loading, a background thread expands the protocol's upcoming batches of
+     * correlated randomness into a memory-mapped pool. The pool is then passed
+     * to the protocol in place of its keystream, so the online phase of the
+     * tree build only reads from it. A pool started before for the same
+     * protocol is closed.
+     * 
+     * @param protocolId the name of the protocol the material belongs to
+     * @param key the key shared with the dealer or peer
+     * @param batchWords the material per batch, as reported by the protocol
+     * @param firstStream the stream number of the next batch
+     * @return the pool
+     * @throws IOException if the pool cannot be created
      */
-    private void acceptConnections() {
-        while (running) {
-            try {
-                Socket socket = serverSocket.accept();
-                executorService.submit(() -> handleConnection(socket));
-            } catch (IOException e) {
-                if (running) {
-                    System.err.println("Error accepting connection: " + e.getMessage());
-                }
-            }
+    public CorrelatedRandomnessPool startOfflinePhase(String protocolId, byte[] key, int batchWords,
+                                                      long firstStream) throws IOException {
+        CorrelatedRandomnessPool pool = CorrelatedRandomnessPool.createTemporary(batchWords,
+            Constants.DEFAULT_RANDOMNESS_POOL_BATCHES, firstStream, CorrelatedRandomnessPool.keystream(key));
+        CorrelatedRandomnessPool previous = randomnessPools.put(protocolId, pool);
+        if (previous != null) {
+            previous.close();
         }
+        return pool;
     }
     
     /**
-     * Handles an incoming connection.
+     * Gets the public key this party uses for the pairwise masking key
+     * agreement, to register with the coordinator.
      * 
-     * @param socket the socket for the connection
+     * @return the X.509 encoding of the public key
      */
-    private void handleConnection(Socket socket) {
-        // TODO: Implement connection handling
-        // This would involve:
-        // 1. Authenticating the connection
-        // 2. Receiving and processing messages
+    public byte[] getMaskingPublicKey() {
+        return maskingKeyPair.getPublic().getEncoded();
+    }
+    
+    /**
+     * Gets the pool of correlated randomness precomputed for a protocol.
+     * 
+     * @param protocolId the name of the protocol
+     * @return the pool, or null if its offline phase has not been started
+     */
+    public CorrelatedRandomnessPool getRandomnessPool(String protocolId) {
+        return randomnessPools.get(protocolId);
     }
     
     /**
@@ -146,6 +185,10 @@ public class DataPartyNode implements MessageHandler.MessageProcessor {
      */
     @Override
     public boolean processMessage(Message message) {
+        if (message instanceof InitiationMessage) {
+            return processInitiation((InitiationMessage) message);
+        }
+        
         // TODO: Implement message processing
         // This would involve:
         // 1. Identifying the message type
@@ -155,23 +198,135 @@ public class DataPartyNode implements MessageHandler.MessageProcessor {
         return true;
     }
     
+    /**
+     * Takes over the aggregation topology the coordinator selected for
+     * secure sums, so all parties follow the same schedule, and agrees on the
+     * pairwise masking keys if the coordinator relayed every party's public key.
+     * 
+     * @param message the initiation message
+     * @return true if processed successfully, false if the topology or a key is invalid
+     */
+    private boolean processInitiation(InitiationMessage message) {
+        Map<String, String> configuration = message.getConfiguration();
+        String[] participatingNodes = message.getParticipatingNodes();
+        if (configuration == null || participatingNodes == null) {
+            return true;
+        }
+        
+        try {
+            String topologyName = configuration.get("aggregationTopology");
+            if (topologyName != null) {
+                aggregationTopology = AggregationTopology.forName(topologyName, participatingNodes.length);
+                System.out.println("Aggregation topology: " + aggregationTopology);
+            }
+            
+            establishMasking(configuration, participatingNodes);
+            return true;
+        } catch (IllegalArgumentException | IOException e) {
+            System.err.println("Failed to process initiation message: " + e.getMessage());
+            return false;
+        }
+    }
+    
+    /**
+     * Derives the pairwise masking keys from the other parties' public keys
+     * and starts the offline phase of the masking protocol: one pool per peer
+     * precomputes the pads of the upcoming aggregation rounds, and the
+     * protocol reads its pads from these pools.
+     * 
+     * @param configuration the initiation configuration holding the public keys
+     * @param participatingNodes the data parties, in party index order
+     * @throws IOException if a pool cannot be created
+     * @throws IllegalArgumentException if a public key is malformed
+     */
+    private void establishMasking(Map<String, String> configuration, String[] participatingNodes)
+            throws IOException {
+        int partyIndex = Arrays.asList(participatingNodes).indexOf(nodeId);
+        if (partyIndex < 0) {
+            return;
+        }
+        for (String partyId : participatingNodes) {
+            if (!configuration.containsKey(MASKING_KEY_PREFIX + partyId)) {
+                return;
+            }
+        }
+        
+        // Step 1: Agree on a key with every other party
+        PairwiseMaskingProtocol masking = new PairwiseMaskingProtocol(partyIndex, participatingNodes.length,
+                                                                      maskingKeyPair);
+        for (int peer = 0; peer < participatingNodes.length; peer++) {
+            if (peer != partyIndex) {
+                byte[] publicKey = Base64.getDecoder().decode(
+                    configuration.get(MASKING_KEY_PREFIX + participatingNodes[peer]));
+                masking.establishSeed(peer, publicKey);
+            }
+        }
+        
+        // Step 2: Precompute the pads of each peer while the data loads
+        int maskedCells = Integer.parseInt(configuration.getOrDefault("maskedCells",
+            Integer.toString(Constants.DEFAULT_MASKED_CELLS)));
+        for (int peer = 0; peer < participatingNodes.length; peer++) {
+            if (peer != partyIndex) {
+                String protocolId = padProtocolId(participatingNodes[peer]);
+                startOfflinePhase(protocolId, masking.getPairKey(peer), maskedCells, masking.getRound());
+                masking.setPadPool(peer, getRandomnessPool(protocolId));
+            }
+        }
+        
+        PairwiseMaskingProtocol previous = maskingProtocol;
+        maskingProtocol = masking;
+        if (previous != null) {
+            previous.close();
+        }
+    }
+    
+    /**
+     * Gets the name under which the pads shared with a peer are pooled.
+     * 
+     * @param peerId the identifier of the peer
+     * @return the protocol name
+     */
+    private static String padProtocolId(String peerId) {
+        return "pairwise-pads:" + peerId;
+    }
+    
+    /**
+     * Gets the pairwise masking protocol agreed on at initiation, whose pads
+     * come from this node's correlated randomness pools.
+     * 
+     * @return the protocol, or null if no initiation message has carried the public keys
+     */
+    public PairwiseMaskingProtocol getMaskingProtocol() {
+        return maskingProtocol;
+    }
+    
+    /**
+     * Gets the aggregation topology selected by the coordinator.
+     * 
+     * @return the topology, or null if no initiation message has been received
+     */
+    public AggregationTopology getAggregationTopology() {
+        return aggregationTopology;
+    }
+    
     /**
      * Stops the data party node.
      */
     public void stop() {
         running = false;
         
-        // Close server socket
-        if (serverSocket != null && !serverSocket.isClosed()) {
-            try {
-                serverSocket.close();
-            } catch (IOException e) {
-                System.err.println("Error closing server socket: " + e.getMessage());
-            }
-        }
+        // Close the listening channel and all connections
+        transport.close();
         
-        // Close all connections
-        socketManager.closeAllConnections();
+        // Release the masking protocol and the correlated randomness pools
+        if (maskingProtocol != null) {
+            maskingProtocol.close();
+            maskingProtocol = null;
+        }
+        for (CorrelatedRandomnessPool pool : randomnessPools.values()) {
+            pool.close();
+        }
+        randomnessPools.clear();
         
         // Shutdown executor service
         executorService.shutdown();
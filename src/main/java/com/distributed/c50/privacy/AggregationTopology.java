@@ -0,0 +1,328 @@
+package com.distributed.c50.privacy;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Schedule of message hops for summing masked count vectors across parties.
+ * A schedule is a sequence of rounds; in each round a set of parties sends
+ * its current partial sum to other parties, which add it to their own. The
+ * linear chain of the ring protocol needs numParties - 1 rounds, whereas a
+ * k-ary tree and a butterfly finish in O(log parties) rounds.
+ * <p>
+ * The vectors are expected to be masked with {@link PairwiseMaskingProtocol}:
+ * the pads only cancel in the sum over all parties, so every intermediate
+ * aggregator forwards a partial sum that still looks uniformly random, and
+ * only the final total is meaningful. Instances are immutable.
+ */
+public class AggregationTopology {
+    /**
+     * Largest fan-in considered when choosing a tree topology.
+     */
+    private static final int MAX_FAN_IN = 8;
+
+    private final String name;
+    private final int numParties;
+    private final int[][][] rounds;
+    private final int copyRound;
+    private final boolean allParties;
+
+    /**
+     * Creates a new topology from its schedule.
+     *
+     * @param name a short description, e.g. "4-ary tree"
+     * @param numParties the number of parties
+     * @param rounds for each round, the {sender, receiver} pairs of its messages
+     * @param copyRound the round whose receivers take over the message instead of adding it, or -1
+     * @param allParties true if every party holds the total at the end, false if only party 0 does
+     */
+    private AggregationTopology(String name, int numParties, List<int[][]> rounds, int copyRound,
+                                boolean allParties) {
+        this.name = name;
+        this.numParties = numParties;
+        this.rounds = rounds.toArray(new int[0][][]);
+        this.copyRound = copyRound;
+        this.allParties = allParties;
+    }
+
+    /**
+     * Creates the linear chain used by the ring protocol: each party in turn
+     * adds its vector and passes the partial sum on, ending at party 0.
+     *
+     * @param numParties the number of parties
+     * @return the chain topology
+     */
+    public static AggregationTopology chain(int numParties) {
+        List<int[][]> rounds = new ArrayList<>();
+        for (int party = numParties - 1; party > 0; party--) {
+            rounds.add(new int[][] { { party, party - 1 } });
+        }
+        return new AggregationTopology("chain", numParties, rounds, -1, false);
+    }
+
+    /**
+     * Creates a k-ary tree rooted at party 0, with the parent of party i at
+     * (i - 1) / k. Each level sends to its parents in one round, deepest first.
+     *
+     * @param numParties the number of parties
+     * @param fanIn the number of children per aggregator, at least 2
+     * @return the tree topology
+     */
+    public static AggregationTopology tree(int numParties, int fanIn) {
+        if (fanIn < 2) {
+            throw new IllegalArgumentException("Fan-in must be at least 2: " + fanIn);
+        }
+
+        // Level boundaries of the heap layout
+        List<Integer> levelStarts = new ArrayList<>();
+        long levelStart = 0;
+        long levelSize = 1;
+        while (levelStart < numParties) {
+            levelStarts.add((int) levelStart);
+            levelStart += levelSize;
+            levelSize *= fanIn;
+        }
+
+        List<int[][]> rounds = new ArrayList<>();
+        for (int level = levelStarts.size() - 1; level > 0; level--) {
+            int first = levelStarts.get(level);
+            int last = level + 1 < levelStarts.size() ? levelStarts.get(level + 1) : numParties;
+            int[][] sends = new int[last - first][];
+            for (int party = first; party < last; party++) {
+                sends[party - first] = new int[] { party, (party - 1) / fanIn };
+            }
+            rounds.add(sends);
+        }
+        return new AggregationTopology(fanIn + "-ary tree", numParties, rounds, -1, false);
+    }
+
+    /**
+     * Creates a butterfly (recursive doubling): in round r every party
+     * exchanges partial sums with the party whose index differs in bit r, so
+     * all parties hold the total after log2 rounds. Parties beyond the largest
+     * power of two fold into a partner first and get the total back last.
+     *
+     * @param numParties the number of parties
+     * @return the butterfly topology
+     */
+    public static AggregationTopology butterfly(int numParties) {
+        int core = Integer.highestOneBit(Math.max(numParties, 1));
+        List<int[][]> rounds = new ArrayList<>();
+
+        if (numParties > core) {
+            rounds.add(extraSends(numParties, core, true));
+        }
+        for (int bit = 1; bit < core; bit <<= 1) {
+            int[][] sends = new int[core][];
+            for (int party = 0; party < core; party++) {
+                sends[party] = new int[] { party, party ^ bit };
+            }
+            rounds.add(sends);
+        }
+        // The extra parties take over the total rather than adding it
+        int copyRound = -1;
+        if (numParties > core) {
+            copyRound = rounds.size();
+            rounds.add(extraSends(numParties, core, false));
+        }
+        return new AggregationTopology("butterfly", numParties, rounds, copyRound, true);
+    }
+
+    /**
+     * Builds the round that folds the parties beyond a power of two into the
+     * core, or hands the total back to them.
+     *
+     * @param numParties the number of parties
+     * @param core the largest power of two not above numParties
+     * @param fold true to send from the extra parties, false to send to them
+     * @return the sends of the round
+     */
+    private static int[][] extraSends(int numParties, int core, boolean fold) {
+        int[][] sends = new int[numParties - core][];
+        for (int party = core; party < numParties; party++) {
+            sends[party - core] = fold ? new int[] { party, party - core } : new int[] { party - core, party };
+        }
+        return sends;
+    }
+
+    /**
+     * Recreates a topology from its name, so a schedule chosen by the
+     * coordinator can be passed to the parties as a configuration value.
+     *
+     * @param name the name returned by {@link #getName()}
+     * @param numParties the number of parties
+     * @return the topology
+     * @throws IllegalArgumentException if the name is not one of the known topologies
+     */
+    public static AggregationTopology forName(String name, int numParties) {
+        if (name.equals("chain")) {
+            return chain(numParties);
+        }
+        if (name.equals("butterfly")) {
+            return butterfly(numParties);
+        }
+        if (name.endsWith("-ary tree")) {
+            try {
+                return tree(numParties, Integer.parseInt(name.substring(0, name.length() - "-ary tree".length())));
+            } catch (NumberFormatException e) {
+                // Reported below
+            }
+        }
+        throw new IllegalArgumentException("Unknown aggregation topology: " + name);
+    }
+
+    /**
+     * Picks the topology with the lowest estimated time until every party
+     * holds the total, among the chain, k-ary trees and the butterfly.
+     *
+     * @param numParties the number of parties
+     * @param linkLatencyMillis the measured one-way latency to each party; the slowest link bounds every round
+     * @param transferMillis the time to receive one count vector at a party
+     * @return the chosen topology
+     */
+    public static AggregationTopology choose(int numParties, double[] linkLatencyMillis, double transferMillis) {
+        double latency = 0.0;
+        for (double linkLatency : linkLatencyMillis) {
+            latency = Math.max(latency, linkLatency);
+        }
+
+        List<AggregationTopology> options = new ArrayList<>();
+        options.add(chain(numParties));
+        for (int fanIn = 2; fanIn <= MAX_FAN_IN && fanIn < numParties; fanIn++) {
+            options.add(tree(numParties, fanIn));
+        }
+        options.add(butterfly(numParties));
+
+        // Ties go to the option listed first, which sends fewer messages
+        AggregationTopology best = null;
+        double bestMillis = Double.MAX_VALUE;
+        for (AggregationTopology option : options) {
+            double millis = option.estimateMillis(latency, transferMillis);
+            if (millis < bestMillis) {
+                best = option;
+                bestMillis = millis;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Estimates the time until every party holds the total: every round costs
+     * one link latency plus the transfers of the busiest receiver, whose
+     * incoming vectors are serialized. Topologies that leave the total at
+     * party 0 are charged one more round, in which party 0 sends it to the
+     * other parties.
+     *
+     * @param latencyMillis the one-way link latency
+     * @param transferMillis the time to receive one count vector
+     * @return the estimated time in milliseconds
+     */
+    public double estimateMillis(double latencyMillis, double transferMillis) {
+        double millis = 0.0;
+        int[] received = new int[numParties];
+        for (int[][] sends : rounds) {
+            Arrays.fill(received, 0);
+            int busiest = 0;
+            for (int[] send : sends) {
+                busiest = Math.max(busiest, ++received[send[1]]);
+            }
+            millis += latencyMillis + busiest * transferMillis;
+        }
+        if (!allParties) {
+            millis += latencyMillis + transferMillis;
+        }
+        return millis;
+    }
+
+    /**
+     * Runs the schedule in-process on masked vectors, as the parties would.
+     * Senders forward the partial sum they held at the start of the round;
+     * receivers add it, except in the butterfly's hand-back round.
+     *
+     * @param masked the masked vector of each party; replaced by the partial sums
+     * @param length the number of cells
+     * @return the total, as held by party 0
+     */
+    public long[] aggregate(long[][] masked, int length) {
+        long[][] snapshot = new long[numParties][];
+        for (int round = 0; round < rounds.length; round++) {
+            for (int[] send : rounds[round]) {
+                snapshot[send[0]] = Arrays.copyOf(masked[send[0]], length);
+            }
+            for (int[] send : rounds[round]) {
+                if (round == copyRound) {
+                    System.arraycopy(snapshot[send[0]], 0, masked[send[1]], 0, length);
+                } else {
+                    PairwiseMaskingProtocol.addMasked(masked[send[1]], snapshot[send[0]], length);
+                }
+            }
+        }
+        return masked[0];
+    }
+
+    /**
+     * Gets the description of the topology.
+     *
+     * @return the name, e.g. "butterfly"
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Gets the number of parties.
+     *
+     * @return the number of parties
+     */
+    public int getNumParties() {
+        return numParties;
+    }
+
+    /**
+     * Gets the number of sequential rounds.
+     *
+     * @return the aggregation depth
+     */
+    public int getDepth() {
+        return rounds.length;
+    }
+
+    /**
+     * Gets the total number of messages.
+     *
+     * @return the number of sends over all rounds
+     */
+    public int getNumMessages() {
+        int messages = 0;
+        for (int[][] sends : rounds) {
+            messages += sends.length;
+        }
+        return messages;
+    }
+
+    /**
+     * Gets the messages of one round.
+     *
+     * @param round the round
+     * @return the {sender, receiver} pairs; must not be modified
+     */
+    public int[][] getRound(int round) {
+        return rounds[round];
+    }
+
+    /**
+     * Checks which parties hold the total at the end.
+     *
+     * @return true if every party does, false if only party 0 does
+     */
+    public boolean isTotalAtAllParties() {
+        return allParties;
+    }
+
+    @Override
+    public String toString() {
+        return name + " over " + numParties + " parties (" + getDepth() + " rounds, " +
+               getNumMessages() + " messages)";
+    }
+}
@@ -0,0 +1,441 @@
+package com.distributed.c50.privacy;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Offline/online split for correlated randomness. During the offline phase,
+ * while the node is idle or loading data, a background daemon thread
+ * generates the material of upcoming protocol batches into a bounded ring
+ * buffer backed by a memory-mapped file; during the online tree-building phase
+ * a protocol only reads the material of its current batch out of the buffer.
+ * <p>
+ * A batch is whatever one party needs for one run of a protocol, identified by
+ * its stream number: the keystream expansion a party shares with the dealer,
+ * which holds its share of the masked pairs, one-hot lookups and Beaver triples
+ * of {@link SecureXLogXProtocol} or the masks of {@link SecureScalarProduct};
+ * the pads it shares with a peer in {@link PairwiseMaskingProtocol}; or, at the
+ * dealer, the corrections it sends for a batch. {@link #keystream(byte[])}
+ * covers the keystream cases, and any other material can be supplied by a
+ * {@link BatchGenerator}. Every batch has the same size, which the protocols
+ * report for a given shape.
+ * <p>
+ * Batches are generated for consecutive stream numbers, and the pool
+ * implements {@link KeystreamSource}, so it can stand in for the keystream a
+ * protocol would otherwise expand inline. Batches must be requested in
+ * increasing stream order, as the protocols do; batches skipped over are
+ * discarded. Mapping the pool into a file keeps large pools off the Java heap
+ * and lets the operating system page them out under memory pressure. The
+ * backing file is deleted when the pool is closed, and the pool drops its
+ * mapping; Java has no portable unmap, so the pages are released once the
+ * garbage collector reclaims the buffer. One producer and one consumer thread
+ * use the pool concurrently.
+ */
+public class CorrelatedRandomnessPool implements KeystreamSource, AutoCloseable {
+    /**
+     * Generator of the material of one batch.
+     */
+    public interface BatchGenerator {
+
+        /**
+         * Generates the material of a batch.
+         *
+         * @param stream the batch's stream number
+         * @param material receives the material
+         */
+        void generate(long stream, long[] material);
+    }
+
+    private final File file;
+    private final RandomAccessFile raf;
+    private volatile ByteBuffer buffer;
+    private final int batchWords;
+    private final int capacity;
+    private final long[] slotStreams;
+    private final ReentrantLock lock;
+    private final Condition notEmpty;
+    private final Condition notFull;
+    private final Thread producer;
+    private int head;
+    private int available;
+    private int current;
+    private int position;
+    private long nextStream;
+    private long produced;
+    private long consumed;
+    private long discarded;
+    private volatile boolean closed;
+
+    /**
+     * Creates a new pool backed by a file and starts the offline phase.
+     *
+     * @param file the backing file; created or overwritten, and deleted on close
+     * @param batchWords the number of 64-bit words of material per batch
+     * @param capacityBatches the number of batches the pool holds
+     * @param firstStream the stream number of the first batch
+     * @param generator the generator of the material; used by the background thread only
+     * @throws IOException if the file cannot be mapped
+     * @throws IllegalArgumentException if a size is not positive or the pool exceeds one mapping
+     */
+    public CorrelatedRandomnessPool(File file, int batchWords, int capacityBatches, long firstStream,
+                                    BatchGenerator generator) throws IOException {
+        if (batchWords <= 0 || capacityBatches <= 0 ||
+            (long) batchWords * capacityBatches > Integer.MAX_VALUE / Long.BYTES) {
+            throw new IllegalArgumentException("Invalid pool size: " + capacityBatches +
+                " batches of " + batchWords + " words");
+        }
+        this.file = file;
+        this.batchWords = batchWords;
+        this.capacity = capacityBatches;
+        this.slotStreams = new long[capacityBatches];
+        this.current = -1;
+        this.nextStream = firstStream;
+        this.raf = new RandomAccessFile(file, "rw");
+        this.buffer = raf.getChannel()
+            .map(FileChannel.MapMode.READ_WRITE, 0, (long) batchWords * capacityBatches * Long.BYTES);
+        this.lock = new ReentrantLock();
+        this.notEmpty = lock.newCondition();
+        this.notFull = lock.newCondition();
+
+        this.producer = new Thread(() -> produce(generator, firstStream), "correlated-randomness");
+        this.producer.setDaemon(true);
+        this.producer.start();
+    }
+
+    /**
+     * Creates a new pool backed by a temporary file and starts the offline phase.
+     *
+     * @param batchWords the number of 64-bit words of material per batch
+     * @param capacityBatches the number of batches the pool holds
+     * @param firstStream the stream number of the first batch
+     * @param generator the generator of the material; used by the background thread only
+     * @return the pool
+     * @throws IOException if the file cannot be created or mapped
+     */
+    public static CorrelatedRandomnessPool createTemporary(int batchWords, int capacityBatches, long firstStream,
+                                                           BatchGenerator generator) throws IOException {
+        File file = File.createTempFile("correlated-randomness", ".pool");
+        file.deleteOnExit();
+        return new CorrelatedRandomnessPool(file, batchWords, capacityBatches, firstStream, generator);
+    }
+
+    /**
+     * Gets a generator expanding each batch from the start of its stream of
+     * a keystream, as {@link KeystreamMaskGenerator} does under the same key.
+     *
+     * @param key the AES key shared with the dealer or peer
+     * @return the batch generator
+     */
+    public static BatchGenerator keystream(byte[] key) {
+        KeystreamMaskGenerator generator = new KeystreamMaskGenerator(key, 0L);
+        return (stream, material) -> {
+            generator.restart(stream);
+            generator.fill(material, 0, material.length);
+        };
+    }
+
+    /**
+     * Generates batches into free slots until the pool is closed.
+     *
+     * @param generator the generator of the material
+     * @param firstStream the stream number of the first batch
+     */
+    private void produce(BatchGenerator generator, long firstStream) {
+        long[] material = new long[batchWords];
+        try {
+            for (long stream = firstStream; !closed; stream++) {
+                // Step 1: Wait for a free slot; the slot being read is not free
+                int tail;
+                lock.lock();
+                try {
+                    while (available + (current >= 0 ? 1 : 0) == capacity && !closed) {
+                        notFull.await();
+                    }
+                    if (closed) {
+                        return;
+                    }
+                    tail = (head + available) % capacity;
+                } finally {
+                    lock.unlock();
+                }
+
+                // Step 2: Generate outside the lock; only this thread writes free slots
+                generator.generate(stream, material);
+                LongBuffer view = slot(tail).asLongBuffer();
+                view.put(material);
+
+                // Step 3: Publish the batch
+                lock.lock();
+                try {
+                    slotStreams[tail] = stream;
+                    available++;
+                    produced++;
+                    notEmpty.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        } catch (InterruptedException e) {
+            // Closed
+        }
+    }
+
+    /**
+     * Switches to the material of a batch, releasing the previous one and
+     * discarding any batches skipped over, or rewinds the current batch. Waits
+     * for the producer only if the batch has not been generated yet.
+     *
+     * @param stream the batch's stream number
+     * @throws IllegalStateException if the batch has already been passed, the pool is closed,
+     *                               or the thread is interrupted while waiting
+     */
+    @Override
+    public void restart(long stream) {
+        lock.lock();
+        try {
+            if (closed) {
+                throw new IllegalStateException("Correlated randomness pool is closed");
+            }
+
+            // A protocol may read its current batch more than once
+            if (current >= 0 && slotStreams[current] == stream) {
+                position = 0;
+                return;
+            }
+            if (stream < nextStream) {
+                throw new IllegalStateException("Batch " + stream + " has already been consumed or skipped");
+            }
+            release();
+
+            while (true) {
+                // Step 1: Discard the batches before the requested one
+                while (available > 0 && slotStreams[head] < stream) {
+                    head = (head + 1) % capacity;
+                    available--;
+                    discarded++;
+                    notFull.signalAll();
+                }
+
+                // Step 2: Take the batch once it is ready
+                if (available > 0) {
+                    current = head;
+                    position = 0;
+                    head = (head + 1) % capacity;
+                    available--;
+                    consumed++;
+                    nextStream = stream + 1;
+                    return;
+                }
+                if (closed) {
+                    throw new IllegalStateException("Correlated randomness pool is closed");
+                }
+                notEmpty.await();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for correlated randomness", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reads the next 64-bit words of the current batch.
+     *
+     * @param masks the array to fill
+     * @param offset the first position to fill
+     * @param length the number of words
+     * @throws IllegalStateException if no batch is current or the read runs past its end
+     */
+    @Override
+    public void fill(long[] masks, int offset, int length) {
+        ByteBuffer view = read(length * Long.BYTES);
+        view.asLongBuffer().get(masks, offset, length);
+    }
+
+    /**
+     * Reads the next 32-bit words of the current batch.
+     *
+     * @param masks the array to fill
+     * @param offset the first position to fill
+     * @param length the number of words
+     * @throws IllegalStateException if no batch is current or the read runs past its end
+     */
+    @Override
+    public void fill(int[] masks, int offset, int length) {
+        ByteBuffer view = read(length * Integer.BYTES);
+        view.asIntBuffer().get(masks, offset, length);
+    }
+
+    /**
+     * Advances the read position within the current batch.
+     *
+     * @param numBytes the number of bytes to read
+     * @return a view of the bytes
+     * @throws IllegalStateException if no batch is current or the read runs past its end
+     */
+    private ByteBuffer read(int numBytes) {
+        if (current < 0) {
+            throw new IllegalStateException("No batch has been started");
+        }
+        if (numBytes > batchWords * Long.BYTES - position) {
+            throw new IllegalStateException("Read of " + numBytes + " bytes exceeds the batch material");
+        }
+
+        ByteBuffer view = slot(current);
+        view.position(position).limit(position + numBytes);
+        position += numBytes;
+        return view.slice();
+    }
+
+    /**
+     * Gets a view of one slot of the ring buffer.
+     *
+     * @param index the slot index
+     * @return a big-endian view of the slot, matching the byte order of the keystream
+     * @throws IllegalStateException if the pool is closed
+     */
+    private ByteBuffer slot(int index) {
+        ByteBuffer mapped = buffer;
+        if (mapped == null) {
+            throw new IllegalStateException("Correlated randomness pool is closed");
+        }
+        ByteBuffer view = mapped.duplicate();
+        int start = index * batchWords * Long.BYTES;
+        view.position(start).limit(start + batchWords * Long.BYTES);
+        return view.slice();
+    }
+
+    /**
+     * Hands the current batch's slot back to the producer. Must be called
+     * with the lock held.
+     */
+    private void release() {
+        if (current >= 0) {
+            current = -1;
+            notFull.signalAll();
+        }
+    }
+
+    /**
+     * Gets the number of 64-bit words of material per batch.
+     *
+     * @return the batch size in words
+     */
+    public int getBatchWords() {
+        return batchWords;
+    }
+
+    /**
+     * Gets the number of precomputed batches ready for the online phase.
+     *
+     * @return the number of available batches
+     */
+    public int getAvailableBatches() {
+        lock.lock();
+        try {
+            return available;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the capacity of the pool.
+     *
+     * @return the number of batches the pool holds
+     */
+    public int getCapacityBatches() {
+        return capacity;
+    }
+
+    /**
+     * Gets the total number of batches generated so far.
+     *
+     * @return the number of produced batches
+     */
+    public long getProducedBatches() {
+        lock.lock();
+        try {
+            return produced;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the total number of batches consumed so far.
+     *
+     * @return the number of consumed batches
+     */
+    public long getConsumedBatches() {
+        lock.lock();
+        try {
+            return consumed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the total number of batches discarded because a later batch was requested.
+     *
+     * @return the number of discarded batches
+     */
+    public long getDiscardedBatches() {
+        lock.lock();
+        try {
+            return discarded;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops the offline phase, drops the mapping, and releases and deletes the
+     * file. Closing a closed pool has no effect.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        producer.interrupt();
+        lock.lock();
+        try {
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+
+        try {
+            producer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        // No references to the mapping remain, so the collector can unmap it
+        lock.lock();
+        try {
+            buffer = null;
+            available = 0;
+            current = -1;
+        } finally {
+            lock.unlock();
+        }
+
+        try {
+            raf.close();
+        } catch (IOException e) {
+            System.err.println("Error closing correlated randomness pool: " + e.getMessage());
+        }
+        file.delete();
+    }
+}
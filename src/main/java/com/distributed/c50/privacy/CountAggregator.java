@@ -0,0 +1,17 @@
+package com.distributed.c50.privacy;
+
+/**
+ * Strategy for turning local count tensors into global count tensors.
+ * Each call is one aggregation round across all parties; the tensors of
+ * many tree nodes may be concatenated into a single call.
+ */
+public interface CountAggregator {
+    
+    /**
+     * Replaces the local counts in counts[0, length) by the sums over all parties.
+     * 
+     * @param counts the flat count buffer, overwritten in place
+     * @param length the number of cells to aggregate
+     */
+    void aggregate(int[] counts, int length);
+}
@@ -0,0 +1,173 @@
+package com.distributed.c50.privacy;
+
+import java.io.Serializable;
+
+/**
+ * Dense payload of a secure count exchange: a batch of attribute x class
+ * count matrices carried as one flat array of masked partial sums behind a
+ * small shape header. Cell (m, i, j) lives at
+ * {@code (m * numRows + i) * numColumns + j}, so a whole batch is masked,
+ * passed on and unmasked without any per-cell keys.
+ * <p>
+ * Every matrix has the same number of rows. The fused count buffers of the
+ * tree builder are laid out differently: each attribute's matrix starts at its
+ * own offset and has as many rows as the attribute has values. Such a buffer
+ * is carried either as one tensor per attribute, or as one tensor whose
+ * {@code numRows} is the largest value count, with the shorter matrices padded
+ * by zero rows; the padding cells are masked like any other and dropped again
+ * after unmasking.
+ */
+public class CountTensor implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final int numMatrices;
+    private final int numRows;
+    private final int numColumns;
+    private final long[] partialSums;
+    private int round;
+
+    /**
+     * Creates a new count tensor with all partial sums set to zero.
+     *
+     * @param numMatrices the number of count matrices in the batch
+     * @param numRows the number of rows of each matrix (attribute values)
+     * @param numColumns the number of columns of each matrix (class values)
+     * @throws IllegalArgumentException if a dimension is negative or the tensor is too large
+     */
+    public CountTensor(int numMatrices, int numRows, int numColumns) {
+        if (numMatrices < 0 || numRows < 0 || numColumns < 0) {
+            throw new IllegalArgumentException("Tensor dimensions must not be negative: " +
+                numMatrices + "x" + numRows + "x" + numColumns);
+        }
+        this.numMatrices = numMatrices;
+        this.numRows = numRows;
+        this.numColumns = numColumns;
+        this.partialSums = new long[cellCount(numMatrices, numRows, numColumns)];
+    }
+
+    /**
+     * Creates a count tensor around received partial sums.
+     *
+     * @param numMatrices the number of count matrices in the batch
+     * @param numRows the number of rows of each matrix (attribute values)
+     * @param numColumns the number of columns of each matrix (class values)
+     * @param partialSums the flat array of masked partial sums; shared, not copied
+     * @param round the number of parties that have added their counts
+     * @throws IllegalArgumentException if the array does not match the dimensions
+     */
+    public CountTensor(int numMatrices, int numRows, int numColumns, long[] partialSums, int round) {
+        if (numMatrices < 0 || numRows < 0 || numColumns < 0 ||
+            cellCount(numMatrices, numRows, numColumns) != partialSums.length) {
+            throw new IllegalArgumentException("Tensor dimensions " + numMatrices + "x" + numRows + "x" +
+                numColumns + " do not match " + partialSums.length + " cells");
+        }
+        this.numMatrices = numMatrices;
+        this.numRows = numRows;
+        this.numColumns = numColumns;
+        this.partialSums = partialSums;
+        this.round = round;
+    }
+
+    /**
+     * Computes the number of cells of a tensor.
+     *
+     * @param numMatrices the number of count matrices, not negative
+     * @param numRows the number of rows of each matrix, not negative
+     * @param numColumns the number of columns of each matrix, not negative
+     * @return the number of cells
+     * @throws IllegalArgumentException if the tensor has more cells than an array can hold
+     */
+    private static int cellCount(int numMatrices, int numRows, int numColumns) {
+        try {
+            long length = Math.multiplyExact(Math.multiplyExact((long) numMatrices, numRows), numColumns);
+            return Math.toIntExact(length);
+        } catch (ArithmeticException e) {
+            throw new IllegalArgumentException("Tensor has too many cells: " +
+                numMatrices + "x" + numRows + "x" + numColumns);
+        }
+    }
+
+    /**
+     * Gets the number of count matrices in the batch.
+     *
+     * @return the number of matrices
+     */
+    public int getNumMatrices() {
+        return numMatrices;
+    }
+
+    /**
+     * Gets the number of rows of each matrix.
+     *
+     * @return the number of rows
+     */
+    public int getNumRows() {
+        return numRows;
+    }
+
+    /**
+     * Gets the number of columns of each matrix.
+     *
+     * @return the number of columns
+     */
+    public int getNumColumns() {
+        return numColumns;
+    }
+
+    /**
+     * Gets the total number of cells.
+     *
+     * @return numMatrices * numRows * numColumns
+     */
+    public int getLength() {
+        return partialSums.length;
+    }
+
+    /**
+     * Gets the offset of a matrix in the flat layout.
+     *
+     * @param matrix the matrix index
+     * @return the position of the matrix's first cell
+     */
+    public int offsetOf(int matrix) {
+        return matrix * numRows * numColumns;
+    }
+
+    /**
+     * Gets the flat array of masked partial sums. The array is shared, not copied.
+     *
+     * @return the partial sums
+     */
+    public long[] getPartialSums() {
+        return partialSums;
+    }
+
+    /**
+     * Gets the number of parties that have added their counts so far.
+     *
+     * @return the current round
+     */
+    public int getRound() {
+        return round;
+    }
+
+    /**
+     * Records that one more party has added its counts.
+     */
+    void advanceRound() {
+        round++;
+    }
+
+    /**
+     * Checks if every party has added its counts. As in
+     * {@link SecureSumProtocol.SecureSumState#isComplete(int)}, the initiator
+     * counts as a round of its own, so the tensor is complete once it has
+     * passed through the initiator and all the other parties.
+     *
+     * @param numParties the number of parties besides the initiator
+     * @return true if all rounds are complete, false otherwise
+     */
+    public boolean isComplete(int numParties) {
+        return round > numParties;
+    }
+}
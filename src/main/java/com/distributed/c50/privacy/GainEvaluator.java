@@ -0,0 +1,150 @@
+package com.distributed.c50.privacy;
+
+/**
+ * Fused evaluator for information gain, split information and gain ratio.
+ * All entropies are rewritten in terms of n log2 n over integer counts, e.g.
+ * H(class) = (S log2 T - sum_j c_j log2 c_j) / T, so a single pass over a
+ * count matrix yields every quantity, and n log2 n comes from a precomputed
+ * table for all but very large counts. Instances reuse their scratch space and
+ * are therefore not thread-safe; each thread needs its own evaluator.
+ */
+public class GainEvaluator {
+    /**
+     * Number of entries of the n log2 n table; larger counts are computed directly.
+     */
+    public static final int TABLE_SIZE = 1 << 16;
+
+    private static final double INV_LN_2 = 1.0 / Math.log(2);
+
+    private static final double[] N_LOG2_N = new double[TABLE_SIZE];
+
+    static {
+        for (int n = 1; n < TABLE_SIZE; n++) {
+            N_LOG2_N[n] = n * Math.log(n) * INV_LN_2;
+        }
+    }
+
+    private int[] classTotals;
+    private double informationGain;
+    private double splitInfo;
+    private double gainRatio;
+
+    /**
+     * Creates a new evaluator.
+     *
+     * @param numClassValues the expected number of class values; more are handled by growing
+     */
+    public GainEvaluator(int numClassValues) {
+        this.classTotals = new int[Math.max(numClassValues, 1)];
+    }
+
+    /**
+     * Computes n log2 n, with 0 log2 0 = 0.
+     *
+     * @param n the count; counts below 1 contribute nothing
+     * @return n log2 n
+     */
+    public static double nLog2n(int n) {
+        if (n < TABLE_SIZE) {
+            return n > 0 ? N_LOG2_N[n] : 0.0;
+        }
+        return n * Math.log(n) * INV_LN_2;
+    }
+
+    /**
+     * Computes log2 n for a positive count.
+     *
+     * @param n the count, at least 1
+     * @return log2 n
+     */
+    public static double log2(int n) {
+        return nLog2n(n) / n;
+    }
+
+    /**
+     * Evaluates a split from its global count matrix stored row-major in a flat buffer.
+     * Instances that are not in the matrix, such as those with a missing value,
+     * still count towards totalInstances.
+     *
+     * @param globalCounts the flat count buffer
+     * @param offset the offset of the matrix in the buffer
+     * @param numAttributeValues the number of distinct attribute values (matrix rows)
+     * @param numClassValues the number of distinct class values (matrix columns)
+     * @param totalInstances the total number of instances
+     */
+    public void evaluate(int[] globalCounts, int offset, int numAttributeValues,
+                         int numClassValues, int totalInstances) {
+        if (totalInstances == 0) {
+            informationGain = 0.0;
+            splitInfo = 0.0;
+            gainRatio = 0.0;
+            return;
+        }
+
+        if (classTotals.length < numClassValues) {
+            classTotals = new int[numClassValues];
+        }
+        for (int j = 0; j < numClassValues; j++) {
+            classTotals[j] = 0;
+        }
+
+        // One pass: cell terms, attribute-value terms and class totals
+        double cellSum = 0.0;
+        double rowSum = 0.0;
+        int countedInstances = 0;
+        for (int i = 0; i < numAttributeValues; i++) {
+            int row = offset + i * numClassValues;
+            int attributeTotal = 0;
+            for (int j = 0; j < numClassValues; j++) {
+                int count = globalCounts[row + j];
+                cellSum += nLog2n(count);
+                classTotals[j] += count;
+                attributeTotal += count;
+            }
+            rowSum += nLog2n(attributeTotal);
+            countedInstances += attributeTotal;
+        }
+
+        double classSum = 0.0;
+        for (int j = 0; j < numClassValues; j++) {
+            classSum += nLog2n(classTotals[j]);
+        }
+
+        // Every entropy shares the counted instances' S log2 T term
+        double countedTerm = countedInstances * (nLog2n(totalInstances) / totalInstances);
+        double classEntropy = (countedTerm - classSum) / totalInstances;
+        double conditionalEntropy = (rowSum - cellSum) / totalInstances;
+        informationGain = classEntropy - conditionalEntropy;
+        splitInfo = (countedTerm - rowSum) / totalInstances;
+
+        // Avoid division by zero
+        gainRatio = splitInfo < 1e-10 ? 0.0 : informationGain / splitInfo;
+    }
+
+    /**
+     * Gets the information gain of the last evaluation.
+     *
+     * @return the information gain
+     */
+    public double getInformationGain() {
+        return informationGain;
+    }
+
+    /**
+     * Gets the split information of the last evaluation.
+     *
+     * @return the split information
+     */
+    public double getSplitInfo() {
+        return splitInfo;
+    }
+
+    /**
+     * Gets the gain ratio of the last evaluation.
+     *
+     * @return the gain ratio
+     */
+    public double getGainRatio() {
+        return gainRatio;
+    }
+}
@@ -0,0 +1,109 @@
+package com.distributed.c50.privacy;
+
+/**
+ * Bit-packed set of indicator vectors over the rows of a dataset.
+ * Vector v has bit r set if row r has the property v stands for, e.g.
+ * "row r reaches frontier node k and has value j of the attribute". Each
+ * vector takes one bit per row, so a batch over all attribute values of all
+ * frontier nodes stays small, and dot products with it visit set bits only.
+ */
+public class IndicatorMatrix {
+    private final int numVectors;
+    private final int numRows;
+    private final int wordsPerVector;
+    private final long[] words;
+
+    /**
+     * Creates a new indicator matrix with every bit cleared.
+     *
+     * @param numVectors the number of indicator vectors
+     * @param numRows the number of rows each vector covers
+     */
+    public IndicatorMatrix(int numVectors, int numRows) {
+        this.numVectors = numVectors;
+        this.numRows = numRows;
+        this.wordsPerVector = (numRows + Long.SIZE - 1) / Long.SIZE;
+        this.words = new long[numVectors * wordsPerVector];
+    }
+
+    /**
+     * Builds the indicators of every (node, value) pair of an attribute.
+     * Vector node * numValues + value marks the rows of the node with the value.
+     *
+     * @param codes the attribute's value code per row; negative codes mark missing values
+     * @param numValues the number of distinct attribute values
+     * @param nodeOfRow the frontier node of each row, or -1 if the row reaches none
+     * @param numNodes the number of frontier nodes
+     * @return the indicator matrix with numNodes * numValues vectors
+     */
+    public static IndicatorMatrix ofNodeValues(int[] codes, int numValues, int[] nodeOfRow, int numNodes) {
+        IndicatorMatrix matrix = new IndicatorMatrix(numNodes * numValues, codes.length);
+        for (int row = 0; row < codes.length; row++) {
+            int node = nodeOfRow[row];
+            int code = codes[row];
+            if (node >= 0 && code >= 0 && code < numValues) {
+                matrix.set(node * numValues + code, row);
+            }
+        }
+        return matrix;
+    }
+
+    /**
+     * Sets the bit of a row in a vector.
+     *
+     * @param vector the vector index
+     * @param row the row
+     */
+    public void set(int vector, int row) {
+        words[vector * wordsPerVector + (row >>> 6)] |= 1L << row;
+    }
+
+    /**
+     * Checks the bit of a row in a vector.
+     *
+     * @param vector the vector index
+     * @param row the row
+     * @return true if the bit is set, false otherwise
+     */
+    public boolean get(int vector, int row) {
+        return (words[vector * wordsPerVector + (row >>> 6)] & (1L << row)) != 0;
+    }
+
+    /**
+     * Gets the number of indicator vectors.
+     *
+     * @return the number of vectors
+     */
+    public int getNumVectors() {
+        return numVectors;
+    }
+
+    /**
+     * Gets the number of rows each vector covers.
+     *
+     * @return the number of rows
+     */
+    public int getNumRows() {
+        return numRows;
+    }
+
+    /**
+     * Gets the number of 64-bit words per vector.
+     *
+     * @return the number of words
+     */
+    public int getWordsPerVector() {
+        return wordsPerVector;
+    }
+
+    /**
+     * Gets the packed bits; vector v occupies words [v * wordsPerVector,
+     * (v + 1) * wordsPerVector), row r being bit r % 64 of word r / 64.
+     * The array is shared, not copied.
+     *
+     * @return the packed bits
+     */
+    public long[] getWords() {
+        return words;
+    }
+}
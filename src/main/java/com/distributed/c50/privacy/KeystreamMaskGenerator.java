@@ -0,0 +1,165 @@
+package com.distributed.c50.privacy;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Cryptographically secure generator of 64-bit masks based on an AES-CTR
+ * keystream. The key is drawn from {@link SecureRandom} once, after which each
+ * mask costs half an AES block instead of a SecureRandom call. Masks are
+ * written in whole blocks into caller-supplied arrays, and the internal byte
+ * buffers are reused, so steady-state generation allocates nothing.
+ * <p>
+ * A keystream is identified by its key and a 64-bit stream number that forms
+ * the upper half of the counter block; {@link #restart(long)} switches to
+ * another stream under the same key. Instances are not thread-safe.
+ */
+public class KeystreamMaskGenerator implements KeystreamSource {
+    /**
+     * Length of the AES key in bytes.
+     */
+    public static final int KEY_BYTES = 16;
+
+    private final Cipher cipher;
+    private final SecretKeySpec key;
+    private byte[] zeroBytes;
+    private byte[] maskBytes;
+
+    /**
+     * Creates a new generator under a fresh random key and stream.
+     *
+     * @param random the source of the key and stream number
+     */
+    public KeystreamMaskGenerator(SecureRandom random) {
+        this(randomKey(random), random.nextLong());
+    }
+
+    /**
+     * Creates a new generator for a given key and stream.
+     *
+     * @param key the AES key, {@link #KEY_BYTES} long
+     * @param stream the stream number
+     * @throws IllegalArgumentException if the key has the wrong length
+     */
+    public KeystreamMaskGenerator(byte[] key, long stream) {
+        if (key.length != KEY_BYTES) {
+            throw new IllegalArgumentException("Key must be " + KEY_BYTES + " bytes: " + key.length);
+        }
+        this.key = new SecretKeySpec(key, "AES");
+        this.zeroBytes = new byte[0];
+        this.maskBytes = new byte[0];
+
+        try {
+            this.cipher = Cipher.getInstance("AES/CTR/NoPadding");
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("AES-CTR is not available", e);
+        }
+        restart(stream);
+    }
+
+    /**
+     * Draws a random AES key.
+     *
+     * @param random the source of randomness
+     * @return the key bytes
+     */
+    private static byte[] randomKey(SecureRandom random) {
+        byte[] key = new byte[KEY_BYTES];
+        random.nextBytes(key);
+        return key;
+    }
+
+    /**
+     * Restarts generation at the beginning of another stream under the same key.
+     *
+     * @param stream the stream number
+     */
+    @Override
+    public void restart(long stream) {
+        restart(stream, 0L);
+    }
+
+    /**
+     * Restarts generation within another stream under the same key, skipping
+     * the masks before an offset without generating them.
+     *
+     * @param stream the stream number
+     * @param offset the number of 64-bit masks to skip
+     */
+    public void restart(long stream, long offset) {
+        // Each AES block holds two masks
+        byte[] iv = ByteBuffer.allocate(16).putLong(stream).putLong(offset / 2).array();
+        try {
+            cipher.init(Cipher.ENCRYPT_MODE, key, new IvParameterSpec(iv));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Failed to initialize the keystream", e);
+        }
+        if (offset % 2 != 0) {
+            fill(new long[1], 0, 1);
+        }
+    }
+
+    /**
+     * Fills part of an array with uniformly random 64-bit masks.
+     *
+     * @param masks the array to fill
+     * @param offset the first position to fill
+     * @param length the number of masks
+     */
+    @Override
+    public void fill(long[] masks, int offset, int length) {
+        int numBytes = length * Long.BYTES;
+        if (maskBytes.length < numBytes) {
+            zeroBytes = new byte[numBytes];
+            maskBytes = new byte[numBytes];
+        }
+
+        // Encrypting zeros yields the raw keystream
+        try {
+            cipher.update(zeroBytes, 0, numBytes, maskBytes, 0);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Failed to generate masks", e);
+        }
+
+        for (int i = 0; i < length; i++) {
+            long mask = 0;
+            for (int b = 0; b < Long.BYTES; b++) {
+                mask = (mask << 8) | (maskBytes[i * Long.BYTES + b] & 0xFF);
+            }
+            masks[offset + i] = mask;
+        }
+    }
+
+    /**
+     * Fills part of an array with uniformly random 32-bit masks, for
+     * arithmetic modulo 2^32.
+     *
+     * @param masks the array to fill
+     * @param offset the first position to fill
+     * @param length the number of masks
+     */
+    @Override
+    public void fill(int[] masks, int offset, int length) {
+        int numBytes = length * Integer.BYTES;
+        if (maskBytes.length < numBytes) {
+            zeroBytes = new byte[numBytes];
+            maskBytes = new byte[numBytes];
+        }
+
+        try {
+            cipher.update(zeroBytes, 0, numBytes, maskBytes, 0);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Failed to generate masks", e);
+        }
+
+        for (int i = 0; i < length; i++) {
+            int b = i * Integer.BYTES;
+            masks[offset + i] = (maskBytes[b] & 0xFF) << 24 | (maskBytes[b + 1] & 0xFF) << 16 |
+                                (maskBytes[b + 2] & 0xFF) << 8 | (maskBytes[b + 3] & 0xFF);
+        }
+    }
+}
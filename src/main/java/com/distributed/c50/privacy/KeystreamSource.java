@@ -0,0 +1,27 @@
+package com.distributed.c50.privacy;
+
+/**
+ * Source of the keystream material a party shares with the dealer or with a
+ * peer, organized in batches identified by stream numbers. The material of a
+ * batch is read front to back after {@link #restart(long)}, whether it is
+ * expanded on demand or was precomputed offline.
+ */
+public interface KeystreamSource extends MaskSource {
+    
+    /**
+     * Restarts reading at the beginning of a batch.
+     * 
+     * @param stream the batch's stream number
+     */
+    void restart(long stream);
+    
+    /**
+     * Fills part of an array with uniformly random 32-bit masks, for
+     * arithmetic modulo 2^32.
+     * 
+     * @param masks the array to fill
+     * @param offset the first position to fill
+     * @param length the number of masks
+     */
+    void fill(int[] masks, int offset, int length);
+}
@@ -0,0 +1,150 @@
+package com.distributed.c50.privacy;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Bounded pool of precomputed mask blocks. A background daemon thread keeps
+ * up to a fixed number of blocks filled from a {@link KeystreamMaskGenerator},
+ * so masks for the next tree level are ready before its counts are, and mask
+ * generation stays off the critical path of a split. Blocks are recycled
+ * once consumed, so the pool allocates nothing after construction.
+ * <p>
+ * The generator is used by the background thread only. {@link #fill} may be
+ * called by one consumer thread at a time. Blocks filled before the pool was
+ * closed are still handed out; after that {@link #fill} fails.
+ */
+public class MaskPool implements MaskSource, AutoCloseable {
+    /**
+     * Marker queued behind the last ready block once the pool is closed.
+     */
+    private static final long[] CLOSED = new long[0];
+
+    private final BlockingQueue<long[]> readyBlocks;
+    private final BlockingQueue<long[]> freeBlocks;
+    private final Thread producer;
+    private long[] currentBlock;
+    private int position;
+    private volatile boolean closed;
+
+    /**
+     * Creates a new mask pool and starts its background thread.
+     *
+     * @param generator the generator to draw masks from; must not be used elsewhere
+     * @param blockSize the number of masks per block
+     * @param capacity the maximum number of filled blocks kept ready
+     * @throws IllegalArgumentException if the block size or capacity is not positive
+     */
+    public MaskPool(KeystreamMaskGenerator generator, int blockSize, int capacity) {
+        if (blockSize <= 0 || capacity <= 0) {
+            throw new IllegalArgumentException("Block size and capacity must be positive: " +
+                blockSize + ", " + capacity);
+        }
+        // One extra slot so the closed marker always fits behind the ready blocks
+        this.readyBlocks = new ArrayBlockingQueue<>(capacity + 1);
+        this.freeBlocks = new ArrayBlockingQueue<>(capacity);
+        for (int i = 0; i < capacity; i++) {
+            freeBlocks.add(new long[blockSize]);
+        }
+
+        // The consumer's current block starts out spent
+        this.currentBlock = new long[blockSize];
+        this.position = blockSize;
+
+        this.producer = new Thread(() -> produce(generator), "mask-pool");
+        this.producer.setDaemon(true);
+        this.producer.start();
+    }
+
+    /**
+     * Refills free blocks until the pool is closed.
+     *
+     * @param generator the generator to draw masks from
+     */
+    private void produce(KeystreamMaskGenerator generator) {
+        try {
+            while (true) {
+                long[] block = freeBlocks.take();
+                generator.fill(block, 0, block.length);
+                readyBlocks.put(block);
+            }
+        } catch (InterruptedException e) {
+            // Closed
+        }
+    }
+
+    /**
+     * Fills part of an array with masks from the pool, waiting for the
+     * background thread only if every ready block has been consumed.
+     *
+     * @param masks the array to fill
+     * @param offset the first position to fill
+     * @param length the number of masks
+     * @throws IllegalStateException if the pool is closed and empty, or if interrupted while waiting
+     */
+    @Override
+    public void fill(long[] masks, int offset, int length) {
+        while (length > 0) {
+            if (position == currentBlock.length) {
+                nextBlock();
+            }
+            int n = Math.min(length, currentBlock.length - position);
+            System.arraycopy(currentBlock, position, masks, offset, n);
+            position += n;
+            offset += n;
+            length -= n;
+        }
+    }
+
+    /**
+     * Hands the spent block back to the producer and takes the next ready one.
+     *
+     * @throws IllegalStateException if the pool is closed and empty, or if interrupted while waiting
+     */
+    private void nextBlock() {
+        try {
+            long[] block = readyBlocks.take();
+            if (block == CLOSED) {
+                // Leave the marker for later calls
+                readyBlocks.put(CLOSED);
+                throw new IllegalStateException("Mask pool is closed");
+            }
+            freeBlocks.put(currentBlock);
+            currentBlock = block;
+            position = 0;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for masks", e);
+        }
+    }
+
+    /**
+     * Gets the number of filled blocks currently waiting in the pool.
+     *
+     * @return the number of ready blocks
+     */
+    public int getReadyBlocks() {
+        int size = readyBlocks.size();
+        return readyBlocks.contains(CLOSED) ? size - 1 : size;
+    }
+
+    /**
+     * Stops the background thread and wakes a consumer waiting for a block.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        producer.interrupt();
+        try {
+            producer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        // The producer has stopped, so the marker lands behind the last ready block
+        readyBlocks.offer(CLOSED);
+    }
+}
@@ -0,0 +1,17 @@
+package com.distributed.c50.privacy;
+
+/**
+ * Source of uniformly random 64-bit masks, whether generated on demand or
+ * taken from precomputed material.
+ */
+public interface MaskSource {
+    
+    /**
+     * Fills part of an array with uniformly random 64-bit masks.
+     * 
+     * @param masks the array to fill
+     * @param offset the first position to fill
+     * @param length the number of masks
+     */
+    void fill(long[] masks, int offset, int length);
+}
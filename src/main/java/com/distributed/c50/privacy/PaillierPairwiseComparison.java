@@ -0,0 +1,89 @@
+package com.distributed.c50.privacy;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+/**
+ * In-process transport for the secure comparisons of {@link SecureArgmaxProtocol},
+ * for builds in which every party is simulated in one process. Each role
+ * computes its message only from its own inputs and the messages addressed to
+ * it: the parties see the coordinator's public key and the other party's
+ * ciphertexts, and the coordinator's private key only decides the blinded
+ * terms. The messages are passed in memory, so the comparisons cost exactly
+ * the cryptography of a networked run.
+ * <p>
+ * Party state is reset by each tournament's {@link #setLocalBest} calls.
+ * Instances are not thread-safe.
+ */
+public class PaillierPairwiseComparison implements PairwiseComparison, AutoCloseable {
+    private final PaillierPrivateKey coordinatorKey;
+    private final PaillierRandomnessPool randomnessPool;
+    private final SecureRandom random;
+    private double[] localBest;
+    private long comparisons;
+
+    /**
+     * Creates a new transport with a fresh coordinator key.
+     *
+     * @param numParties the number of parties
+     * @param modulusBits the size of the Paillier modulus in bits
+     */
+    public PaillierPairwiseComparison(int numParties, int modulusBits) {
+        this.random = new SecureRandom();
+        this.coordinatorKey = PaillierPrivateKey.generate(modulusBits, random);
+        this.randomnessPool = new PaillierRandomnessPool(coordinatorKey.getPublicKey(),
+            2 * SecureArgmaxProtocol.ENCODED_BITS, 1);
+        this.localBest = new double[numParties];
+        Arrays.fill(localBest, Double.NaN);
+    }
+
+    /**
+     * Hands a party's local best gain ratio to the party's end of the transport.
+     *
+     * @param party the index of the party
+     * @param gainRatio the local best gain ratio, or NaN if the party has no candidate
+     */
+    @Override
+    public void setLocalBest(int party, double gainRatio) {
+        localBest[party] = gainRatio;
+    }
+
+    /**
+     * Runs one comparison: the second party encrypts its bits for the first,
+     * the first blinds the comparison terms for the coordinator, and the
+     * coordinator decides.
+     *
+     * @param first the index of the first party
+     * @param second the index of the second party
+     * @param comparisonId the identifier of this comparison
+     * @return true if the first party's value is at least the second party's, false otherwise
+     */
+    @Override
+    public boolean firstWins(int first, int second, long comparisonId) {
+        PaillierPublicKey publicKey = coordinatorKey.getPublicKey();
+        BigInteger[] encryptedBits = SecureArgmaxProtocol.encryptBits(localBest[second], publicKey,
+                                                                      randomnessPool);
+        BigInteger[] blindedTerms = SecureArgmaxProtocol.blindTerms(localBest[first], encryptedBits, publicKey,
+                                                                    randomnessPool, random);
+        comparisons++;
+        return SecureArgmaxProtocol.firstWins(blindedTerms, coordinatorKey);
+    }
+
+    /**
+     * Gets the number of comparisons run so far.
+     *
+     * @return the number of comparisons
+     */
+    public long getComparisons() {
+        return comparisons;
+    }
+
+    /**
+     * Stops precomputing randomness factors.
+     */
+    @Override
+    public void close() {
+        randomnessPool.close();
+    }
+}
@@ -0,0 +1,100 @@
+package com.distributed.c50.privacy;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+
+/**
+ * Private key of the Paillier cryptosystem, held by the key owner only.
+ * Decryption works modulo p^2 and q^2 separately and recombines the halves
+ * with the Chinese remainder theorem, which replaces one exponentiation with a
+ * full-size exponent modulo n^2 by two with half-size exponents modulo
+ * numbers a quarter the size, roughly a fourfold speedup. Instances are
+ * immutable and thread-safe.
+ */
+public class PaillierPrivateKey {
+    private final PaillierPublicKey publicKey;
+    private final BigInteger p;
+    private final BigInteger q;
+    private final BigInteger pSquared;
+    private final BigInteger qSquared;
+    private final BigInteger pMinusOne;
+    private final BigInteger qMinusOne;
+    private final BigInteger hp;
+    private final BigInteger hq;
+    private final BigInteger qInverse;
+
+    /**
+     * Creates a new private key from the two prime factors of the modulus.
+     *
+     * @param p the first prime
+     * @param q the second prime, different from p
+     */
+    public PaillierPrivateKey(BigInteger p, BigInteger q) {
+        this.publicKey = new PaillierPublicKey(p.multiply(q));
+        this.p = p;
+        this.q = q;
+        this.pSquared = p.multiply(p);
+        this.qSquared = q.multiply(q);
+        this.pMinusOne = p.subtract(BigInteger.ONE);
+        this.qMinusOne = q.subtract(BigInteger.ONE);
+
+        // Precompute h = L(g^(prime - 1) mod prime^2)^-1 mod prime for both primes
+        BigInteger g = publicKey.getModulus().add(BigInteger.ONE);
+        this.hp = l(g.modPow(pMinusOne, pSquared), p).modInverse(p);
+        this.hq = l(g.modPow(qMinusOne, qSquared), q).modInverse(q);
+        this.qInverse = q.modInverse(p);
+    }
+
+    /**
+     * Generates a new key pair.
+     *
+     * @param modulusBits the size of the modulus n in bits
+     * @param random the source of randomness
+     * @return the private key, which carries the matching public key
+     */
+    public static PaillierPrivateKey generate(int modulusBits, SecureRandom random) {
+        int primeBits = modulusBits / 2;
+        BigInteger p = BigInteger.probablePrime(primeBits, random);
+        BigInteger q;
+        do {
+            q = BigInteger.probablePrime(modulusBits - primeBits, random);
+        } while (q.equals(p));
+        return new PaillierPrivateKey(p, q);
+    }
+
+    /**
+     * Gets the matching public key.
+     *
+     * @return the public key
+     */
+    public PaillierPublicKey getPublicKey() {
+        return publicKey;
+    }
+
+    /**
+     * Decrypts a ciphertext.
+     *
+     * @param ciphertext the ciphertext
+     * @return the plaintext, a residue modulo n
+     */
+    public BigInteger decrypt(BigInteger ciphertext) {
+        // Step 1: Decrypt modulo each prime
+        BigInteger mp = l(ciphertext.mod(pSquared).modPow(pMinusOne, pSquared), p).multiply(hp).mod(p);
+        BigInteger mq = l(ciphertext.mod(qSquared).modPow(qMinusOne, qSquared), q).multiply(hq).mod(q);
+
+        // Step 2: Recombine the halves (Garner's formula)
+        BigInteger h = mp.subtract(mq).multiply(qInverse).mod(p);
+        return mq.add(h.multiply(q));
+    }
+
+    /**
+     * Computes the Paillier function L(x) = (x - 1) / prime.
+     *
+     * @param x the argument, congruent to 1 modulo the prime
+     * @param prime the prime
+     * @return L(x)
+     */
+    private static BigInteger l(BigInteger x, BigInteger prime) {
+        return x.subtract(BigInteger.ONE).divide(prime);
+    }
+}
@@ -0,0 +1,121 @@
+package com.distributed.c50.privacy;
+
+import java.io.Serializable;
+import java.math.BigInteger;
+import java.security.SecureRandom;
+
+/**
+ * Public key of the Paillier cryptosystem, held by every party.
+ * Ciphertexts are additively homomorphic: multiplying two ciphertexts modulo
+ * n^2 encrypts the sum of their plaintexts, so an aggregator can add up
+ * encrypted counts without being able to read them. The generator is fixed at
+ * g = n + 1, which turns g^m into the single multiplication 1 + m * n.
+ * Instances are immutable and thread-safe.
+ */
+public class PaillierPublicKey implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final BigInteger n;
+    private final BigInteger nSquared;
+
+    /**
+     * Creates a new public key.
+     *
+     * @param n the modulus, a product of two large primes
+     */
+    public PaillierPublicKey(BigInteger n) {
+        this.n = n;
+        this.nSquared = n.multiply(n);
+    }
+
+    /**
+     * Gets the modulus n; plaintexts are residues modulo n.
+     *
+     * @return the modulus
+     */
+    public BigInteger getModulus() {
+        return n;
+    }
+
+    /**
+     * Gets the ciphertext modulus n^2.
+     *
+     * @return n^2
+     */
+    public BigInteger getModulusSquared() {
+        return nSquared;
+    }
+
+    /**
+     * Computes the randomness factor r^n mod n^2 for a fresh random r.
+     * This modular exponentiation dominates the cost of encryption and does not
+     * depend on the plaintext, so it can be computed ahead of time.
+     *
+     * @param random the source of randomness
+     * @return r^n mod n^2
+     */
+    public BigInteger randomness(SecureRandom random) {
+        BigInteger r;
+        do {
+            r = new BigInteger(n.bitLength() - 1, random);
+        } while (r.signum() == 0);
+        return r.modPow(n, nSquared);
+    }
+
+    /**
+     * Encrypts a non-negative value with a precomputed randomness factor.
+     *
+     * @param value the plaintext, less than n
+     * @param randomness r^n mod n^2, used for this encryption only
+     * @return the ciphertext
+     */
+    public BigInteger encrypt(long value, BigInteger randomness) {
+        return encrypt(BigInteger.valueOf(value), randomness);
+    }
+
+    /**
+     * Encrypts a plaintext, such as a packed count vector, with a precomputed
+     * randomness factor.
+     *
+     * @param plaintext the plaintext, in [0, n)
+     * @param randomness r^n mod n^2, used for this encryption only
+     * @return the ciphertext
+     */
+    public BigInteger encrypt(BigInteger plaintext, BigInteger randomness) {
+        // g^m = (1 + n)^m = 1 + m * n (mod n^2)
+        BigInteger gm = plaintext.multiply(n).add(BigInteger.ONE);
+        return gm.multiply(randomness).mod(nSquared);
+    }
+
+    /**
+     * Adds two encrypted values.
+     *
+     * @param a the first ciphertext
+     * @param b the second ciphertext
+     * @return a ciphertext of the sum of the plaintexts
+     */
+    public BigInteger add(BigInteger a, BigInteger b) {
+        return a.multiply(b).mod(nSquared);
+    }
+
+    /**
+     * Negates an encrypted value.
+     *
+     * @param ciphertext the ciphertext
+     * @return a ciphertext of the negated plaintext modulo n
+     */
+    public BigInteger negate(BigInteger ciphertext) {
+        return ciphertext.modInverse(nSquared);
+    }
+
+    /**
+     * Multiplies an encrypted value by a plaintext scalar.
+     *
+     * @param ciphertext the ciphertext
+     * @param scalar the scalar, in [0, n)
+     * @return a ciphertext of the product modulo n
+     */
+    public BigInteger multiply(BigInteger ciphertext, BigInteger scalar) {
+        return ciphertext.modPow(scalar, nSquared);
+    }
+}
@@ -0,0 +1,87 @@
+package com.distributed.c50.privacy;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Bounded pool of precomputed Paillier randomness factors r^n mod n^2.
+ * Background daemon threads keep the pool topped up between aggregations, so
+ * encrypting a count vector costs little more than one multiplication per
+ * cell. When the pool runs dry, factors are computed on the calling thread
+ * rather than waiting. Safe for use by several threads.
+ */
+public class PaillierRandomnessPool implements AutoCloseable {
+    private final PaillierPublicKey publicKey;
+    private final BlockingQueue<BigInteger> factors;
+    private final SecureRandom random;
+    private final Thread[] producers;
+
+    /**
+     * Creates a new randomness pool and starts its background threads.
+     *
+     * @param publicKey the public key the factors are computed for
+     * @param capacity the maximum number of factors kept ready
+     * @param numThreads the number of background threads
+     * @throws IllegalArgumentException if the capacity or thread count is not positive
+     */
+    public PaillierRandomnessPool(PaillierPublicKey publicKey, int capacity, int numThreads) {
+        if (capacity <= 0 || numThreads <= 0) {
+            throw new IllegalArgumentException("Capacity and thread count must be positive: " +
+                capacity + ", " + numThreads);
+        }
+        this.publicKey = publicKey;
+        this.factors = new ArrayBlockingQueue<>(capacity);
+        this.random = new SecureRandom();
+        this.producers = new Thread[numThreads];
+
+        for (int i = 0; i < numThreads; i++) {
+            producers[i] = new Thread(this::produce, "paillier-randomness-" + i);
+            producers[i].setDaemon(true);
+            producers[i].start();
+        }
+    }
+
+    /**
+     * Computes factors until the pool is closed.
+     */
+    private void produce() {
+        try {
+            while (true) {
+                factors.put(publicKey.randomness(random));
+            }
+        } catch (InterruptedException e) {
+            // Closed
+        }
+    }
+
+    /**
+     * Takes a factor from the pool, computing one directly if the pool is empty.
+     *
+     * @return r^n mod n^2 for a fresh random r, never handed out twice
+     */
+    public BigInteger next() {
+        BigInteger factor = factors.poll();
+        return factor != null ? factor : publicKey.randomness(random);
+    }
+
+    /**
+     * Gets the number of factors currently waiting in the pool.
+     *
+     * @return the number of ready factors
+     */
+    public int getReadyFactors() {
+        return factors.size();
+    }
+
+    /**
+     * Stops the background threads.
+     */
+    @Override
+    public void close() {
+        for (Thread producer : producers) {
+            producer.interrupt();
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.distributed.c50.privacy;
+
+/**
+ * Transport for the secure comparisons between the local best candidates of
+ * the parties. Each party first hands its local best gain ratio to its own end
+ * of the transport; a comparison then runs {@link SecureArgmaxProtocol#encryptBits}
+ * at the second party, {@link SecureArgmaxProtocol#blindTerms} at the first and
+ * {@link SecureArgmaxProtocol#firstWins} at the coordinator, which learns the
+ * order of the two values and nothing else.
+ */
+public interface PairwiseComparison {
+
+    /**
+     * Hands a party's local best gain ratio to that party's end of the transport
+     * for the next tournament.
+     *
+     * @param party the index of the party
+     * @param gainRatio the local best gain ratio, or NaN if the party has no candidate
+     */
+    void setLocalBest(int party, double gainRatio);
+
+    /**
+     * Compares the local best gain ratios of two parties.
+     *
+     * @param first the index of the first party
+     * @param second the index of the second party
+     * @param comparisonId the identifier of this comparison, which tags its messages
+     * @return true if the first party's value is at least the second party's, false otherwise
+     */
+    boolean firstWins(int first, int second, long comparisonId);
+}
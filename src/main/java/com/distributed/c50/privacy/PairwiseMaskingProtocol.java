@@ -0,0 +1,300 @@
+package com.distributed.c50.privacy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.PublicKey;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Arrays;
+import javax.crypto.KeyAgreement;
+
+/**
+ * Constant-round secure sum based on pairwise-seeded additive masks.
+ * <p>
+ * Once per session every pair of parties agrees on a seed through an X25519
+ * key exchange. For each aggregation, party i adds the pad it shares with every
+ * party j > i and subtracts the pad it shares with every party j < i, so the
+ * pads cancel in the sum over all parties. Each party sends its masked counts
+ * straight to the aggregator, which only adds the vectors up: one round covers
+ * any number of parties, and the aggregator sees nothing but uniformly random
+ * vectors and their sum. Arithmetic is modulo 2^64.
+ * <p>
+ * Pads come from an AES-CTR keystream under the pairwise key, with the
+ * aggregation round in the counter block, so no pad is ever reused. All
+ * parties must mask the same sequence of aggregations; a party that drops out
+ * leaves its pads uncancelled and the sum unusable. The pads of upcoming
+ * rounds can be precomputed offline with {@link #precomputePads(int, int)}
+ * or pools attached with {@link #setPadPool}, so masking a round only reads
+ * them from a {@link CorrelatedRandomnessPool}; cells beyond a pool's batch
+ * are expanded inline. Instances are not thread-safe.
+ */
+public class PairwiseMaskingProtocol implements AutoCloseable {
+    private final int partyIndex;
+    private final int numParties;
+    private final KeyPair keyPair;
+    private final byte[][] pairKeys;
+    private final KeystreamMaskGenerator[] padGenerators;
+    private final CorrelatedRandomnessPool[] padPools;
+    private long round;
+    private long[] pads;
+
+    /**
+     * Creates a new pairwise masking protocol instance with a fresh key pair.
+     *
+     * @param partyIndex the index of this party, in [0, numParties)
+     * @param numParties the number of participating parties
+     * @throws IllegalArgumentException if the party index is out of range
+     */
+    public PairwiseMaskingProtocol(int partyIndex, int numParties) {
+        this(partyIndex, numParties, generateKeyPair());
+    }
+
+    /**
+     * Creates a new pairwise masking protocol instance with a key pair whose
+     * public key was published before the party indices were known.
+     *
+     * @param partyIndex the index of this party, in [0, numParties)
+     * @param numParties the number of participating parties
+     * @param keyPair the X25519 key pair of this party
+     * @throws IllegalArgumentException if the party index is out of range
+     */
+    public PairwiseMaskingProtocol(int partyIndex, int numParties, KeyPair keyPair) {
+        if (partyIndex < 0 || partyIndex >= numParties) {
+            throw new IllegalArgumentException("Party index " + partyIndex +
+                " is out of range for " + numParties + " parties");
+        }
+        this.partyIndex = partyIndex;
+        this.numParties = numParties;
+        this.pairKeys = new byte[numParties][];
+        this.padGenerators = new KeystreamMaskGenerator[numParties];
+        this.padPools = new CorrelatedRandomnessPool[numParties];
+        this.pads = new long[0];
+        this.keyPair = keyPair;
+    }
+
+    /**
+     * Generates a fresh X25519 key pair for the pairwise key agreement.
+     *
+     * @return the key pair
+     */
+    public static KeyPair generateKeyPair() {
+        try {
+            return KeyPairGenerator.getInstance("X25519").generateKeyPair();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("X25519 is not available", e);
+        }
+    }
+
+    /**
+     * Gets the encoded public key to send to every other party.
+     *
+     * @return the X.509 encoding of this party's public key
+     */
+    public byte[] getPublicKey() {
+        return keyPair.getPublic().getEncoded();
+    }
+
+    /**
+     * Derives the seed shared with another party from its public key.
+     *
+     * @param peerIndex the index of the other party
+     * @param peerPublicKey the other party's encoded public key
+     * @throws IllegalArgumentException if the peer index or the key is invalid
+     */
+    public void establishSeed(int peerIndex, byte[] peerPublicKey) {
+        if (peerIndex < 0 || peerIndex >= numParties || peerIndex == partyIndex) {
+            throw new IllegalArgumentException("Invalid peer index: " + peerIndex);
+        }
+
+        try {
+            PublicKey peerKey = KeyFactory.getInstance("X25519")
+                .generatePublic(new X509EncodedKeySpec(peerPublicKey));
+            KeyAgreement agreement = KeyAgreement.getInstance("X25519");
+            agreement.init(keyPair.getPrivate());
+            agreement.doPhase(peerKey, true);
+            byte[] secret = agreement.generateSecret();
+
+            // Bind the seed to the unordered pair so both sides derive the same key
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(secret);
+            digest.update(ByteBuffer.allocate(2 * Integer.BYTES)
+                .putInt(Math.min(partyIndex, peerIndex))
+                .putInt(Math.max(partyIndex, peerIndex))
+                .array());
+            byte[] pairKey = Arrays.copyOf(digest.digest(), KeystreamMaskGenerator.KEY_BYTES);
+            pairKeys[peerIndex] = pairKey;
+            padGenerators[peerIndex] = new KeystreamMaskGenerator(pairKey, 0L);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalArgumentException("Invalid public key for party " + peerIndex, e);
+        }
+    }
+
+    /**
+     * Checks if a seed has been established with every other party.
+     *
+     * @return true if counts can be masked, false otherwise
+     */
+    public boolean isReady() {
+        for (int peer = 0; peer < numParties; peer++) {
+            if (peer != partyIndex && padGenerators[peer] == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gets the key of the pads shared with another party, for precomputing
+     * them elsewhere.
+     *
+     * @param peerIndex the index of the other party
+     * @return the pairwise AES key
+     * @throws IllegalStateException if no seed has been established with the party
+     */
+    public byte[] getPairKey(int peerIndex) {
+        if (pairKeys[peerIndex] == null) {
+            throw new IllegalStateException("No seed has been established with party " + peerIndex);
+        }
+        return pairKeys[peerIndex].clone();
+    }
+
+    /**
+     * Attaches a pool precomputing the pads shared with another party,
+     * expanded from {@link #getPairKey} with the rounds as stream numbers.
+     * The pool is closed along with this instance.
+     *
+     * @param peerIndex the index of the other party
+     * @param pool the pool, or null to expand the pads inline
+     */
+    public void setPadPool(int peerIndex, CorrelatedRandomnessPool pool) {
+        if (padPools[peerIndex] != null && padPools[peerIndex] != pool) {
+            padPools[peerIndex].close();
+        }
+        padPools[peerIndex] = pool;
+    }
+
+    /**
+     * Starts precomputing the pads of the upcoming rounds in the background,
+     * one pool per peer, replacing any pools started before. Rounds with more
+     * cells than the pools hold per round take the rest of their pads inline.
+     *
+     * @param maxLength the largest number of cells masked per round
+     * @param capacityRounds the number of rounds precomputed ahead
+     * @throws IOException if a pool cannot be created
+     * @throws IllegalStateException if a pairwise seed is missing
+     */
+    public void precomputePads(int maxLength, int capacityRounds) throws IOException {
+        if (!isReady()) {
+            throw new IllegalStateException("Pairwise seeds have not been established with every party");
+        }
+
+        close();
+        for (int peer = 0; peer < numParties; peer++) {
+            if (peer != partyIndex) {
+                setPadPool(peer, CorrelatedRandomnessPool.createTemporary(maxLength, capacityRounds, round,
+                    CorrelatedRandomnessPool.keystream(pairKeys[peer])));
+            }
+        }
+    }
+
+    /**
+     * Gets the number of aggregations masked so far.
+     *
+     * @return the current round
+     */
+    public long getRound() {
+        return round;
+    }
+
+    /**
+     * Masks a count tensor for the next aggregation round.
+     *
+     * @param localCounts the local counts
+     * @param masked receives the masked counts to send to the aggregator
+     * @param length the number of cells
+     * @throws IllegalStateException if a pairwise seed is missing
+     */
+    public void maskCounts(int[] localCounts, long[] masked, int length) {
+        if (!isReady()) {
+            throw new IllegalStateException("Pairwise seeds have not been established with every party");
+        }
+
+        for (int i = 0; i < length; i++) {
+            masked[i] = localCounts[i];
+        }
+
+        if (pads.length < length) {
+            pads = new long[length];
+        }
+
+        // Add or subtract the pad shared with each other party; the round selects the stream
+        for (int peer = 0; peer < numParties; peer++) {
+            if (peer == partyIndex) {
+                continue;
+            }
+
+            // Precomputed pads first, the rest of a large round inline
+            CorrelatedRandomnessPool pool = padPools[peer];
+            int pooled = pool == null ? 0 : Math.min(length, pool.getBatchWords());
+            if (pooled > 0) {
+                pool.restart(round);
+                pool.fill(pads, 0, pooled);
+            }
+            if (pooled < length) {
+                padGenerators[peer].restart(round, pooled);
+                padGenerators[peer].fill(pads, pooled, length - pooled);
+            }
+
+            boolean add = partyIndex < peer;
+            for (int i = 0; i < length; i++) {
+                masked[i] = add ? masked[i] + pads[i] : masked[i] - pads[i];
+            }
+        }
+
+        round++;
+    }
+
+    /**
+     * Stops precomputing pads and releases the pools.
+     */
+    @Override
+    public void close() {
+        for (int peer = 0; peer < numParties; peer++) {
+            if (padPools[peer] != null) {
+                padPools[peer].close();
+                padPools[peer] = null;
+            }
+        }
+    }
+
+    /**
+     * Adds one party's masked counts to the running sums at the aggregator.
+     *
+     * @param sums the running sums, updated in place
+     * @param masked the masked counts of one party
+     * @param length the number of cells
+     */
+    public static void addMasked(long[] sums, long[] masked, int length) {
+        for (int i = 0; i < length; i++) {
+            sums[i] += masked[i];
+        }
+    }
+
+    /**
+     * Converts the sums over all parties' masked counts into global counts.
+     * The pads have cancelled at this point, so only the narrowing remains.
+     *
+     * @param sums the sums of every party's masked counts
+     * @param counts receives the global counts
+     * @param length the number of cells
+     */
+    public static void toCounts(long[] sums, int[] counts, int length) {
+        for (int i = 0; i < length; i++) {
+            counts[i] = (int) sums[i];
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package com.distributed.c50.privacy;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+
+/**
+ * Secure argmax of the parties' best gain ratios.
+ * <p>
+ * Instead of sending the statistics of every attribute to the coordinator,
+ * each party evaluates its own attributes, keeps its local best candidate, and
+ * the parties run a single-elimination tournament on those candidates. After
+ * numParties - 1 comparisons only the winning party reveals its attribute, so
+ * the traffic per tree node is O(parties) comparisons instead of O(attributes)
+ * values.
+ * <p>
+ * Each comparison is the bitwise comparison of Damgard, Geisler and Kroigaard
+ * over the coordinator's Paillier key. The second party sends the encryptions
+ * of the bits b_i of its encoded value to the first party, which holds the
+ * bits a_i of its own. For every bit position the first party computes, under
+ * encryption,
+ * <pre>
+ *   e_i = a_i - b_i + 1 + 3 * sum_{j &gt; i} (a_j xor b_j)
+ * </pre>
+ * which is zero at exactly one position if a &lt; b and nowhere otherwise. It
+ * multiplies every e_i by a fresh uniformly random factor, re-randomizes the
+ * ciphertexts, shuffles them and sends them to the coordinator, which decrypts
+ * them and only checks for a zero. The nonzero terms decrypt to uniformly
+ * random residues, so per comparison the coordinator learns the single bit
+ * a &gt;= b and nothing about the magnitudes. The parties learn nothing, as
+ * long as the second party's ciphertexts go straight to the first party and
+ * never through the coordinator, which holds the private key, and as long as
+ * the coordinator does not collude with a party. Over a tournament the
+ * coordinator learns the winner of every match, i.e. the bracket, and nothing
+ * else; the parties learn which party won.
+ * <p>
+ * Gain ratios are compared in fixed point with {@link #FRACTION_BITS}
+ * fractional bits in {@link #ENCODED_BITS}-bit values; differences below that
+ * resolution count as ties, and ties go to the party with the lower index.
+ * Per comparison the second party encrypts {@link #ENCODED_BITS} bits and the
+ * first party raises as many ciphertexts to full-size random exponents; the
+ * encryption factors can be precomputed in a {@link PaillierRandomnessPool}.
+ */
+public class SecureArgmaxProtocol {
+    /**
+     * Number of fractional bits of the fixed-point encoding of a gain ratio.
+     */
+    public static final int FRACTION_BITS = 32;
+
+    /**
+     * Number of bits of an encoded gain ratio, i.e. of ciphertexts per comparison.
+     */
+    public static final int ENCODED_BITS = FRACTION_BITS + 7;
+
+    /**
+     * Largest fixed-point gain ratio; gain ratios of 64 and above are clamped.
+     */
+    private static final long MAX_FIXED_POINT = (1L << (FRACTION_BITS + 6)) - 1;
+
+    /**
+     * Encoded value of a party without any candidate; loses to every real candidate.
+     */
+    private static final long NO_CANDIDATE = 0L;
+
+    /**
+     * Multiplier of the prefix sum of differing bits.
+     */
+    private static final BigInteger THREE = BigInteger.valueOf(3);
+
+    /**
+     * Encodes a gain ratio in fixed point. Real candidates encode to at least 1,
+     * so they beat parties without a candidate.
+     *
+     * @param gainRatio the gain ratio, or NaN if the party has no candidate
+     * @return the encoded value, below 2^{@link #ENCODED_BITS}
+     */
+    public static long encode(double gainRatio) {
+        if (Double.isNaN(gainRatio)) {
+            return NO_CANDIDATE;
+        }
+        return 1 + Math.max(0L, Math.min(MAX_FIXED_POINT, Math.round(Math.scalb(gainRatio, FRACTION_BITS))));
+    }
+
+    /**
+     * Encrypts the bits of a party's local best gain ratio under the
+     * coordinator's key, as the second party of a comparison. The result is
+     * sent to the first party only.
+     *
+     * @param gainRatio the local best gain ratio, or NaN if the party has no candidate
+     * @param publicKey the coordinator's public key
+     * @param randomnessPool the pool of precomputed randomness factors for the key
+     * @return the encrypted bits, least significant first
+     */
+    public static BigInteger[] encryptBits(double gainRatio, PaillierPublicKey publicKey,
+                                           PaillierRandomnessPool randomnessPool) {
+        long value = encode(gainRatio);
+        BigInteger[] bits = new BigInteger[ENCODED_BITS];
+        for (int i = 0; i < ENCODED_BITS; i++) {
+            bits[i] = publicKey.encrypt((value >>> i) & 1L, randomnessPool.next());
+        }
+        return bits;
+    }
+
+    /**
+     * Computes the blinded comparison terms, as the first party of a
+     * comparison. The result is sent to the coordinator.
+     *
+     * @param gainRatio the local best gain ratio, or NaN if the party has no candidate
+     * @param encryptedBits the second party's encrypted bits
+     * @param publicKey the coordinator's public key
+     * @param randomnessPool the pool of precomputed randomness factors for the key
+     * @param random the source of the blinding factors and the shuffle
+     * @return the blinded terms in random order
+     * @throws IllegalArgumentException if the number of encrypted bits is wrong
+     */
+    public static BigInteger[] blindTerms(double gainRatio, BigInteger[] encryptedBits, PaillierPublicKey publicKey,
+                                          PaillierRandomnessPool randomnessPool, SecureRandom random) {
+        if (encryptedBits.length != ENCODED_BITS) {
+            throw new IllegalArgumentException("Expected " + ENCODED_BITS + " encrypted bits: " +
+                encryptedBits.length);
+        }
+        long value = encode(gainRatio);
+        BigInteger one = publicKey.encrypt(1L, BigInteger.ONE);
+        BigInteger[] terms = new BigInteger[ENCODED_BITS];
+
+        // Step 1: From the top bit down, e_i = a_i + 1 - b_i + 3 * (number of differing bits above i)
+        BigInteger prefix = publicKey.encrypt(0L, BigInteger.ONE);
+        for (int i = ENCODED_BITS - 1; i >= 0; i--) {
+            long bit = (value >>> i) & 1L;
+            BigInteger negatedBit = publicKey.negate(encryptedBits[i]);
+            BigInteger term = publicKey.add(publicKey.add(prefix, negatedBit),
+                                            publicKey.encrypt(bit + 1, BigInteger.ONE));
+
+            // Step 2: Blind the term with a random factor and re-randomize its ciphertext
+            terms[i] = publicKey.add(publicKey.multiply(term, randomFactor(publicKey, random)),
+                                     randomnessPool.next());
+
+            // a_i xor b_i is b_i for a_i = 0 and 1 - b_i for a_i = 1
+            BigInteger differs = bit == 0 ? encryptedBits[i] : publicKey.add(one, negatedBit);
+            prefix = publicKey.add(prefix, publicKey.multiply(differs, THREE));
+        }
+
+        // Step 3: Shuffle, so the position of a zero does not reveal the first differing bit
+        for (int i = terms.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            BigInteger swap = terms[i];
+            terms[i] = terms[j];
+            terms[j] = swap;
+        }
+
+        return terms;
+    }
+
+    /**
+     * Draws a uniformly random nonzero residue modulo n.
+     *
+     * @param publicKey the public key
+     * @param random the source of randomness
+     * @return the factor, in [1, n)
+     */
+    private static BigInteger randomFactor(PaillierPublicKey publicKey, SecureRandom random) {
+        BigInteger n = publicKey.getModulus();
+        BigInteger factor;
+        do {
+            factor = new BigInteger(n.bitLength(), random);
+        } while (factor.signum() == 0 || factor.compareTo(n) >= 0);
+        return factor;
+    }
+
+    /**
+     * Decides a comparison from the first party's blinded terms, as the coordinator.
+     *
+     * @param blindedTerms the blinded terms
+     * @param privateKey the coordinator's private key
+     * @return true if the first party's value is at least the second party's, false otherwise
+     * @throws IllegalArgumentException if the number of terms is wrong
+     */
+    public static boolean firstWins(BigInteger[] blindedTerms, PaillierPrivateKey privateKey) {
+        if (blindedTerms.length != ENCODED_BITS) {
+            throw new IllegalArgumentException("Expected " + ENCODED_BITS + " terms: " + blindedTerms.length);
+        }
+
+        // A zero term means the first value is smaller; check them all so the timing does not depend on it
+        boolean smaller = false;
+        for (BigInteger term : blindedTerms) {
+            smaller |= privateKey.decrypt(term).signum() == 0;
+        }
+        return !smaller;
+    }
+
+    /**
+     * Derives the identifier of one comparison of a tournament, unique across
+     * tournaments with different identifiers, which tags the comparison's messages.
+     *
+     * @param tournamentId the identifier of the tournament, e.g. a tree node counter
+     * @param numParties the number of parties
+     * @param match the index of the match within the tournament
+     * @return the comparison identifier
+     */
+    public static long comparisonId(long tournamentId, int numParties, int match) {
+        return tournamentId * Math.max(1, numParties - 1) + match;
+    }
+
+    /**
+     * Gets the number of sequential rounds of a tournament. The matches of one
+     * round are independent, so a round costs a single exchange.
+     *
+     * @param numParties the number of parties
+     * @return ceil(log2(numParties)), or 0 for a single party
+     */
+    public static int tournamentRounds(int numParties) {
+        return numParties <= 1 ? 0 : Integer.SIZE - Integer.numberOfLeadingZeros(numParties - 1);
+    }
+
+    /**
+     * Runs a single-elimination tournament over all parties, as the coordinator.
+     * In each round neighbouring survivors are paired, the winner of each pair
+     * advances, and an odd survivor out advances unopposed.
+     *
+     * @param numParties the number of parties
+     * @param tournamentId the identifier of the tournament
+     * @param comparison the transport for the comparisons
+     * @return the index of the party holding the best candidate
+     */
+    public static int runTournament(int numParties, long tournamentId, PairwiseComparison comparison) {
+        int[] survivors = new int[numParties];
+        for (int i = 0; i < numParties; i++) {
+            survivors[i] = i;
+        }
+
+        int numSurvivors = numParties;
+        int match = 0;
+        while (numSurvivors > 1) {
+            int next = 0;
+            for (int i = 0; i + 1 < numSurvivors; i += 2) {
+                int first = survivors[i];
+                int second = survivors[i + 1];
+                long id = comparisonId(tournamentId, numParties, match++);
+                survivors[next++] = comparison.firstWins(first, second, id) ? first : second;
+            }
+            if (numSurvivors % 2 == 1) {
+                survivors[next++] = survivors[numSurvivors - 1];
+            }
+            numSurvivors = next;
+        }
+
+        return survivors[0];
+    }
+}
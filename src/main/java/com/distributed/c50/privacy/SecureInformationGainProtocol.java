@@ -1,9 +1,11 @@
 package com.distributed.c50.privacy;
 
+import com.distributed.c50.common.CostLedger;
 import java.math.BigInteger;
 import java.security.SecureRandom;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
 
 /**
  * Implements secure information gain protocol for privacy-preserving computation
@@ -14,6 +16,9 @@ public class SecureInformationGainProtocol {
     private final SecureRandom random;
     private final String nodeId;
     private final SecureSumProtocol secureSumProtocol;
+    private final AtomicLong aggregationRounds;
+    private CountAggregator countAggregator;
+    private CostLedger costLedger;
     
     /**
      * Creates a new secure information gain protocol instance.
@@ -25,6 +30,63 @@ public class SecureInformationGainProtocol {
         this.nodeId = nodeId;
         this.random = new SecureRandom();
         this.secureSumProtocol = new SecureSumProtocol(nodeId, numParties);
+        this.aggregationRounds = new AtomicLong();
+        this.costLedger = new CostLedger();
+        
+        // Without other parties, the local counts already are the global counts
+        this.countAggregator = (counts, length) -> { };
+    }
+    
+    /**
+     * Sets the strategy used to aggregate count tensors across parties.
+     * 
+     * @param countAggregator the count aggregator
+     */
+    public void setCountAggregator(CountAggregator countAggregator) {
+        this.countAggregator = countAggregator;
+    }
+    
+    /**
+     * Sets the ledger that records the rounds, masks and cryptographic time of
+     * this protocol and its secure sums.
+     * 
+     * @param costLedger the cost ledger
+     */
+    public void setCostLedger(CostLedger costLedger) {
+        this.costLedger = costLedger;
+        secureSumProtocol.setCostLedger(costLedger);
+    }
+    
+    /**
+     * Sets the source the secure sums draw their masks from, such as a
+     * {@link MaskPool} that precomputes them in the background.
+     * 
+     * @param maskSource the mask source, or null to generate masks on demand
+     */
+    public void setMaskSource(MaskSource maskSource) {
+        secureSumProtocol.setMaskSource(maskSource);
+    }
+    
+    /**
+     * Securely aggregates a batch of local count tensors into global counts
+     * in a single round.
+     * 
+     * @param counts the flat buffer of local counts, replaced by the global counts
+     * @param length the number of cells to aggregate
+     */
+    public void aggregateCounts(int[] counts, int length) {
+        aggregationRounds.incrementAndGet();
+        costLedger.recordRound();
+        countAggregator.aggregate(counts, length);
+    }
+    
+    /**
+     * Gets the number of aggregation rounds performed so far.
+     * 
+     * @return the number of calls to {@link #aggregateCounts(int[], int)}
+     */
+    public long getAggregationRounds() {
+        return aggregationRounds.get();
     }
     
     /**
@@ -53,80 +115,203 @@ public class SecureInformationGainProtocol {
     }
     
     /**
-     * Initiates secure computation of global counts as the coordinator.
+     * Initiates secure computation of a batch of global count matrices as the coordinator.
      * 
-     * @param localCounts the local count matrix
-     * @return a map of secure sum states for each count
+     * @param localCounts the local counts, laid out as in {@link CountTensor}
+     * @param numMatrices the number of count matrices
+     * @param numAttributeValues the number of distinct attribute values (matrix rows)
+     * @param numClassValues the number of distinct class values (matrix columns)
+     * @param masks receives the random masks, which stay with the coordinator
+     * @return the masked tensor to pass to the next party
      */
-    public Map<String, SecureSumProtocol.SecureSumState> initiateSecureCounts(int[][] localCounts) {
-        Map<String, SecureSumProtocol.SecureSumState> states = new HashMap<>();
+    public CountTensor initiateSecureCounts(int[] localCounts, int numMatrices, int numAttributeValues,
+                                            int numClassValues, long[] masks) {
+        CountTensor tensor = new CountTensor(numMatrices, numAttributeValues, numClassValues);
+        checkLength(localCounts, tensor);
         
-        // Initialize secure sum for each count
-        for (int i = 0; i < localCounts.length; i++) {
-            for (int j = 0; j < localCounts[i].length; j++) {
-                String key = i + "," + j;
-                states.put(key, secureSumProtocol.initiateSecureSum(localCounts[i][j]));
-            }
-        }
+        secureSumProtocol.initiateSecureSum(localCounts, masks, tensor.getPartialSums(), tensor.getLength());
+        tensor.advanceRound();
         
-        return states;
+        return tensor;
     }
     
     /**
-     * Participates in secure computation of global counts.
+     * Initiates secure computation of a single global count matrix as the coordinator.
      * 
-     * @param states the current secure sum states
      * @param localCounts the local count matrix
-     * @return the updated secure sum states
+     * @param masks receives the random masks, which stay with the coordinator
+     * @return the masked tensor to pass to the next party
+     */
+    public CountTensor initiateSecureCounts(int[][] localCounts, long[] masks) {
+        int numClassValues = localCounts.length == 0 ? 0 : localCounts[0].length;
+        return initiateSecureCounts(flatten(localCounts), 1, localCounts.length, numClassValues, masks);
+    }
+    
+    /**
+     * Participates in secure computation of global counts by adding the local
+     * counts to the tensor in place.
+     * 
+     * @param tensor the masked tensor received from the previous party
+     * @param localCounts the local counts, laid out as in {@link CountTensor}
      */
-    public Map<String, SecureSumProtocol.SecureSumState> participateInSecureCounts(
-            Map<String, SecureSumProtocol.SecureSumState> states, int[][] localCounts) {
-        Map<String, SecureSumProtocol.SecureSumState> updatedStates = new HashMap<>();
+    public void participateInSecureCounts(CountTensor tensor, int[] localCounts) {
+        checkLength(localCounts, tensor);
         
-        // Add local counts to secure sums
-        for (Map.Entry<String, SecureSumProtocol.SecureSumState> entry : states.entrySet()) {
-            String[] indices = entry.getKey().split(",");
-            int i = Integer.parseInt(indices[0]);
-            int j = Integer.parseInt(indices[1]);
-            
-            int localCount = 0;
-            if (i < localCounts.length && j < localCounts[i].length) {
-                localCount = localCounts[i][j];
-            }
-            
-            updatedStates.put(entry.getKey(), 
-                secureSumProtocol.participateInSecureSum(entry.getValue(), localCount));
-        }
+        secureSumProtocol.participateInSecureSum(tensor.getPartialSums(), localCounts, tensor.getLength());
+        tensor.advanceRound();
+    }
+    
+    /**
+     * Participates in secure computation of a single global count matrix.
+     * 
+     * @param tensor the masked tensor received from the previous party
+     * @param localCounts the local count matrix
+     */
+    public void participateInSecureCounts(CountTensor tensor, int[][] localCounts) {
+        participateInSecureCounts(tensor, flatten(localCounts));
+    }
+    
+    /**
+     * Finalizes secure computation of a batch of global count matrices as the coordinator.
+     * 
+     * @param tensor the masked tensor after all parties have added their counts
+     * @param masks the masks drawn when the computation was initiated
+     * @param globalCounts receives the global counts, laid out as in {@link CountTensor}
+     */
+    public void finalizeSecureCounts(CountTensor tensor, long[] masks, int[] globalCounts) {
+        checkLength(globalCounts, tensor);
         
-        return updatedStates;
+        secureSumProtocol.finalizeSecureSum(tensor.getPartialSums(), masks, globalCounts, tensor.getLength());
     }
     
     /**
-     * Finalizes secure computation of global counts as the coordinator.
+     * Finalizes secure computation of a single global count matrix as the coordinator.
      * 
-     * @param states the final secure sum states
-     * @param numAttributeValues the number of distinct attribute values
-     * @param numClassValues the number of distinct class values
+     * @param tensor the masked tensor after all parties have added their counts
+     * @param masks the masks drawn when the computation was initiated
      * @return the global count matrix
      */
-    public int[][] finalizeSecureCounts(Map<String, SecureSumProtocol.SecureSumState> states,
-                                      int numAttributeValues, int numClassValues) {
-        int[][] globalCounts = new int[numAttributeValues][numClassValues];
+    public int[][] finalizeSecureCounts(CountTensor tensor, long[] masks) {
+        int numClassValues = tensor.getNumColumns();
+        int[] flat = new int[tensor.getLength()];
+        finalizeSecureCounts(tensor, masks, flat);
         
-        // Finalize secure sums to get global counts
-        for (Map.Entry<String, SecureSumProtocol.SecureSumState> entry : states.entrySet()) {
-            String[] indices = entry.getKey().split(",");
-            int i = Integer.parseInt(indices[0]);
-            int j = Integer.parseInt(indices[1]);
-            
-            if (i < globalCounts.length && j < globalCounts[i].length) {
-                globalCounts[i][j] = secureSumProtocol.finalizeSecureSum(entry.getValue());
-            }
+        int[][] globalCounts = new int[tensor.getNumRows()][numClassValues];
+        for (int i = 0; i < globalCounts.length; i++) {
+            System.arraycopy(flat, i * numClassValues, globalCounts[i], 0, numClassValues);
         }
         
         return globalCounts;
     }
     
+    /**
+     * Encrypts a batch of local counts under the key owner's Paillier key, as a
+     * party in the homomorphic mode. In this mode the aggregator only ever sees
+     * ciphertexts, so no masks need to be kept from it. Cells are encrypted in
+     * parallel across cores.
+     * 
+     * @param publicKey the key owner's public key
+     * @param randomnessPool the pool of precomputed randomness factors for the key
+     * @param localCounts the local counts
+     * @param length the number of cells
+     * @return the ciphertext of each cell
+     */
+    public BigInteger[] encryptCounts(PaillierPublicKey publicKey, PaillierRandomnessPool randomnessPool,
+                                      int[] localCounts, int length) {
+        long startTime = System.nanoTime();
+        BigInteger[] ciphertexts = new BigInteger[length];
+        Arrays.parallelSetAll(ciphertexts, i -> publicKey.encrypt(localCounts[i], randomnessPool.next()));
+        costLedger.recordCrypto(System.nanoTime() - startTime);
+        return ciphertexts;
+    }
+    
+    /**
+     * Adds one party's encrypted counts to the running encrypted sums, as the
+     * aggregator in the homomorphic mode.
+     * 
+     * @param publicKey the key owner's public key
+     * @param sums the running encrypted sums, updated in place; null cells are treated as empty
+     * @param ciphertexts the encrypted counts of one party
+     * @param length the number of cells
+     */
+    public void addEncryptedCounts(PaillierPublicKey publicKey, BigInteger[] sums,
+                                   BigInteger[] ciphertexts, int length) {
+        long startTime = System.nanoTime();
+        IntStream.range(0, length).parallel().forEach(i ->
+            sums[i] = sums[i] == null ? ciphertexts[i] : publicKey.add(sums[i], ciphertexts[i]));
+        costLedger.recordCrypto(System.nanoTime() - startTime);
+    }
+    
+    /**
+     * Decrypts the encrypted sums into global counts, as the key owner in the
+     * homomorphic mode.
+     * 
+     * @param privateKey the private key
+     * @param sums the encrypted sums over all parties
+     * @param globalCounts receives the global counts
+     * @param length the number of cells
+     */
+    public void decryptCounts(PaillierPrivateKey privateKey, BigInteger[] sums, int[] globalCounts, int length) {
+        long startTime = System.nanoTime();
+        IntStream.range(0, length).parallel().forEach(i ->
+            globalCounts[i] = privateKey.decrypt(sums[i]).intValue());
+        costLedger.recordCrypto(System.nanoTime() - startTime);
+    }
+    
+    /**
+     * Packs a batch of local counts into as few plaintexts as the packer allows
+     * and encrypts them, as a party in the homomorphic mode. The resulting
+     * ciphertexts are aggregated with {@link #addEncryptedCounts} like unpacked ones.
+     * 
+     * @param publicKey the key owner's public key
+     * @param randomnessPool the pool of precomputed randomness factors for the key
+     * @param packer the slot packer shared by all parties
+     * @param localCounts the local counts
+     * @param length the number of cells
+     * @return one ciphertext per packed plaintext
+     */
+    public BigInteger[] encryptPackedCounts(PaillierPublicKey publicKey, PaillierRandomnessPool randomnessPool,
+                                            SlotPacker packer, int[] localCounts, int length) {
+        long startTime = System.nanoTime();
+        BigInteger[] plaintexts = packer.pack(localCounts, length);
+        Arrays.parallelSetAll(plaintexts, i -> publicKey.encrypt(plaintexts[i], randomnessPool.next()));
+        costLedger.recordCrypto(System.nanoTime() - startTime);
+        return plaintexts;
+    }
+    
+    /**
+     * Decrypts packed encrypted sums into global counts, as the key owner in
+     * the homomorphic mode.
+     * 
+     * @param privateKey the private key
+     * @param packer the slot packer shared by all parties
+     * @param sums the encrypted sums over all parties, one per packed plaintext
+     * @param globalCounts receives the global counts
+     * @param length the number of cells
+     */
+    public void decryptPackedCounts(PaillierPrivateKey privateKey, SlotPacker packer, BigInteger[] sums,
+                                    int[] globalCounts, int length) {
+        long startTime = System.nanoTime();
+        BigInteger[] plaintexts = new BigInteger[sums.length];
+        Arrays.parallelSetAll(plaintexts, i -> privateKey.decrypt(sums[i]));
+        packer.unpack(plaintexts, globalCounts, length);
+        costLedger.recordCrypto(System.nanoTime() - startTime);
+    }
+    
+    /**
+     * Checks that a count buffer covers every cell of a tensor.
+     * 
+     * @param counts the count buffer
+     * @param tensor the tensor
+     * @throws IllegalArgumentException if the buffer is too short
+     */
+    private static void checkLength(int[] counts, CountTensor tensor) {
+        if (counts.length < tensor.getLength()) {
+            throw new IllegalArgumentException("Count buffer holds " + counts.length +
+                " cells but the tensor has " + tensor.getLength());
+        }
+    }
+    
     /**
      * Computes information gain from global counts.
      * 
@@ -135,56 +320,50 @@ public class SecureInformationGainProtocol {
      * @return the information gain
      */
     public double computeInformationGain(int[][] globalCounts, int totalInstances) {
+        return computeInformationGain(flatten(globalCounts), 0, globalCounts.length,
+                                      globalCounts[0].length, totalInstances);
+    }
+    
+    /**
+     * Computes information gain from a global count matrix stored row-major
+     * in a flat buffer.
+     * 
+     * @param globalCounts the flat count buffer
+     * @param offset the offset of the matrix in the buffer
+     * @param numAttributeValues the number of distinct attribute values (matrix rows)
+     * @param numClassValues the number of distinct class values (matrix columns)
+     * @param totalInstances the total number of instances
+     * @return the information gain
+     */
+    public double computeInformationGain(int[] globalCounts, int offset, int numAttributeValues,
+                                         int numClassValues, int totalInstances) {
+        GainEvaluator evaluator = new GainEvaluator(numClassValues);
+        evaluator.evaluate(globalCounts, offset, numAttributeValues, numClassValues, totalInstances);
+        return evaluator.getInformationGain();
+    }
+    
+    /**
+     * Computes information gain from revealed sums of x ln x terms, as produced
+     * by {@link SecureXLogXProtocol}, so the global counts themselves stay shared.
+     * 
+     * @param cellTerms the sum of x ln x over the cells of the count matrix
+     * @param rowTerms the sum of x ln x over its attribute-value totals
+     * @param classTerms the sum of x ln x over its class totals
+     * @param countedInstances the number of instances in the matrix
+     * @param totalInstances the total number of instances
+     * @return the information gain in bits
+     */
+    public double computeInformationGainFromTerms(double cellTerms, double rowTerms, double classTerms,
+                                                  int countedInstances, int totalInstances) {
         if (totalInstances == 0) {
             return 0.0;
         }
         
-        // Calculate class entropy
-        double classEntropy = 0.0;
-        int[] classTotals = new int[globalCounts[0].length];
-        
-        // Sum up class totals
-        for (int i = 0; i < globalCounts.length; i++) {
-            for (int j = 0; j < globalCounts[i].length; j++) {
-                classTotals[j] += globalCounts[i][j];
-            }
-        }
-        
-        // Calculate class entropy
-        for (int j = 0; j < classTotals.length; j++) {
-            if (classTotals[j] > 0) {
-                double p = (double) classTotals[j] / totalInstances;
-                classEntropy -= p * Math.log(p) / Math.log(2);
-            }
-        }
-        
-        // Calculate conditional entropy
-        double conditionalEntropy = 0.0;
-        int[] attributeTotals = new int[globalCounts.length];
-        
-        // Sum up attribute totals
-        for (int i = 0; i < globalCounts.length; i++) {
-            for (int j = 0; j < globalCounts[i].length; j++) {
-                attributeTotals[i] += globalCounts[i][j];
-            }
-        }
-        
-        // Calculate conditional entropy
-        for (int i = 0; i < globalCounts.length; i++) {
-            if (attributeTotals[i] > 0) {
-                double attributeEntropy = 0.0;
-                for (int j = 0; j < globalCounts[i].length; j++) {
-                    if (globalCounts[i][j] > 0) {
-                        double p = (double) globalCounts[i][j] / attributeTotals[i];
-                        attributeEntropy -= p * Math.log(p) / Math.log(2);
-                    }
-                }
-                conditionalEntropy += (double) attributeTotals[i] / totalInstances * attributeEntropy;
-            }
-        }
-        
-        // Information gain = class entropy - conditional entropy
-        return classEntropy - conditionalEntropy;
+        // The same n log n identities as GainEvaluator, in natural logarithms
+        double countedTerm = countedInstances * Math.log(totalInstances);
+        double classEntropy = countedTerm - classTerms;
+        double conditionalEntropy = rowTerms - cellTerms;
+        return (classEntropy - conditionalEntropy) / (totalInstances * Math.log(2));
     }
     
     /**
@@ -196,35 +375,50 @@ public class SecureInformationGainProtocol {
      * @return the gain ratio
      */
     public double computeGainRatio(double informationGain, int[][] globalCounts, int totalInstances) {
-        if (totalInstances == 0) {
-            return 0.0;
-        }
-        
-        // Calculate split information
-        double splitInfo = 0.0;
-        int[] attributeTotals = new int[globalCounts.length];
-        
-        // Sum up attribute totals
-        for (int i = 0; i < globalCounts.length; i++) {
-            for (int j = 0; j < globalCounts[i].length; j++) {
-                attributeTotals[i] += globalCounts[i][j];
-            }
-        }
-        
-        // Calculate split information
-        for (int i = 0; i < attributeTotals.length; i++) {
-            if (attributeTotals[i] > 0) {
-                double p = (double) attributeTotals[i] / totalInstances;
-                splitInfo -= p * Math.log(p) / Math.log(2);
-            }
-        }
+        return computeGainRatio(informationGain, flatten(globalCounts), 0, globalCounts.length,
+                                globalCounts.length == 0 ? 0 : globalCounts[0].length, totalInstances);
+    }
+    
+    /**
+     * Computes gain ratio from information gain and the split information of a
+     * global count matrix stored row-major in a flat buffer.
+     * 
+     * @param informationGain the information gain
+     * @param globalCounts the flat count buffer
+     * @param offset the offset of the matrix in the buffer
+     * @param numAttributeValues the number of distinct attribute values (matrix rows)
+     * @param numClassValues the number of distinct class values (matrix columns)
+     * @param totalInstances the total number of instances
+     * @return the gain ratio
+     */
+    public double computeGainRatio(double informationGain, int[] globalCounts, int offset,
+                                   int numAttributeValues, int numClassValues, int totalInstances) {
+        GainEvaluator evaluator = new GainEvaluator(numClassValues);
+        evaluator.evaluate(globalCounts, offset, numAttributeValues, numClassValues, totalInstances);
         
         // Avoid division by zero
-        if (splitInfo < 1e-10) {
+        if (evaluator.getSplitInfo() < 1e-10) {
             return 0.0;
         }
         
         // Gain ratio = information gain / split information
-        return informationGain / splitInfo;
+        return informationGain / evaluator.getSplitInfo();
+    }
+    
+    /**
+     * Flattens a count matrix into a row-major buffer.
+     * 
+     * @param counts the count matrix
+     * @return the flat buffer
+     */
+    private static int[] flatten(int[][] counts) {
+        int numColumns = counts.length == 0 ? 0 : counts[0].length;
+        int[] flat = new int[counts.length * numColumns];
+        
+        for (int i = 0; i < counts.length; i++) {
+            System.arraycopy(counts[i], 0, flat, i * numColumns, numColumns);
+        }
+        
+        return flat;
     }
 }
@@ -0,0 +1,273 @@
+package com.distributed.c50.privacy;
+
+/**
+ * Batched two-party secure scalar product for vertically partitioned data,
+ * computing the joint counts of an attribute and the class when the two
+ * columns sit with different parties. Following Vaidya and Clifton, the count
+ * of (node k, value j, class c) is the dot product of the attribute holder's
+ * indicator vector for (k, j) with the class holder's indicator vector for c.
+ * One invocation covers every attribute value of every frontier node: the
+ * attribute side is a bit-packed {@link IndicatorMatrix} X with K vectors,
+ * the class side is the one-hot class matrix Y, and the engine computes
+ * additive shares of the K x C product X * Y modulo 2^32.
+ * <p>
+ * The protocol is the commodity-server scalar product of Du and Atallah in
+ * matrix form. A dealer hands out random Ra (K x n) and ra (K x C) to the
+ * attribute holder A, random Rb (n x C) to the class holder B, and the
+ * correction rb = Ra * Rb - ra to B. A sends X + Ra, B sends Y + Rb, and
+ * <pre>
+ *   shareA = X * (Y + Rb) + ra
+ *   shareB = rb - (X + Ra) * Rb
+ * </pre>
+ * add up to X * Y. The randomness is amortized: A's and B's matrices are
+ * expanded from keystreams whose keys each party shares with the dealer, so
+ * per batch the dealer only transfers the K x C correction, and the parties
+ * regenerate their matrices instead of storing them, or take them from a
+ * {@link CorrelatedRandomnessPool} that expanded them offline. A batch is identified by
+ * a stream number, which must never be reused under the same keys. Shares are
+ * linear in the rows, so large datasets can be processed as several batches
+ * over row blocks whose shares are added up.
+ * <p>
+ * Instances are not thread-safe.
+ */
+public class SecureScalarProduct {
+    private final int numVectors;
+    private final int numRows;
+    private final int numClassValues;
+
+    /**
+     * Creates a new scalar product engine for batches of one shape.
+     *
+     * @param numVectors the number of attribute-side indicator vectors (K)
+     * @param numRows the number of rows (n)
+     * @param numClassValues the number of class values (C)
+     */
+    public SecureScalarProduct(int numVectors, int numRows, int numClassValues) {
+        this.numVectors = numVectors;
+        this.numRows = numRows;
+        this.numClassValues = numClassValues;
+    }
+
+    /**
+     * Masks the attribute holder's indicators, as A. The result is sent to B.
+     *
+     * @param indicators the indicator vectors X
+     * @param generator the keystream shared with the dealer under A's key
+     * @param stream the batch's stream number
+     * @return X + Ra, K x n row-major
+     */
+    public int[] maskIndicators(IndicatorMatrix indicators, KeystreamSource generator, long stream) {
+        checkShape(indicators);
+
+        // The stream holds ra first, then Ra
+        int[] masked = new int[numVectors * numRows];
+        generator.restart(stream);
+        generator.fill(new int[numVectors * numClassValues], 0, numVectors * numClassValues);
+        generator.fill(masked, 0, masked.length);
+
+        long[] words = indicators.getWords();
+        int wordsPerVector = indicators.getWordsPerVector();
+        for (int v = 0; v < numVectors; v++) {
+            for (int w = 0; w < wordsPerVector; w++) {
+                long bits = words[v * wordsPerVector + w];
+                while (bits != 0) {
+                    int row = w * Long.SIZE + Long.numberOfTrailingZeros(bits);
+                    masked[v * numRows + row]++;
+                    bits &= bits - 1;
+                }
+            }
+        }
+
+        return masked;
+    }
+
+    /**
+     * Masks the class holder's one-hot class matrix, as B. The result is sent to A.
+     *
+     * @param classCodes the class code per row; negative codes mark rows without a class
+     * @param generator the keystream shared with the dealer under B's key
+     * @param stream the batch's stream number
+     * @return Y + Rb, n x C row-major
+     */
+    public int[] maskClasses(int[] classCodes, KeystreamSource generator, long stream) {
+        if (classCodes.length != numRows) {
+            throw new IllegalArgumentException("Expected " + numRows + " class codes: " + classCodes.length);
+        }
+
+        int[] masked = new int[numRows * numClassValues];
+        generator.restart(stream);
+        generator.fill(masked, 0, masked.length);
+
+        for (int row = 0; row < numRows; row++) {
+            int classValue = classCodes[row];
+            if (classValue >= 0 && classValue < numClassValues) {
+                masked[row * numClassValues + classValue]++;
+            }
+        }
+
+        return masked;
+    }
+
+    /**
+     * Computes the attribute holder's share of the counts, as A.
+     * Visits only the set bits of the indicators.
+     *
+     * @param indicators the indicator vectors X
+     * @param maskedClasses Y + Rb as received from B
+     * @param generator the keystream shared with the dealer under A's key
+     * @param stream the batch's stream number
+     * @return X * (Y + Rb) + ra, K x C row-major
+     */
+    public int[] attributeShare(IndicatorMatrix indicators, int[] maskedClasses,
+                                KeystreamSource generator, long stream) {
+        checkShape(indicators);
+
+        int[] share = new int[numVectors * numClassValues];
+        generator.restart(stream);
+        generator.fill(share, 0, share.length);
+
+        long[] words = indicators.getWords();
+        int wordsPerVector = indicators.getWordsPerVector();
+        for (int v = 0; v < numVectors; v++) {
+            int out = v * numClassValues;
+            for (int w = 0; w < wordsPerVector; w++) {
+                long bits = words[v * wordsPerVector + w];
+                while (bits != 0) {
+                    int in = (w * Long.SIZE + Long.numberOfTrailingZeros(bits)) * numClassValues;
+                    for (int c = 0; c < numClassValues; c++) {
+                        share[out + c] += maskedClasses[in + c];
+                    }
+                    bits &= bits - 1;
+                }
+            }
+        }
+
+        return share;
+    }
+
+    /**
+     * Computes the class holder's share of the counts, as B.
+     *
+     * @param maskedIndicators X + Ra as received from A
+     * @param correction rb = Ra * Rb - ra as received from the dealer
+     * @param generator the keystream shared with the dealer under B's key
+     * @param stream the batch's stream number
+     * @return rb - (X + Ra) * Rb, K x C row-major
+     */
+    public int[] classShare(int[] maskedIndicators, int[] correction,
+                            KeystreamSource generator, long stream) {
+        int[] rb = new int[numRows * numClassValues];
+        generator.restart(stream);
+        generator.fill(rb, 0, rb.length);
+
+        int[] share = correction.clone();
+        multiplySubtract(maskedIndicators, rb, share);
+        return share;
+    }
+
+    /**
+     * Computes the correction for a batch, as the dealer.
+     *
+     * @param attributeGenerator the keystream shared with A
+     * @param classGenerator the keystream shared with B
+     * @param stream the batch's stream number
+     * @return rb = Ra * Rb - ra, K x C row-major, to send to B
+     */
+    public int[] dealCorrection(KeystreamSource attributeGenerator,
+                                KeystreamSource classGenerator, long stream) {
+        int[] ra = new int[numVectors * numClassValues];
+        int[] attributeMasks = new int[numVectors * numRows];
+        attributeGenerator.restart(stream);
+        attributeGenerator.fill(ra, 0, ra.length);
+        attributeGenerator.fill(attributeMasks, 0, attributeMasks.length);
+
+        int[] classMasks = new int[numRows * numClassValues];
+        classGenerator.restart(stream);
+        classGenerator.fill(classMasks, 0, classMasks.length);
+
+        // rb = -(-Ra * Rb + ra)
+        multiplySubtract(attributeMasks, classMasks, ra);
+        for (int i = 0; i < ra.length; i++) {
+            ra[i] = -ra[i];
+        }
+        return ra;
+    }
+
+    /**
+     * Gets the number of keystream words the attribute holder reads per batch,
+     * the batch size of a pool precomputing its masks.
+     *
+     * @return the number of 64-bit words
+     * @throws ArithmeticException if the batch does not fit an array
+     */
+    public int getAttributeMaterialWords() {
+        return toWords((long) numVectors * numClassValues + (long) numVectors * numRows);
+    }
+
+    /**
+     * Gets the number of keystream words the class holder reads per batch,
+     * the batch size of a pool precomputing its masks.
+     *
+     * @return the number of 64-bit words
+     * @throws ArithmeticException if the batch does not fit an array
+     */
+    public int getClassMaterialWords() {
+        return toWords((long) numRows * numClassValues);
+    }
+
+    /**
+     * Converts a number of 32-bit masks into the 64-bit words holding them.
+     *
+     * @param numMasks the number of masks
+     * @return the number of words
+     */
+    private static int toWords(long numMasks) {
+        return Math.toIntExact((numMasks + 1) / 2);
+    }
+
+    /**
+     * Combines both shares into the joint counts.
+     *
+     * @param attributeShare A's share
+     * @param classShare B's share
+     * @param counts receives the counts, K x C row-major
+     */
+    public static void combine(int[] attributeShare, int[] classShare, int[] counts) {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = attributeShare[i] + classShare[i];
+        }
+    }
+
+    /**
+     * Subtracts the product of a K x n and an n x C matrix from a K x C matrix.
+     *
+     * @param left the K x n matrix
+     * @param right the n x C matrix
+     * @param result the K x C matrix, updated in place
+     */
+    private void multiplySubtract(int[] left, int[] right, int[] result) {
+        for (int v = 0; v < numVectors; v++) {
+            int out = v * numClassValues;
+            for (int row = 0; row < numRows; row++) {
+                int factor = left[v * numRows + row];
+                int in = row * numClassValues;
+                for (int c = 0; c < numClassValues; c++) {
+                    result[out + c] -= factor * right[in + c];
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks that an indicator matrix has the engine's shape.
+     *
+     * @param indicators the indicator matrix
+     * @throws IllegalArgumentException if the shape differs
+     */
+    private void checkShape(IndicatorMatrix indicators) {
+        if (indicators.getNumVectors() != numVectors || indicators.getNumRows() != numRows) {
+            throw new IllegalArgumentException("Expected " + numVectors + " indicator vectors over " +
+                numRows + " rows: " + indicators.getNumVectors() + " over " + indicators.getNumRows());
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.distributed.c50.privacy;
 
+import com.distributed.c50.common.CostLedger;
 import java.math.BigInteger;
 import java.security.SecureRandom;
 import java.util.ArrayList;
@@ -9,22 +10,220 @@ import java.util.List;
  * Implements secure sum protocol for privacy-preserving computation of sums
  * across multiple parties without revealing individual values.
  * Based on the approach described in the Vaidya and Clifton paper.
+ * <p>
+ * The bulk operations work on whole count tensors held in primitive arrays,
+ * with arithmetic modulo 2^64 (plain long overflow) or modulo a configurable
+ * prime. Masks are drawn from a {@link KeystreamMaskGenerator} seeded once
+ * from {@link SecureRandom}, or from any other {@link MaskSource}, such as a
+ * {@link MaskPool} that precomputes them in the background. The operations
+ * write into caller-supplied arrays, so masking and unmasking allocate nothing
+ * once the buffers have grown to the tensor size. The masks drawn and the time
+ * spent masking and unmasking are recorded in a {@link CostLedger}. Instances
+ * are not thread-safe.
  */
 public class SecureSumProtocol {
+    /**
+     * Modulus value selecting arithmetic modulo 2^64.
+     */
+    public static final long MODULUS_2_64 = 0L;
+    
+    /**
+     * Largest supported prime modulus; sums of two residues must not overflow a long.
+     */
+    public static final long MAX_PRIME_MODULUS = 1L << 62;
+    
     private final SecureRandom random;
     private final int numParties;
     private final String nodeId;
+    private final long modulus;
+    private final long rejectionLimit;
+    private final KeystreamMaskGenerator maskGenerator;
+    private MaskSource maskSource;
+    private CostLedger costLedger;
     
     /**
-     * Creates a new secure sum protocol instance.
+     * Creates a new secure sum protocol instance with arithmetic modulo 2^64.
      * 
      * @param nodeId the unique identifier of this node
      * @param numParties the number of participating parties
      */
     public SecureSumProtocol(String nodeId, int numParties) {
+        this(nodeId, numParties, MODULUS_2_64);
+    }
+    
+    /**
+     * Creates a new secure sum protocol instance.
+     * 
+     * @param nodeId the unique identifier of this node
+     * @param numParties the number of participating parties
+     * @param modulus a prime below {@link #MAX_PRIME_MODULUS}, or {@link #MODULUS_2_64}
+     * @throws IllegalArgumentException if the modulus is neither
+     */
+    public SecureSumProtocol(String nodeId, int numParties, long modulus) {
+        if (modulus != MODULUS_2_64 &&
+            (modulus < 2 || modulus >= MAX_PRIME_MODULUS || !BigInteger.valueOf(modulus).isProbablePrime(64))) {
+            throw new IllegalArgumentException("Modulus must be a prime below 2^62 or 0 for 2^64: " + modulus);
+        }
         this.nodeId = nodeId;
         this.numParties = numParties;
+        this.modulus = modulus;
+        this.rejectionLimit = modulus == MODULUS_2_64 ? -1L : rejectionLimit(modulus);
         this.random = new SecureRandom();
+        this.maskGenerator = new KeystreamMaskGenerator(random);
+        this.maskSource = maskGenerator;
+        this.costLedger = new CostLedger();
+    }
+    
+    /**
+     * Sets the source to draw masks from instead of generating them on demand,
+     * such as a pool of precomputed masks. The source must not be shared with
+     * other consumers.
+     * 
+     * @param maskSource the mask source, or null to generate masks on demand
+     */
+    public void setMaskSource(MaskSource maskSource) {
+        this.maskSource = maskSource != null ? maskSource : maskGenerator;
+    }
+    
+    /**
+     * Sets the ledger that records the costs of the bulk operations.
+     * 
+     * @param costLedger the cost ledger
+     */
+    public void setCostLedger(CostLedger costLedger) {
+        this.costLedger = costLedger;
+    }
+    
+    /**
+     * Gets the modulus of the bulk operations.
+     * 
+     * @return the prime modulus, or {@link #MODULUS_2_64}
+     */
+    public long getModulus() {
+        return modulus;
+    }
+    
+    /**
+     * Initiates a secure sum of a whole count tensor as the coordinator.
+     * Draws a fresh random mask per cell and writes the masked counts.
+     * 
+     * @param localCounts the local counts
+     * @param masks receives the random masks, which stay with the coordinator
+     * @param partialSums receives the masked counts sent to the next party
+     * @param length the number of cells
+     */
+    public void initiateSecureSum(int[] localCounts, long[] masks, long[] partialSums, int length) {
+        long startTime = System.nanoTime();
+        nextMasks(masks, length);
+        for (int i = 0; i < length; i++) {
+            partialSums[i] = add(masks[i], reduce(localCounts[i]));
+        }
+        costLedger.recordMasks(length);
+        costLedger.recordCrypto(System.nanoTime() - startTime);
+    }
+    
+    /**
+     * Participates in a secure sum of a whole count tensor by adding the local
+     * counts to the partial sums in place.
+     * 
+     * @param partialSums the masked partial sums, updated in place
+     * @param localCounts the local counts
+     * @param length the number of cells
+     */
+    public void participateInSecureSum(long[] partialSums, int[] localCounts, int length) {
+        long startTime = System.nanoTime();
+        for (int i = 0; i < length; i++) {
+            partialSums[i] = add(partialSums[i], reduce(localCounts[i]));
+        }
+        costLedger.recordCrypto(System.nanoTime() - startTime);
+    }
+    
+    /**
+     * Finalizes a secure sum of a whole count tensor as the coordinator by
+     * removing the masks.
+     * 
+     * @param partialSums the masked partial sums after all parties have added their counts
+     * @param masks the masks drawn when the sum was initiated
+     * @param sums receives the global counts
+     * @param length the number of cells
+     */
+    public void finalizeSecureSum(long[] partialSums, long[] masks, int[] sums, int length) {
+        long startTime = System.nanoTime();
+        for (int i = 0; i < length; i++) {
+            sums[i] = (int) subtract(partialSums[i], masks[i]);
+        }
+        costLedger.recordCrypto(System.nanoTime() - startTime);
+    }
+    
+    /**
+     * Fills an array with uniformly random masks. With a prime modulus, a
+     * 64-bit word is only reduced if it lies below the largest multiple of the
+     * modulus that fits in 64 bits; other words are redrawn, since reducing
+     * them would make the small residues more likely.
+     * 
+     * @param masks the array to fill
+     * @param length the number of masks
+     */
+    private void nextMasks(long[] masks, int length) {
+        maskSource.fill(masks, 0, length);
+        
+        if (modulus != MODULUS_2_64) {
+            for (int i = 0; i < length; i++) {
+                while (Long.compareUnsigned(masks[i], rejectionLimit) >= 0) {
+                    maskSource.fill(masks, i, 1);
+                }
+                masks[i] = Long.remainderUnsigned(masks[i], modulus);
+            }
+        }
+    }
+    
+    /**
+     * Computes the largest multiple of a prime that fits in 64 bits, below
+     * which words reduce uniformly modulo the prime.
+     * 
+     * @param prime the prime modulus
+     * @return the multiple, as an unsigned value
+     */
+    private static long rejectionLimit(long prime) {
+        // 2^64 mod p, from (2^64 - 1) mod p
+        long excess = (Long.remainderUnsigned(-1L, prime) + 1) % prime;
+        
+        // Only p = 2 divides 2^64; its largest multiple is 2^64 - 2
+        return excess == 0 ? -prime : -excess;
+    }
+    
+    /**
+     * Maps a count into the residues of the modulus.
+     * 
+     * @param value the count
+     * @return the residue
+     */
+    private long reduce(long value) {
+        return modulus == MODULUS_2_64 ? value : Math.floorMod(value, modulus);
+    }
+    
+    /**
+     * Adds two residues.
+     * 
+     * @param a the first residue
+     * @param b the second residue
+     * @return (a + b) mod the modulus
+     */
+    private long add(long a, long b) {
+        long sum = a + b;
+        return (modulus == MODULUS_2_64 || sum < modulus) ? sum : sum - modulus;
+    }
+    
+    /**
+     * Subtracts two residues.
+     * 
+     * @param a the residue to subtract from
+     * @param b the residue to subtract
+     * @return (a - b) mod the modulus
+     */
+    private long subtract(long a, long b) {
+        long difference = a - b;
+        return (modulus == MODULUS_2_64 || difference >= 0) ? difference : difference + modulus;
     }
     
     /**
@@ -32,7 +231,9 @@ public class SecureSumProtocol {
      * 
      * @param localValue the local value to include in the sum
      * @return a SecureSumState object containing the initial state
+     * @deprecated allocates two BigIntegers per value; use the bulk array operations
      */
+    @Deprecated
     public SecureSumState initiateSecureSum(int localValue) {
         // Generate a random value to mask the actual sum
         BigInteger randomMask = new BigInteger(32, random);
@@ -49,7 +250,9 @@ public class SecureSumProtocol {
      * @param state the current state of the secure sum computation
      * @param localValue the local value to add
      * @return the updated state
+     * @deprecated allocates two BigIntegers per value; use the bulk array operations
      */
+    @Deprecated
     public SecureSumState participateInSecureSum(SecureSumState state, int localValue) {
         // Add local value to the partial sum
         BigInteger updatedPartialSum = state.getPartialSum().add(BigInteger.valueOf(localValue));
@@ -65,7 +268,9 @@ public class SecureSumProtocol {
      * 
      * @param state the final state of the secure sum computation
      * @return the actual sum of all values
+     * @deprecated allocates two BigIntegers per value; use the bulk array operations
      */
+    @Deprecated
     public int finalizeSecureSum(SecureSumState state) {
         // Subtract the random mask to get the actual sum
         BigInteger actualSum = state.getPartialSum().subtract(state.getRandomMask());
@@ -139,7 +344,9 @@ public class SecureSumProtocol {
      * @param localValues the local array of values
      * @param valueCount the number of values in the array
      * @return a list of SecureSumState objects, one for each value
+     * @deprecated allocates two BigIntegers per value; use the bulk array operations
      */
+    @Deprecated
     public List<SecureSumState> initiateSecureSumArray(int[] localValues, int valueCount) {
         List<SecureSumState> states = new ArrayList<>(valueCount);
         
@@ -157,7 +364,9 @@ public class SecureSumProtocol {
      * @param states the current states of the secure sum computations
      * @param localValues the local array of values
      * @return the updated states
+     * @deprecated allocates two BigIntegers per value; use the bulk array operations
      */
+    @Deprecated
     public List<SecureSumState> participateInSecureSumArray(List<SecureSumState> states, int[] localValues) {
         List<SecureSumState> updatedStates = new ArrayList<>(states.size());
         
@@ -174,7 +383,9 @@ public class SecureSumProtocol {
      * 
      * @param states the final states of the secure sum computations
      * @return the array of actual sums
+     * @deprecated allocates two BigIntegers per value; use the bulk array operations
      */
+    @Deprecated
     public int[] finalizeSecureSumArray(List<SecureSumState> states) {
         int[] sums = new int[states.size()];
         
@@ -0,0 +1,709 @@
+package com.distributed.c50.privacy;
+
+import java.util.Arrays;
+
+/**
+ * Batched two-party evaluation of x ln x over additively shared counts, so
+ * entropy terms can be computed without any party seeing the counts. Two
+ * parties hold shares modulo 2^64 of a batch of counts, e.g. every cell, row
+ * total and class total of all candidate attributes of a tree level; for
+ * instance, a party that withholds its vector from {@link PairwiseMaskingProtocol}
+ * and the aggregator of all other vectors hold such shares. The protocol
+ * outputs shares of x ln x in fixed point with {@link #FRACTION_BITS}
+ * fractional bits. Sums of these shares are shares of the entropy sums, so
+ * only the combined terms need to be revealed.
+ * <p>
+ * The count range is split into buckets of 2^s counts, where s is chosen so
+ * the bucket index h = x >> s fits a table of 2^tableBits entries. The
+ * parties truncate their shares locally, open h under a random rotation and
+ * look up shares of the bucket constants with a dealer-supplied one-hot vector.
+ * Local truncation may round h up by one, so a count in bucket h can be
+ * looked up as h + 1. From bucket 2 on, x ln x is expanded around the bucket
+ * center c:
+ * <pre>
+ *   x ln x = c ln c + (1 + ln c)(x - c) + c * sum_{k &gt;= 2} (-1)^k d^k / (k(k - 1)),  d = (x - c) / c
+ * </pre>
+ * where |d| &lt;= 3/5 even for a rounded-up index, and the products are
+ * evaluated with Beaver triples. Near zero the series converges too slowly,
+ * so the counts below 2^(s + 1), whose index is 0 or 1, are looked up exactly
+ * instead: the parties also open x mod 2^(s + 1) under a second rotation and
+ * select shares of x ln x from an exact table. Buckets 0 and 1 carry zero
+ * constants and a flag, and the flag selects the exact value in the first
+ * multiplication round, so the small counts cost no extra round.
+ * <p>
+ * The first taylorTerms terms are kept, so the accuracy versus round count
+ * trade-off is set by two knobs: a larger table shrinks the buckets at the cost
+ * of dealer bandwidth and local work, and more Taylor terms reduce the series
+ * error at the cost of ceil(log2 taylorTerms) extra rounds. Each cell takes
+ * 2^tableBits + 2^(s + 1) one-hot entries, which is smallest when tableBits is
+ * about half the bit length of maxCount. If all counts fit the table, it is
+ * exact and the batch takes a single round. Every round opens all cells of the
+ * batch at once.
+ * <p>
+ * As in {@link SecureScalarProduct}, a dealer supplies the correlated
+ * randomness. Each party expands its share from a keystream it shares with the
+ * dealer, and the dealer sends the second party only the corrections. The
+ * expansion can be moved offline into a {@link CorrelatedRandomnessPool} of
+ * {@link #getMaterialWords(boolean)} words per batch, and the dealer's
+ * corrections likewise. Local
+ * truncation is exact up to one unit in the last place, except with
+ * probability about |value| / 2^64 per cell. Instances are not thread-safe.
+ */
+public class SecureXLogXProtocol {
+    /**
+     * Number of fractional bits of the fixed-point results.
+     */
+    public static final int FRACTION_BITS = 16;
+
+    private final int numCells;
+    private final int shift;
+    private final int tableSize;
+    private final int exactSize;
+    private final int taylorTerms;
+    private final boolean series;
+    private final int powerRounds;
+    private final int numMultiplications;
+    private final int numRounds;
+    private final long[] bucketTerms;
+    private final long[] slopes;
+    private final long[] inverses;
+    private final long[] centers;
+    private final long[] smallFlags;
+    private final long[] exactTerms;
+    private final long[] coefficients;
+    private final double errorBound;
+
+    private boolean first;
+    private int round;
+    private int multiplication;
+    private long[] counts;
+    private long[] buckets;
+    private long[] rotations;
+    private long[] exactRotations;
+    private long[] oneHot;
+    private long[] exactOneHot;
+    private long[][] tripleShares;
+    private long[] results;
+    private long[] offsets;
+    private long[] centerShares;
+    private long[][] powers;
+    private long[][] pendingLeft;
+    private long[][] pendingRight;
+
+    /**
+     * Creates a new engine for batches of one shape.
+     *
+     * @param numCells the number of counts per batch
+     * @param maxCount an upper bound on the counts, e.g. the number of rows
+     * @param tableBits the base-2 logarithm of the largest lookup table, between 1 and 20
+     * @param taylorTerms the number of Taylor terms kept, at least 1
+     * @throws IllegalArgumentException if a parameter is out of range
+     */
+    public SecureXLogXProtocol(int numCells, int maxCount, int tableBits, int taylorTerms) {
+        if (tableBits < 1 || tableBits > 20 || taylorTerms < 1 || maxCount < 0) {
+            throw new IllegalArgumentException("Invalid parameters: table bits " + tableBits +
+                ", Taylor terms " + taylorTerms + ", maximum count " + maxCount);
+        }
+
+        // One spare table bit absorbs the truncation's off-by-one
+        int countBits = 32 - Integer.numberOfLeadingZeros(maxCount);
+        this.numCells = numCells;
+        this.shift = Math.max(0, countBits + 1 - tableBits);
+        this.tableSize = 1 << (countBits - shift + 1);
+        this.exactSize = shift == 0 ? 0 : 1 << (shift + 1);
+        if ((long) numCells * (tableSize + exactSize) > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Batch of " + numCells + " cells is too large");
+        }
+        this.taylorTerms = taylorTerms;
+
+        // Rounds: lookup, linear term, d and small counts, powers of d, scaling by c
+        this.series = shift > 0 && taylorTerms >= 2;
+        this.powerRounds = series ? 32 - Integer.numberOfLeadingZeros(taylorTerms - 1) : 0;
+        this.numMultiplications = shift == 0 ? 0 : series ? taylorTerms + 3 : 2;
+        this.numRounds = shift == 0 ? 1 : series ? powerRounds + 3 : 2;
+
+        // Buckets 0 and 1 stay zero apart from their flag; the exact table covers them
+        this.bucketTerms = new long[tableSize];
+        this.slopes = new long[tableSize];
+        this.inverses = new long[tableSize];
+        this.centers = new long[tableSize];
+        this.smallFlags = new long[tableSize];
+        for (int h = 0; h < tableSize; h++) {
+            double center = center(h);
+            if (shift > 0 && h < 2) {
+                smallFlags[h] = 1;
+            } else if (center > 0) {
+                bucketTerms[h] = Math.round(Math.scalb(center * Math.log(center), FRACTION_BITS));
+                slopes[h] = Math.round(Math.scalb(1.0 + Math.log(center), FRACTION_BITS));
+                inverses[h] = Math.round(Math.scalb(1.0 / center, FRACTION_BITS + shift));
+                centers[h] = (long) center;
+            }
+        }
+        this.exactTerms = new long[exactSize];
+        for (int x = 2; x < exactSize; x++) {
+            exactTerms[x] = Math.round(Math.scalb(x * Math.log(x), FRACTION_BITS));
+        }
+        this.coefficients = new long[taylorTerms + 1];
+        for (int k = 2; k <= taylorTerms; k++) {
+            double coefficient = (k % 2 == 0 ? 1.0 : -1.0) / (k * (k - 1.0));
+            coefficients[k] = Math.round(Math.scalb(coefficient, FRACTION_BITS));
+        }
+        this.errorBound = seriesErrorBound() + roundingErrorBound(maxCount);
+    }
+
+    /**
+     * Bounds the error of the truncated series over all expanded buckets. A
+     * count looked up in bucket h lies at least 3/2 buckets below the center,
+     * and for negative d every dropped term has the same sign, so the remainder
+     * at d = -3 / (2h + 1) bounds the bucket.
+     *
+     * @return the largest error in any bucket, 0 if the table is exact
+     */
+    private double seriesErrorBound() {
+        double bound = 0.0;
+        for (int h = 2; shift > 0 && h < tableSize; h++) {
+            double d = -3.0 / (2.0 * h + 1.0);
+            double remainder = (1.0 + d) * Math.log1p(d) - d;
+            double power = d;
+            for (int k = 2; k <= taylorTerms; k++) {
+                power *= d;
+                remainder -= (k % 2 == 0 ? 1.0 : -1.0) * power / (k * (k - 1.0));
+            }
+            bound = Math.max(bound, center(h) * Math.abs(remainder));
+        }
+        return bound;
+    }
+
+    /**
+     * Bounds the fixed-point rounding of a result in units of 2^-F. Table
+     * constants are rounded to half a unit, the slope's rounding is scaled by
+     * |x - c| &lt; 2^(s + 1), and d, each power of d, the coefficients and the
+     * truncated series each add up to about a unit, at most 6 + ln taylorTerms
+     * units in all, which the product with the center scales by c.
+     *
+     * @param maxCount an upper bound on the counts
+     * @return the largest rounding error
+     */
+    private double roundingErrorBound(int maxCount) {
+        if (shift == 0) {
+            return Math.scalb(0.5, -FRACTION_BITS);
+        }
+        double maxCenter = maxCount + Math.scalb(1.5, shift);
+        double seriesUnits = series ? maxCenter * (6.0 + Math.log(taylorTerms)) : 0.0;
+        return Math.scalb(1.0 + Math.scalb(1.0, shift + 1) + seriesUnits, -FRACTION_BITS);
+    }
+
+    /**
+     * Gets the center of a bucket: the count itself if buckets are single
+     * counts, the middle of the bucket otherwise.
+     *
+     * @param bucket the bucket index
+     * @return the center
+     */
+    private double center(int bucket) {
+        return shift == 0 ? bucket : Math.scalb(2.0 * bucket + 1.0, shift - 1);
+    }
+
+    /**
+     * Computes the corrections for a batch, as the dealer.
+     *
+     * @param firstGenerator the keystream shared with the first party
+     * @param secondGenerator the keystream shared with the second party
+     * @param stream the batch's stream number
+     * @return the one-hot shares and triple products of the second party, to send to it
+     */
+    public long[] dealCorrections(KeystreamSource firstGenerator,
+                                  KeystreamSource secondGenerator, long stream) {
+        int oneHotLength = numCells * (tableSize + exactSize);
+        long[] corrections = new long[oneHotLength + numMultiplications * numCells];
+
+        // Step 1: Regenerate the first party's material
+        long[] firstRotations = new long[numCells];
+        long[] firstExactRotations = new long[numCells];
+        long[][] firstTriples = new long[3 * numMultiplications][numCells];
+        firstGenerator.restart(stream);
+        firstGenerator.fill(firstRotations, 0, numCells);
+        if (exactSize > 0) {
+            firstGenerator.fill(firstExactRotations, 0, numCells);
+        }
+        firstGenerator.fill(corrections, 0, oneHotLength);
+        for (long[] triple : firstTriples) {
+            firstGenerator.fill(triple, 0, numCells);
+        }
+
+        // Step 2: Regenerate the second party's material
+        long[] secondRotations = new long[numCells];
+        long[] secondExactRotations = new long[numCells];
+        long[][] secondTriples = new long[2 * numMultiplications][numCells];
+        secondGenerator.restart(stream);
+        secondGenerator.fill(secondRotations, 0, numCells);
+        if (exactSize > 0) {
+            secondGenerator.fill(secondExactRotations, 0, numCells);
+        }
+        for (long[] triple : secondTriples) {
+            secondGenerator.fill(triple, 0, numCells);
+        }
+
+        // Step 3: The second party's one-hot shares are the rotations minus the first party's shares
+        for (int i = 0; i < oneHotLength; i++) {
+            corrections[i] = -corrections[i];
+        }
+        int exactBase = numCells * tableSize;
+        for (int cell = 0; cell < numCells; cell++) {
+            corrections[cell * tableSize + index(firstRotations[cell] + secondRotations[cell])]++;
+            if (exactSize > 0) {
+                corrections[exactBase + cell * exactSize +
+                            exactIndex(firstExactRotations[cell] + secondExactRotations[cell])]++;
+            }
+        }
+
+        // Step 4: The second party's product share completes a * b
+        int out = oneHotLength;
+        for (int m = 0; m < numMultiplications; m++) {
+            for (int cell = 0; cell < numCells; cell++) {
+                long a = firstTriples[3 * m][cell] + secondTriples[2 * m][cell];
+                long b = firstTriples[3 * m + 1][cell] + secondTriples[2 * m + 1][cell];
+                corrections[out++] = a * b - firstTriples[3 * m + 2][cell];
+            }
+        }
+
+        return corrections;
+    }
+
+    /**
+     * Starts a batch as one of the two parties, drawing its share of the
+     * correlated randomness.
+     *
+     * @param firstParty true for the first party, false for the second
+     * @param shares this party's shares of the counts, modulo 2^64
+     * @param generator the keystream shared with the dealer, or a pool precomputing it
+     * @param stream the batch's stream number
+     * @param corrections the dealer's corrections for the second party, or null for the first
+     * @throws IllegalArgumentException if the shares or corrections have the wrong length
+     */
+    public void start(boolean firstParty, long[] shares, KeystreamSource generator,
+                      long stream, long[] corrections) {
+        if (shares.length != numCells) {
+            throw new IllegalArgumentException("Expected " + numCells + " shares: " + shares.length);
+        }
+        this.first = firstParty;
+        this.round = 0;
+        this.multiplication = 0;
+        this.counts = shares.clone();
+        this.rotations = new long[numCells];
+        this.exactRotations = new long[numCells];
+        this.tripleShares = new long[3 * numMultiplications][];
+
+        int exactBase = numCells * tableSize;
+        int oneHotLength = exactBase + numCells * exactSize;
+        generator.restart(stream);
+        generator.fill(rotations, 0, numCells);
+        if (exactSize > 0) {
+            generator.fill(exactRotations, 0, numCells);
+        }
+        if (firstParty) {
+            oneHot = new long[exactBase];
+            exactOneHot = new long[numCells * exactSize];
+            generator.fill(oneHot, 0, oneHot.length);
+            generator.fill(exactOneHot, 0, exactOneHot.length);
+            for (int t = 0; t < tripleShares.length; t++) {
+                tripleShares[t] = new long[numCells];
+                generator.fill(tripleShares[t], 0, numCells);
+            }
+        } else {
+            if (corrections == null || corrections.length != oneHotLength + numMultiplications * numCells) {
+                throw new IllegalArgumentException("Missing or malformed dealer corrections");
+            }
+            oneHot = Arrays.copyOf(corrections, exactBase);
+            exactOneHot = Arrays.copyOfRange(corrections, exactBase, oneHotLength);
+            for (int m = 0; m < numMultiplications; m++) {
+                tripleShares[3 * m] = new long[numCells];
+                tripleShares[3 * m + 1] = new long[numCells];
+                generator.fill(tripleShares[3 * m], 0, numCells);
+                generator.fill(tripleShares[3 * m + 1], 0, numCells);
+                int from = oneHotLength + m * numCells;
+                tripleShares[3 * m + 2] = Arrays.copyOfRange(corrections, from, from + numCells);
+            }
+        }
+
+        // The bucket index is the locally truncated count
+        buckets = new long[numCells];
+        for (int cell = 0; cell < numCells; cell++) {
+            buckets[cell] = truncate(counts[cell], shift);
+        }
+    }
+
+    /**
+     * Computes this party's message for the current round.
+     *
+     * @return the values to send to the other party
+     * @throws IllegalStateException if the batch has not been started or is complete
+     */
+    public long[] nextMessage() {
+        if (counts == null || isComplete()) {
+            throw new IllegalStateException("No round in progress");
+        }
+
+        if (round == 0) {
+            // The rotated bucket index, followed by the rotated count if small counts are exact
+            long[] message = new long[exactSize > 0 ? 2 * numCells : numCells];
+            for (int cell = 0; cell < numCells; cell++) {
+                message[cell] = buckets[cell] + rotations[cell];
+            }
+            if (exactSize > 0) {
+                for (int cell = 0; cell < numCells; cell++) {
+                    message[numCells + cell] = counts[cell] + exactRotations[cell];
+                }
+            }
+            return message;
+        }
+
+        // A multiplication round opens x - a and y - b for each of its products
+        long[] message = new long[2 * pendingLeft.length * numCells];
+        for (int p = 0; p < pendingLeft.length; p++) {
+            long[] a = tripleShares[3 * (multiplication + p)];
+            long[] b = tripleShares[3 * (multiplication + p) + 1];
+            for (int cell = 0; cell < numCells; cell++) {
+                message[2 * p * numCells + cell] = pendingLeft[p][cell] - a[cell];
+                message[(2 * p + 1) * numCells + cell] = pendingRight[p][cell] - b[cell];
+            }
+        }
+        return message;
+    }
+
+    /**
+     * Completes the current round with the other party's message.
+     *
+     * @param peerMessage the other party's message for this round
+     * @throws IllegalArgumentException if the message has the wrong length
+     */
+    public void receive(long[] peerMessage) {
+        long[] own = nextMessage();
+        if (peerMessage.length != own.length) {
+            throw new IllegalArgumentException("Expected " + own.length + " values: " + peerMessage.length);
+        }
+
+        if (round == 0) {
+            finishLookup(own, peerMessage);
+        } else {
+            long[][] products = finishMultiplications(own, peerMessage);
+            finishArithmetic(products);
+        }
+        round++;
+    }
+
+    /**
+     * Completes the lookup round: reads this party's shares of the bucket
+     * constants and of the exact term, and schedules the linear term, d and
+     * the selection of the exact term for small counts.
+     *
+     * @param own this party's opened values
+     * @param peer the other party's opened values
+     */
+    private void finishLookup(long[] own, long[] peer) {
+        results = new long[numCells];
+        long[] slopeShares = new long[numCells];
+        long[] inverseShares = new long[numCells];
+        long[] smallShares = new long[numCells];
+        long[] exactShares = new long[numCells];
+        centerShares = new long[numCells];
+        offsets = new long[numCells];
+
+        for (int cell = 0; cell < numCells; cell++) {
+            // The rotated tables dotted with the one-hot share select bucket h
+            int opened = index(own[cell] + peer[cell]);
+            int base = cell * tableSize;
+            long term = 0;
+            long slope = 0;
+            long inverse = 0;
+            long centerShare = 0;
+            long small = 0;
+            for (int j = 0; j < tableSize; j++) {
+                long hot = oneHot[base + j];
+                int entry = index(opened - j);
+                term += bucketTerms[entry] * hot;
+                slope += slopes[entry] * hot;
+                inverse += inverses[entry] * hot;
+                centerShare += centers[entry] * hot;
+                small += smallFlags[entry] * hot;
+            }
+            results[cell] = term;
+            slopeShares[cell] = slope;
+            inverseShares[cell] = inverse;
+            centerShares[cell] = centerShare;
+            smallShares[cell] = small;
+
+            // The same for the exact table, indexed by the count itself
+            if (exactSize > 0) {
+                int openedCount = exactIndex(own[numCells + cell] + peer[numCells + cell]);
+                int exactBase = cell * exactSize;
+                long exact = 0;
+                for (int j = 0; j < exactSize; j++) {
+                    exact += exactTerms[exactIndex(openedCount - j)] * exactOneHot[exactBase + j];
+                }
+                exactShares[cell] = exact;
+            }
+
+            // x - c; zero centers leave small counts to the exact term
+            offsets[cell] = counts[cell] - centerShare;
+        }
+
+        if (numRounds > 1) {
+            if (series) {
+                schedule(new long[][] { slopeShares, inverseShares, smallShares },
+                         new long[][] { offsets, offsets, exactShares });
+            } else {
+                schedule(new long[][] { slopeShares, smallShares }, new long[][] { offsets, exactShares });
+            }
+        }
+    }
+
+    /**
+     * Finishes the Beaver multiplications of the current round.
+     *
+     * @param own this party's opened values
+     * @param peer the other party's opened values
+     * @return this party's shares of the products
+     */
+    private long[][] finishMultiplications(long[] own, long[] peer) {
+        long[][] products = new long[pendingLeft.length][numCells];
+        for (int p = 0; p < pendingLeft.length; p++) {
+            long[] a = tripleShares[3 * multiplication];
+            long[] b = tripleShares[3 * multiplication + 1];
+            long[] ab = tripleShares[3 * multiplication + 2];
+            for (int cell = 0; cell < numCells; cell++) {
+                long d = own[2 * p * numCells + cell] + peer[2 * p * numCells + cell];
+                long e = own[(2 * p + 1) * numCells + cell] + peer[(2 * p + 1) * numCells + cell];
+                products[p][cell] = ab[cell] + d * b[cell] + e * a[cell] + (first ? d * e : 0L);
+            }
+            multiplication++;
+        }
+        return products;
+    }
+
+    /**
+     * Uses the products of a multiplication round and schedules the next one.
+     *
+     * @param products this party's shares of the products
+     */
+    private void finishArithmetic(long[][] products) {
+        int next = round + 1;
+
+        if (round == 1) {
+            // Linear term, exact term of small counts, and d = (x - c) * 2^(F + s) / c truncated by s
+            add(results, products[0]);
+            add(results, products[products.length - 1]);
+            if (!series) {
+                return;
+            }
+            powers = new long[taylorTerms + 1][];
+            powers[1] = new long[numCells];
+            for (int cell = 0; cell < numCells; cell++) {
+                powers[1][cell] = truncate(products[1][cell], shift);
+            }
+        } else if (round <= powerRounds + 1) {
+            int low = 1 << (round - 2);
+            for (int p = 0; p < products.length; p++) {
+                powers[low + 1 + p] = new long[numCells];
+                for (int cell = 0; cell < numCells; cell++) {
+                    powers[low + 1 + p][cell] = truncate(products[p][cell], FRACTION_BITS);
+                }
+            }
+        } else {
+            // Scaled series term
+            add(results, products[0]);
+            return;
+        }
+
+        if (next <= powerRounds + 1) {
+            // d^k = d^low * d^(k - low) for every k in (low, 2 * low]
+            int low = 1 << (next - 2);
+            int high = Math.min(2 * low, taylorTerms);
+            long[][] left = new long[high - low][];
+            long[][] right = new long[high - low][];
+            for (int k = low + 1; k <= high; k++) {
+                left[k - low - 1] = powers[low];
+                right[k - low - 1] = powers[k - low];
+            }
+            schedule(left, right);
+        } else {
+            // c * sum_k coefficient_k d^k
+            long[] seriesShares = new long[numCells];
+            for (int cell = 0; cell < numCells; cell++) {
+                long sum = 0;
+                for (int k = 2; k <= taylorTerms; k++) {
+                    sum += coefficients[k] * powers[k][cell];
+                }
+                seriesShares[cell] = truncate(sum, FRACTION_BITS);
+            }
+            schedule(new long[][] { centerShares }, new long[][] { seriesShares });
+        }
+    }
+
+    /**
+     * Schedules the products of the next round.
+     *
+     * @param left the left factors, one share vector per product
+     * @param right the right factors, one share vector per product
+     */
+    private void schedule(long[][] left, long[][] right) {
+        pendingLeft = left;
+        pendingRight = right;
+    }
+
+    /**
+     * Adds a share vector to another in place.
+     *
+     * @param sums the vector to add to
+     * @param values the vector to add
+     */
+    private static void add(long[] sums, long[] values) {
+        for (int i = 0; i < sums.length; i++) {
+            sums[i] += values[i];
+        }
+    }
+
+    /**
+     * Truncates this party's share of a value by a number of bits. The two
+     * shifted shares add up to the shifted value, possibly plus one.
+     *
+     * @param share this party's share
+     * @param bits the number of bits
+     * @return the truncated share
+     */
+    private long truncate(long share, int bits) {
+        return first ? share >>> bits : -((-share) >>> bits);
+    }
+
+    /**
+     * Reduces a value modulo the table size.
+     *
+     * @param value the value
+     * @return the table index
+     */
+    private int index(long value) {
+        return (int) (value & (tableSize - 1));
+    }
+
+    /**
+     * Reduces a value modulo the exact table size.
+     *
+     * @param value the value
+     * @return the exact table index
+     */
+    private int exactIndex(long value) {
+        return (int) (value & (exactSize - 1));
+    }
+
+    /**
+     * Checks whether all rounds of the batch have been completed.
+     *
+     * @return true if the results are available, false otherwise
+     */
+    public boolean isComplete() {
+        return round >= numRounds;
+    }
+
+    /**
+     * Gets this party's shares of x ln x.
+     *
+     * @return the fixed-point shares, one per cell
+     * @throws IllegalStateException if the batch is not complete
+     */
+    public long[] getResults() {
+        if (counts == null || !isComplete()) {
+            throw new IllegalStateException("Batch is not complete");
+        }
+        return results;
+    }
+
+    /**
+     * Gets the number of rounds per batch.
+     *
+     * @return the number of message exchanges
+     */
+    public int getNumRounds() {
+        return numRounds;
+    }
+
+    /**
+     * Gets the number of lookup table entries.
+     *
+     * @return the table size
+     */
+    public int getTableSize() {
+        return tableSize;
+    }
+
+    /**
+     * Gets a bound on the absolute error of a result: the error of the
+     * truncated series plus fixed-point rounding. The bound covers bucket
+     * indices that local truncation rounds up; counts below 2^(s + 1) are
+     * exact up to rounding.
+     *
+     * @return the error bound, 0 if every count has its own table entry
+     */
+    public double getErrorBound() {
+        return errorBound;
+    }
+
+    /**
+     * Gets the number of keystream words a party reads per batch, the batch
+     * size of a pool precomputing its material.
+     *
+     * @param firstParty true for the first party, false for the second
+     * @return the number of 64-bit words
+     * @throws ArithmeticException if the batch does not fit an array
+     */
+    public int getMaterialWords(boolean firstParty) {
+        long rotationWords = (exactSize > 0 ? 2L : 1L) * numCells;
+        long oneHotWords = (long) numCells * (tableSize + exactSize);
+        return Math.toIntExact(firstParty ?
+            rotationWords + oneHotWords + 3L * numMultiplications * numCells :
+            rotationWords + 2L * numMultiplications * numCells);
+    }
+
+    /**
+     * Gets the number of words of the dealer's corrections per batch.
+     *
+     * @return the length of {@link #dealCorrections}'s result
+     */
+    public int getCorrectionWords() {
+        return numCells * (tableSize + exactSize) + numMultiplications * numCells;
+    }
+
+    /**
+     * Gets the number of exact table entries for small counts.
+     *
+     * @return the exact table size, 0 if the bucket table is exact
+     */
+    public int getExactTableSize() {
+        return exactSize;
+    }
+
+    /**
+     * Sums a range of fixed-point shares, e.g. all cells of one attribute.
+     *
+     * @param shares the shares
+     * @param offset the first share
+     * @param length the number of shares
+     * @return the share of the sum
+     */
+    public static long sum(long[] shares, int offset, int length) {
+        long sum = 0;
+        for (int i = offset; i < offset + length; i++) {
+            sum += shares[i];
+        }
+        return sum;
+    }
+
+    /**
+     * Decodes a revealed fixed-point value.
+     *
+     * @param value the sum of both parties' shares
+     * @return the value as a double
+     */
+    public static double decode(long value) {
+        return Math.scalb((double) value, -FRACTION_BITS);
+    }
+}
@@ -0,0 +1,212 @@
+package com.distributed.c50.privacy;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+/**
+ * Packs many bounded counts into each homomorphic plaintext.
+ * Every count gets a fixed-width slot, wide enough to hold the sum of that
+ * cell over all parties: no count exceeds the rows of its party, so a slot of
+ * ceil(log2(numParties * maxRowsPerParty + 1)) bits can never overflow into
+ * its neighbour when the ciphertexts of all parties are added. Slot i of a
+ * plaintext occupies bits [i * slotBits, (i + 1) * slotBits), and the packed
+ * value stays below the plaintext modulus.
+ * <p>
+ * With a 2048-bit key and, say, three parties of a million rows each, a slot
+ * takes 22 bits and one ciphertext carries 93 counts, cutting encryption,
+ * transfer and decryption costs by the same factor. Instances are immutable
+ * and thread-safe.
+ */
+public class SlotPacker {
+    private final int slotBits;
+    private final int slotsPerPlaintext;
+
+    /**
+     * Creates a new packer.
+     *
+     * @param plaintextBits the number of bits available per plaintext
+     * @param numParties the number of parties whose counts are added
+     * @param maxRowsPerParty the largest number of rows held by any party
+     * @throws IllegalArgumentException if not even one slot fits
+     */
+    public SlotPacker(int plaintextBits, int numParties, int maxRowsPerParty) {
+        long maxSum = (long) numParties * maxRowsPerParty;
+        this.slotBits = Math.max(1, 64 - Long.numberOfLeadingZeros(maxSum));
+        if (slotBits > Integer.SIZE - 1) {
+            throw new IllegalArgumentException("Global counts up to " + maxSum + " do not fit an int");
+        }
+        this.slotsPerPlaintext = plaintextBits / slotBits;
+        if (slotsPerPlaintext == 0) {
+            throw new IllegalArgumentException("A " + slotBits + "-bit slot does not fit " +
+                plaintextBits + " plaintext bits");
+        }
+    }
+
+    /**
+     * Creates a packer whose plaintexts stay below the modulus of a Paillier key.
+     *
+     * @param publicKey the public key
+     * @param numParties the number of parties whose counts are added
+     * @param maxRowsPerParty the largest number of rows held by any party
+     * @return the packer
+     */
+    public static SlotPacker forKey(PaillierPublicKey publicKey, int numParties, int maxRowsPerParty) {
+        return new SlotPacker(publicKey.getModulus().bitLength() - 1, numParties, maxRowsPerParty);
+    }
+
+    /**
+     * Gets the width of a slot.
+     *
+     * @return the number of bits per count
+     */
+    public int getSlotBits() {
+        return slotBits;
+    }
+
+    /**
+     * Gets the number of counts carried by one plaintext.
+     *
+     * @return the number of slots
+     */
+    public int getSlotsPerPlaintext() {
+        return slotsPerPlaintext;
+    }
+
+    /**
+     * Gets the number of plaintexts needed for a count buffer.
+     *
+     * @param length the number of counts
+     * @return the number of plaintexts
+     */
+    public int getNumPlaintexts(int length) {
+        return (length + slotsPerPlaintext - 1) / slotsPerPlaintext;
+    }
+
+    /**
+     * Packs counts into plaintexts.
+     *
+     * @param counts the counts, each in [0, 2^slotBits)
+     * @param length the number of counts
+     * @return the packed plaintexts
+     * @throws IllegalArgumentException if a count does not fit its slot
+     */
+    public BigInteger[] pack(int[] counts, int length) {
+        BigInteger[] plaintexts = new BigInteger[getNumPlaintexts(length)];
+        long[] words = new long[wordsPerPlaintext()];
+        long slotLimit = 1L << slotBits;
+
+        for (int p = 0; p < plaintexts.length; p++) {
+            Arrays.fill(words, 0L);
+            int first = p * slotsPerPlaintext;
+            int last = Math.min(first + slotsPerPlaintext, length);
+            for (int i = first; i < last; i++) {
+                if (counts[i] < 0 || counts[i] >= slotLimit) {
+                    throw new IllegalArgumentException("Count " + counts[i] + " at " + i +
+                        " does not fit a " + slotBits + "-bit slot");
+                }
+                writeSlot(words, (i - first) * slotBits, counts[i]);
+            }
+            plaintexts[p] = toBigInteger(words);
+        }
+
+        return plaintexts;
+    }
+
+    /**
+     * Unpacks plaintexts into counts.
+     *
+     * @param plaintexts the packed plaintexts
+     * @param counts receives the counts
+     * @param length the number of counts
+     */
+    public void unpack(BigInteger[] plaintexts, int[] counts, int length) {
+        long[] words = new long[wordsPerPlaintext()];
+
+        for (int p = 0; p < plaintexts.length; p++) {
+            fromBigInteger(plaintexts[p], words);
+            int first = p * slotsPerPlaintext;
+            int last = Math.min(first + slotsPerPlaintext, length);
+            for (int i = first; i < last; i++) {
+                counts[i] = (int) readSlot(words, (i - first) * slotBits);
+            }
+        }
+    }
+
+    /**
+     * Gets the number of 64-bit words covering the slots of one plaintext.
+     *
+     * @return the number of words
+     */
+    private int wordsPerPlaintext() {
+        return (slotsPerPlaintext * slotBits + Long.SIZE - 1) / Long.SIZE;
+    }
+
+    /**
+     * Writes a value into a little-endian bit array; the target bits must be zero.
+     *
+     * @param words the bit array
+     * @param bit the position of the slot's lowest bit
+     * @param value the value, less than 2^slotBits
+     */
+    private void writeSlot(long[] words, int bit, long value) {
+        int word = bit >>> 6;
+        int shift = bit & 63;
+        words[word] |= value << shift;
+        if (shift + slotBits > Long.SIZE) {
+            words[word + 1] |= value >>> (Long.SIZE - shift);
+        }
+    }
+
+    /**
+     * Reads a slot from a little-endian bit array.
+     *
+     * @param words the bit array
+     * @param bit the position of the slot's lowest bit
+     * @return the slot's value
+     */
+    private long readSlot(long[] words, int bit) {
+        int word = bit >>> 6;
+        int shift = bit & 63;
+        long value = words[word] >>> shift;
+        if (shift + slotBits > Long.SIZE) {
+            value |= words[word + 1] << (Long.SIZE - shift);
+        }
+        return value & ((1L << slotBits) - 1);
+    }
+
+    /**
+     * Converts a little-endian bit array into a non-negative integer.
+     *
+     * @param words the bit array
+     * @return the integer
+     */
+    private static BigInteger toBigInteger(long[] words) {
+        byte[] bytes = new byte[words.length * Long.BYTES];
+        for (int w = 0; w < words.length; w++) {
+            long word = words[w];
+            int end = bytes.length - w * Long.BYTES;
+            for (int b = 1; b <= Long.BYTES; b++) {
+                bytes[end - b] = (byte) word;
+                word >>>= 8;
+            }
+        }
+        return new BigInteger(1, bytes);
+    }
+
+    /**
+     * Converts a non-negative integer into a little-endian bit array,
+     * dropping any bits beyond the array.
+     *
+     * @param value the integer
+     * @param words receives the bit array
+     */
+    private static void fromBigInteger(BigInteger value, long[] words) {
+        byte[] bytes = value.toByteArray();
+        Arrays.fill(words, 0L);
+        for (int i = 0; i < bytes.length && i < words.length * Long.BYTES; i++) {
+            // bytes are big-endian; byte i from the end holds bits [8i, 8i + 8)
+            long b = bytes[bytes.length - 1 - i] & 0xFFL;
+            words[i >>> 3] |= b << ((i & 7) * 8);
+        }
+    }
+}
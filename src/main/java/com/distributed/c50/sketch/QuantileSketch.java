@@ -0,0 +1,330 @@
+package com.distributed.c50.sketch;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Mergeable quantile sketch for numeric attributes, following the KLL design.
+ * Values are kept in a hierarchy of compactors; an item at level h stands for
+ * 2^h input values. When a level overflows it is sorted and every other item is
+ * promoted to the next level, so memory stays O(k log(n / k)) while rank errors
+ * stay around 1.7 / k. Sketches built by different parties over their own rows
+ * can be merged into one sketch of the union.
+ * <p>
+ * Whether a compaction keeps the odd or the even items is decided by a coin
+ * flip, which keeps the rank estimates unbiased; the coin is seeded, so the
+ * sketch is deterministic for a given input order.
+ */
+public class QuantileSketch {
+    /**
+     * Default accuracy parameter; gives rank errors of roughly one percent.
+     */
+    public static final int DEFAULT_K = 200;
+
+    /**
+     * Capacity ratio between consecutive levels.
+     */
+    private static final double CAPACITY_DECAY = 2.0 / 3.0;
+
+    /**
+     * Smallest capacity of any level.
+     */
+    private static final int MIN_CAPACITY = 2;
+
+    /**
+     * Seed of the compaction coin.
+     */
+    private static final long SEED = 0x5eed;
+
+    private final int k;
+    private final List<double[]> levels;
+    private final List<Integer> levelSizes;
+    private final Random random;
+    private long count;
+    private double min;
+    private double max;
+
+    /**
+     * Creates a new, empty sketch with the default accuracy.
+     */
+    public QuantileSketch() {
+        this(DEFAULT_K);
+    }
+
+    /**
+     * Creates a new, empty sketch.
+     *
+     * @param k the accuracy parameter; larger values use more memory and give smaller errors
+     */
+    public QuantileSketch(int k) {
+        if (k < MIN_CAPACITY) {
+            throw new IllegalArgumentException("k must be at least " + MIN_CAPACITY + ": " + k);
+        }
+        this.k = k;
+        this.levels = new ArrayList<>();
+        this.levelSizes = new ArrayList<>();
+        this.random = new Random(SEED);
+        this.min = Double.NaN;
+        this.max = Double.NaN;
+        addLevel();
+    }
+
+    /**
+     * Adds a value to the sketch. Missing (NaN) values are ignored.
+     *
+     * @param value the value to add
+     */
+    public void update(double value) {
+        if (Double.isNaN(value)) {
+            return;
+        }
+
+        if (count == 0 || value < min) {
+            min = value;
+        }
+        if (count == 0 || value > max) {
+            max = value;
+        }
+        count++;
+
+        // Only an overflow of the bottom level can trigger compactions
+        append(0, value);
+        if (levelSizes.get(0) >= capacity(0)) {
+            compress();
+        }
+    }
+
+    /**
+     * Merges another sketch into this one. The other sketch is not modified.
+     *
+     * @param other the sketch to merge
+     */
+    public void merge(QuantileSketch other) {
+        if (other.count == 0) {
+            return;
+        }
+
+        if (count == 0 || other.min < min) {
+            min = other.min;
+        }
+        if (count == 0 || other.max > max) {
+            max = other.max;
+        }
+        count += other.count;
+
+        for (int h = 0; h < other.levels.size(); h++) {
+            double[] items = other.levels.get(h);
+            for (int i = 0; i < other.levelSizes.get(h); i++) {
+                append(h, items[i]);
+            }
+        }
+        compress();
+    }
+
+    /**
+     * Gets the number of values added to the sketch.
+     *
+     * @return the number of values
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Gets the smallest value added to the sketch.
+     *
+     * @return the minimum, or NaN if the sketch is empty
+     */
+    public double getMin() {
+        return min;
+    }
+
+    /**
+     * Gets the largest value added to the sketch.
+     *
+     * @return the maximum, or NaN if the sketch is empty
+     */
+    public double getMax() {
+        return max;
+    }
+
+    /**
+     * Gets the approximate value at a normalized rank.
+     *
+     * @param fraction the rank, in [0, 1]
+     * @return the smallest retained value whose rank reaches the fraction, or NaN if the sketch is empty
+     */
+    public double getQuantile(double fraction) {
+        if (count == 0) {
+            return Double.NaN;
+        }
+
+        double[] cutPoints = getCutPoints(new double[] { fraction });
+        return cutPoints.length > 0 ? cutPoints[0] : max;
+    }
+
+    /**
+     * Computes bin boundaries that divide the values into at most maxBins
+     * bins of roughly equal count. Bin b holds the values in
+     * (cutPoints[b - 1], cutPoints[b]]; the last bin holds everything above the
+     * last cut point.
+     *
+     * @param maxBins the maximum number of bins
+     * @return the distinct cut points in ascending order, at most maxBins - 1 of them
+     */
+    public double[] getCutPoints(int maxBins) {
+        double[] fractions = new double[Math.max(maxBins - 1, 0)];
+        for (int i = 0; i < fractions.length; i++) {
+            fractions[i] = (double) (i + 1) / maxBins;
+        }
+        return getCutPoints(fractions);
+    }
+
+    /**
+     * Computes the distinct values at ascending normalized ranks, leaving out
+     * the maximum so that the bin above the last cut point is never empty.
+     *
+     * @param fractions the ranks, ascending, in [0, 1]
+     * @return the distinct cut points in ascending order
+     */
+    private double[] getCutPoints(double[] fractions) {
+        // Step 1: Collect all retained items with their weights, sorted by value
+        int numItems = 0;
+        for (int size : levelSizes) {
+            numItems += size;
+        }
+        double[] values = new double[numItems];
+        long[] weights = new long[numItems];
+        int n = 0;
+        for (int h = 0; h < levels.size(); h++) {
+            double[] items = levels.get(h);
+            for (int i = 0; i < levelSizes.get(h); i++) {
+                values[n] = items[i];
+                weights[n] = 1L << h;
+                n++;
+            }
+        }
+        sortByValue(values, weights);
+
+        // Step 2: Walk the cumulative weights, emitting one cut point per rank
+        double[] cutPoints = new double[fractions.length];
+        int numCuts = 0;
+        long cumulative = 0;
+        int item = 0;
+        long totalWeight = 0;
+        for (long weight : weights) {
+            totalWeight += weight;
+        }
+        for (double fraction : fractions) {
+            double target = fraction * totalWeight;
+            while (item < numItems && cumulative + weights[item] < target) {
+                cumulative += weights[item++];
+            }
+            if (item >= numItems) {
+                break;
+            }
+            double value = values[item];
+            if (value < max && (numCuts == 0 || value > cutPoints[numCuts - 1])) {
+                cutPoints[numCuts++] = value;
+            }
+        }
+
+        return Arrays.copyOf(cutPoints, numCuts);
+    }
+
+    /**
+     * Appends an item to a level, growing the level's buffer if needed.
+     *
+     * @param level the level
+     * @param value the item
+     */
+    private void append(int level, double value) {
+        while (level >= levels.size()) {
+            addLevel();
+        }
+
+        double[] items = levels.get(level);
+        int size = levelSizes.get(level);
+        if (size == items.length) {
+            items = Arrays.copyOf(items, items.length * 2);
+            levels.set(level, items);
+        }
+        items[size] = value;
+        levelSizes.set(level, size + 1);
+    }
+
+    /**
+     * Adds an empty level on top of the hierarchy.
+     */
+    private void addLevel() {
+        levels.add(new double[Math.max(k, MIN_CAPACITY)]);
+        levelSizes.add(0);
+    }
+
+    /**
+     * Compacts overflowing levels until every level is within its capacity.
+     */
+    private void compress() {
+        for (int h = 0; h < levels.size(); h++) {
+            if (levelSizes.get(h) >= capacity(h)) {
+                compact(h);
+            }
+        }
+    }
+
+    /**
+     * Sorts a level and promotes every other item to the next level.
+     * An odd item out stays behind.
+     *
+     * @param level the level to compact
+     */
+    private void compact(int level) {
+        double[] items = levels.get(level);
+        int size = levelSizes.get(level);
+        Arrays.sort(items, 0, size);
+
+        // Leave the smallest item behind if the size is odd, then promote one item of each pair
+        int leftover = size % 2;
+        int offset = random.nextBoolean() ? 1 : 0;
+        for (int i = leftover + offset; i < size; i += 2) {
+            append(level + 1, items[i]);
+        }
+        levelSizes.set(level, leftover);
+    }
+
+    /**
+     * Gets the capacity of a level; lower levels shrink geometrically.
+     *
+     * @param level the level
+     * @return the number of items the level may hold
+     */
+    private int capacity(int level) {
+        int depth = levels.size() - 1 - level;
+        return Math.max(MIN_CAPACITY, (int) Math.ceil(k * Math.pow(CAPACITY_DECAY, depth)));
+    }
+
+    /**
+     * Sorts values ascending, permuting their weights alongside.
+     *
+     * @param values the values
+     * @param weights the weight of each value
+     */
+    private static void sortByValue(double[] values, long[] weights) {
+        Integer[] order = new Integer[values.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(values[a], values[b]));
+
+        double[] sortedValues = new double[values.length];
+        long[] sortedWeights = new long[weights.length];
+        for (int i = 0; i < order.length; i++) {
+            sortedValues[i] = values[order[i]];
+            sortedWeights[i] = weights[order[i]];
+        }
+        System.arraycopy(sortedValues, 0, values, 0, values.length);
+        System.arraycopy(sortedWeights, 0, weights, 0, weights.length);
+    }
+}